@@ -0,0 +1,73 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A CharSequence view over a region of a ByteBuffer that holds only ASCII bytes.
+ * It lets the regex engine match a line in place, without copying the bytes out of the
+ * buffer or decoding them into a String. The view is mutable so that a single instance
+ * (and the Matchers created for it) can be reused for every line of a chunk.
+ */
+public class AsciiCharSequence implements CharSequence {
+    private ByteBuffer buffer; // The buffer holding the bytes
+    private int start; // Absolute position of the first byte of the view
+    private int end; // Absolute position just past the last byte of the view
+
+    /**
+     * Points this view at a new region of a buffer.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param start  The start of the region.
+     * @param end    The end of the region.
+     * @return This view, for chaining.
+     */
+    AsciiCharSequence reset(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    /**
+     * Checks whether a region of a buffer holds only ASCII bytes, so that it can be viewed
+     * without decoding.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param start  The start of the region.
+     * @param end    The end of the region.
+     * @return true if no byte in the region has its high bit set.
+     */
+    static boolean isAscii(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) buffer.get(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return new AsciiCharSequence().reset(buffer, start + from, start + to);
+    }
+
+    /**
+     * Materialises the viewed bytes into a String. Only called when a result is emitted.
+     *
+     * @return The viewed text.
+     */
+    @Override
+    public String toString() {
+        return LiteralSearch.decode(buffer, start, end);
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for the search of one chunk of a file. Its duration is the time
+ * the chunk task took, so in a recording a chunk that lags behind the others of its file shows
+ * up next to the GC pauses, page faults and lock waits of the same moment. Files searched in a
+ * batch are one chunk each.
+ * <p>
+ * The event is only created while the recorder runs, see {@link FlightEvents}, and only filled
+ * in when a recording has it enabled.
+ */
+@Name("org.example.ChunkSearch")
+@Label("Chunk Search")
+@Category({"Grep", "Search"})
+@Description("Search of one chunk of a file")
+@StackTrace(false)
+class ChunkSearchEvent extends jdk.jfr.Event {
+    @Label("File")
+    String file;
+
+    @Label("Sequence Number")
+    int sequenceNumber;
+
+    @Label("Start Offset")
+    @Description("First byte of the chunk")
+    long startOffset;
+
+    @Label("End Offset")
+    @Description("Last byte of the chunk")
+    long endOffset;
+
+    @Label("Bytes")
+    @Description("Bytes searched, which end on a line boundary")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    @Description("Lines searched, 0 when the literal search did not number them")
+    long lines;
+
+    @Label("Matches")
+    long matches;
+
+    /**
+     * A result container that counts the results of one chunk on their way to the container
+     * of the chunk task. It is used by a single chunk task, so the count needs no synchronization.
+     */
+    static class CountingResult extends Result {
+        private final Result target; // The container results are passed on to
+        int matches; // Results added so far
+
+        CountingResult(Result target) {
+            super(null, false);
+            this.target = target;
+        }
+
+        @Override
+        public void addResult(LineResult lineResult) {
+            matches++;
+            target.addResult(lineResult);
+        }
+
+        @Override
+        public void addMatch(int pattern) {
+            matches++;
+            target.addMatch(pattern);
+        }
+
+        @Override
+        public void addContext(LineResult lineResult) {
+            target.addContext(lineResult);
+        }
+    }
+}
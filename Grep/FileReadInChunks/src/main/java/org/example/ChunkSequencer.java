@@ -0,0 +1,45 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the chunk relative line numbers of chunk tasks into absolute line numbers.
+ * Every task counts the newlines of its own chunk while it searches it, in parallel with the
+ * other tasks, and hands its results over together with that count. The results are released
+ * into the shared result container in sequence number order, shifted by a running prefix sum of
+ * the newline counts of all earlier chunks, so no second pass over the file is needed.
+ */
+public class ChunkSequencer {
+    private final Result result; // The shared container results are released into
+    private final Map<Integer, Result> pendingResults = new HashMap<>(); // Completed chunks waiting for earlier ones
+    private final Map<Integer, Long> pendingNewlines = new HashMap<>(); // Newline counts of the waiting chunks
+    private int nextSequenceNumber; // The next chunk to release
+    private long linesBefore; // Prefix sum: number of lines in all released chunks
+
+    /**
+     * Constructs a sequencer that releases results into the given container.
+     *
+     * @param result The shared container for search matches.
+     */
+    public ChunkSequencer(Result result) {
+        this.result = result;
+    }
+
+    /**
+     * Records a completed chunk and releases every chunk whose predecessors are all complete.
+     *
+     * @param sequenceNumber The sequence number of the completed chunk.
+     * @param newlines       The number of newlines in the chunk.
+     * @param chunkResult    The results of the chunk, numbered from 1 at the start of the chunk.
+     */
+    public synchronized void complete(int sequenceNumber, long newlines, Result chunkResult) {
+        pendingResults.put(sequenceNumber, chunkResult);
+        pendingNewlines.put(sequenceNumber, newlines);
+        while (pendingResults.containsKey(nextSequenceNumber)) {
+            result.addResults(pendingResults.remove(nextSequenceNumber), linesBefore);
+            linesBefore += pendingNewlines.remove(nextSequenceNumber);
+            nextSequenceNumber++;
+        }
+    }
+}
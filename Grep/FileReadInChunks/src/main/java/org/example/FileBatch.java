@@ -0,0 +1,84 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A unit of work made of several small files that are searched one after the other on the
+ * same thread. Submitting small files one task per file would cost more in scheduling than in
+ * searching, so they are grouped until the batch reaches a byte budget. Every file is searched
+ * as a single chunk that starts at its first line, so no sequencer is needed for line numbers.
+ * With -A, -B or -C a file is searched into a container of its own first, so that its matches and
+ * their context stay together. The files left are skipped once the search is decided.
+ */
+public class FileBatch implements Runnable {
+    private final String pwd; // The current working directory path
+    private final List<String> files; // The small files in this batch
+    private final List<Pattern> regexPatterns; // List of regex patterns to search for
+    private final LineResult.Builder builder; // Builder for LineResult objects
+    private final Result result; // Result container for search matches
+    private final MyRegexOptions options; // Options for regex search
+    private final LiteralSearch literalSearch; // Shared byte level search, null unless some pattern is a plain string
+    private final SearchLimit limit; // Ends files and the search once their answer is known, or null
+
+    /**
+     * Constructs a batch of small files.
+     *
+     * @param pwd           The current working directory path.
+     * @param files         The files in this batch.
+     * @param regexPatterns List of regex patterns to search for.
+     * @param builder       Builder for LineResult objects.
+     * @param result        Result container for search matches.
+     * @param options       Options for regex search.
+     * @param literalSearch Shared byte level search, or null.
+     * @param limit         The limit of the search, or null.
+     */
+    public FileBatch(String pwd, List<String> files, List<Pattern> regexPatterns, LineResult.Builder builder, Result result, MyRegexOptions options, LiteralSearch literalSearch, SearchLimit limit) {
+        this.pwd = pwd;
+        this.files = files;
+        this.regexPatterns = regexPatterns;
+        this.builder = builder;
+        this.result = result;
+        this.options = options;
+        this.literalSearch = literalSearch;
+        this.limit = limit;
+    }
+
+    /**
+     * Searches every file of the batch in turn. A file that cannot be read is reported and skipped.
+     */
+    @Override
+    public void run() {
+        for (String file : files) {
+            if (limit != null && limit.decided()) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(pwd, file))) {
+                long fileSize = channel.size();
+                if (fileSize == 0) {
+                    if (limit != null) {
+                        limit.fileDone(file, 0, result);
+                    }
+                    continue;
+                }
+                Result fileResult = options.showContext ? new Result() : result;
+                FileReadInChunks task = new FileReadInChunks(channel, 0, fileSize - 1, 0, regexPatterns, builder, fileResult, List.of(file), options);
+                task.setLiteralSearch(literalSearch);
+                task.setLimit(limit);
+                task.run();
+                if (fileResult != result) {
+                    result.addResults(fileResult, 0);
+                }
+            } catch (ClosedByInterruptException e) {
+                // The search was decided and its running tasks interrupted
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
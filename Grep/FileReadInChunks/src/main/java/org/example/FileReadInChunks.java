@@ -1,8 +1,9 @@
 package org.example;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -17,6 +18,13 @@ import static java.lang.Math.toIntExact;
 
 
 public class FileReadInChunks implements Runnable {
+    // Largest window a single ByteBuffer can address
+    static int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    // Window read at a time with a limit, so that reading stops soon after the file is done (8 MB)
+    static int LIMITED_WINDOW_SIZE = 8 * 1024 * 1024;
+    // Block read at a time while looking for the lines just outside the chunk (8 KB)
+    static int EDGE_BLOCK_SIZE = 8 * 1024;
+
     private FileChannel channel;
     private long startLocation;
     private long endLocation;
@@ -26,7 +34,14 @@ public class FileReadInChunks implements Runnable {
     Result result;
     List<String> files;
     MyRegexOptions options;
-
+    LiteralSearch literalSearch; // Shared byte level search used when any pattern is a plain string, null otherwise
+    ChunkSequencer sequencer; // Releases results with absolute line numbers when -n is set, null otherwise
+    SearchLimit limit; // Ends the file and the search once their answer is known, null unless there is a limit
+    private int lineNumber = 1; // Line number of the current line, counted from the start of the chunk
+    private final AsciiCharSequence view = new AsciiCharSequence(); // Reused view over the line being matched
+    private Matcher[] matchers; // Reused matcher of each pattern, created on first use
+    private ContextLines context; // Adds the lines around matches with -A, -B or -C, null otherwise
+    private long bufferStart; // File offset of the start of the buffer being processed
 
     /**
      * Constructs a FileReadInChunks task.
@@ -73,6 +88,18 @@ public class FileReadInChunks implements Runnable {
         this.options = options;
     }
 
+    public void setLiteralSearch(LiteralSearch literalSearch) {
+        this.literalSearch = literalSearch;
+    }
+
+    public void setSequencer(ChunkSequencer sequencer) {
+        this.sequencer = sequencer;
+    }
+
+    public void setLimit(SearchLimit limit) {
+        this.limit = limit;
+    }
+
     public FileReadInChunks(){
 
     }
@@ -80,110 +107,337 @@ public class FileReadInChunks implements Runnable {
     /**
      * Executes the task of reading the file in chunks and processing each chunk.
      * It reads the file segment assigned to this task and processes it line by line to find matches.
+     * A single ByteBuffer cannot address more than 2 GiB, so larger segments are processed as
+     * consecutive windows that each end on a line boundary. With a limit the windows are smaller,
+     * and the task stops reading once the file has given all it needs to; the limit must only be
+     * set on a task that covers a whole file.
+     * <p>
+     * With -A, -B or -C the chunk also searches the lines just outside it, up to the edges chosen
+     * by adjustEndLocation: a match in the lines before the chunk adds its lines after it from this
+     * chunk, and a match in the lines after the chunk its lines before it. Every chunk only adds its
+     * own lines, so the context of a match near an edge is complete and no line is added twice.
      */
     @Override
     public void run() {
+        ChunkSearchEvent event = FlightEvents.chunkSearch();
+        Result taskResult = result;
+        // With -c the chunk is counted on its own and handed over once it is done
+        MatchCounter counter = options.onlyCountLines ? new MatchCounter(regexPatterns.size()) : null;
+        if (counter != null) {
+            result = counter;
+        }
+        SearchLimit.LimitedResult limited = (limit != null) ? limit.limit(result) : null;
+        if (limited != null) {
+            result = limited;
+        }
+        int windowSize = (limit != null) ? LIMITED_WINDOW_SIZE : MAX_WINDOW_SIZE;
+        // Results are counted on their way to the container of the task while the event is recorded
+        ChunkSearchEvent.CountingResult counted = (event != null && event.isEnabled()) ? new ChunkSearchEvent.CountingResult(result) : null;
+        if (counted != null) {
+            result = counted;
+        }
+        if (options.showContext) {
+            context = new ContextLines(channel, files.get(0), builder, options, startLocation, endLocation + 1);
+        }
+        long position = startLocation;
         try {
-            long size = endLocation - startLocation + 1;
-            while (size > Integer.MAX_VALUE) {
-                ByteBuffer buffer = ByteBuffer.allocate(toIntExact(Integer.MAX_VALUE));
-                channel.read(buffer, startLocation);
-
-
-                // Convert the buffer to a String
-                buffer.flip(); // Flip the buffer for reading
+            if (context != null && options.contextAfter > 0 && startLocation > 0) {
+                searchEdge(edgeBefore(options.contextAfter), startLocation);
+            }
+            while (position <= endLocation && (limit == null || !limit.decided())) {
+                long windowEnd = Math.min(endLocation, position + windowSize - 1);
+                ByteBuffer buffer = options.mappedIO ? map(position, windowEnd) : read(position, windowEnd);
+
+                if (windowEnd < endLocation) {
+                    // Leave the partial last line to the next window
+                    int lastNewline = lastIndexOf(buffer, (byte) '\n');
+                    if (lastNewline >= 0) {
+                        buffer.limit(lastNewline + 1);
+                    }
+                }
+                if (buffer.limit() == 0) {
+                    break; // The file ended before the segment did
+                }
 
-//                System.out.println("sequence no. " + sequenceNumber + " size : " + size);
+//                System.out.println("sequence no. " + sequenceNumber + " window : " + position + "-" + windowEnd);
 
+                bufferStart = position;
                 processBuffer(buffer);
-                size -= Integer.MAX_VALUE;
+                position += buffer.limit();
+            }
+            if (context != null && options.contextBefore > 0) {
+                searchEdge(endLocation + 1, edgeAfter(options.contextBefore));
             }
 
-            if (size > 0) {
-                ByteBuffer buffer = ByteBuffer.allocate(toIntExact(size));
-                channel.read(buffer, startLocation);
+        } catch (SearchLimit.FileDone | ClosedByInterruptException e) {
+            // The file has given all it needs to, or the search was decided and its running tasks interrupted
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            result = taskResult;
+            if (counter != null) {
+                result.addCounts(files.get(0), counter);
+            }
+            if (limited != null) {
+                limit.fileDone(files.get(0), limited.matches, result);
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.file = files.get(0);
+                    event.sequenceNumber = sequenceNumber;
+                    event.startOffset = startLocation;
+                    event.endOffset = endLocation;
+                    event.bytes = Math.min(position, endLocation + 1) - startLocation;
+                    event.lines = lineNumber - 1;
+                    event.matches = (counted != null) ? counted.matches : 0;
+                    event.commit();
+                }
+            }
+            if (sequencer != null) {
+                // Every line but the one we are on ended with a newline
+                sequencer.complete(sequenceNumber, lineNumber - 1, result);
+            }
+        }
+    }
 
-                // Convert the buffer to a String
-                buffer.flip(); // Flip the buffer for reading
+    /**
+     * Maps a window of the file into memory, so that it is scanned straight from the page cache
+     * without being copied onto the heap.
+     *
+     * @param start The first byte of the window.
+     * @param end   The last byte of the window.
+     * @return A read-only buffer over the window.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private ByteBuffer map(long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start + 1);
+    }
 
-//                System.out.println("sequence no. " + sequenceNumber + " size : " + size);
+    /**
+     * Reads a window of the file into a heap buffer, retrying until the window is full or the file ends.
+     *
+     * @param start The first byte of the window.
+     * @param end   The last byte of the window.
+     * @return A buffer holding the window, flipped for reading.
+     * @throws IOException If the file cannot be read.
+     */
+    private ByteBuffer read(long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(toIntExact(end - start + 1));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        buffer.flip(); // Flip the buffer for reading
+        return buffer;
+    }
 
-                processBuffer(buffer);
+    /**
+     * Finds the start of the given number of lines before the chunk.
+     *
+     * @param lines The number of lines.
+     * @return The file offset of the first of these lines, or 0 if the file has fewer.
+     * @throws IOException If the file cannot be read.
+     */
+    private long edgeBefore(int lines) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(EDGE_BLOCK_SIZE);
+        // The byte before the chunk is the newline that ends the line just before it
+        long position = startLocation - 1;
+        int newlines = 0;
+        while (position > 0) {
+            long blockStart = Math.max(0, position - block.capacity());
+            block.clear().limit((int) (position - blockStart));
+            while (block.hasRemaining() && channel.read(block, blockStart + block.position()) > 0) {
+                // Read until the block is full
             }
+            for (int i = block.position() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n' && ++newlines == lines) {
+                    return blockStart + i + 1;
+                }
+            }
+            position = blockStart;
+        }
+        return 0;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Finds the end of the given number of lines after the chunk.
+     *
+     * @param lines The number of lines.
+     * @return The file offset just past the last of these lines, or the size of the file if it has fewer.
+     * @throws IOException If the file cannot be read.
+     */
+    private long edgeAfter(int lines) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(EDGE_BLOCK_SIZE);
+        long position = endLocation + 1;
+        int newlines = 0;
+        int read;
+        while ((read = channel.read(block.clear(), position)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n' && ++newlines == lines) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return position;
+    }
+
+    /**
+     * Searches lines just outside the chunk for -A, -B and -C. Their matches are not added, they
+     * only add the lines of the chunk around them. Line numbers are left as the chunk counted them.
+     *
+     * @param start The first byte of the lines.
+     * @param end   The end of the lines (exclusive).
+     * @throws IOException If the file cannot be read.
+     */
+    private void searchEdge(long start, long end) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        int chunkLineNumber = lineNumber;
+        bufferStart = start;
+        processBuffer(read(start, end - 1));
+        lineNumber = chunkLineNumber;
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte value) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
         }
+        return -1;
     }
 
     /**
      * Processes the content of the ByteBuffer as a sequence of lines, looking for regex matches.
+     * Lines are numbered relative to the start of the chunk; the sequencer turns them into
+     * absolute line numbers once the chunk is complete.
      *
      * @param buffer The ByteBuffer containing the chunk of the file to process.
      */
     void processBuffer(ByteBuffer buffer) {
+        if (context != null) {
+            context.setBuffer(buffer, bufferStart);
+        }
+        if (literalSearch != null) {
+            // Literal patterns are searched for on the raw chunk bytes, lines are only decoded when needed
+            String fileName = files.get(0);
+            if (options.invertedSearch) {
+                lineNumber = literalSearch.invertedSearch(buffer, 0, buffer.limit(), lineNumber, fileName, result);
+            } else {
+                lineNumber = literalSearch.search(buffer, 0, buffer.limit(), lineNumber, fileName, result);
+            }
+            return;
+        }
+        int limit = buffer.limit();
         int startPosition = 0;
-        int currentPosition = 0;
-
-        while (currentPosition < buffer.limit()) {
-            byte currentByte = buffer.get();
-            currentPosition++;
 
-            if (currentByte == '\n') {
+        for (int currentPosition = 0; currentPosition < limit; currentPosition++) {
+            if (buffer.get(currentPosition) == '\n') {
                 // Process the line from startPosition to currentPosition
-                processLine(buffer, startPosition, currentPosition - 1);
+                processLine(buffer, startPosition, currentPosition);
 
                 // Move to the next line
-                startPosition = currentPosition;
+                startPosition = currentPosition + 1;
+                lineNumber++;
+                if (this.limit != null && this.limit.decided()) {
+                    return;
+                }
             }
         }
 
         // Process the last line if it doesn't end with a newline character
-        if (startPosition < currentPosition) {
-            processLine(buffer, startPosition, currentPosition);
+        if (startPosition < limit) {
+            processLine(buffer, startPosition, limit);
         }
     }
 
     /**
-     * Processes a single line from the ByteBuffer.
+     * Processes a single line from the ByteBuffer in place. ASCII lines are matched through a
+     * CharSequence view over the buffer, so they are neither copied nor decoded unless a result
+     * is emitted; other lines are decoded as UTF-8.
      *
      * @param buffer The ByteBuffer containing the file's data.
      * @param start  The starting position of the line in the buffer.
-     * @param end    The ending position of the line in the buffer.
+     * @param end    The ending position of the line in the buffer (exclusive).
      */
     void processLine(ByteBuffer buffer, long start, long end) {
-        // Extract and process the line bytes from start to end (exclusive)
-        byte[] lineBytes = new byte[(int) (end - start)];
-        buffer.position((int) start);
-        buffer.get(lineBytes);
-
-        // Perform operations on lineBytes as needed
-        processChunks(lineBytes);
+        int from = (int) start;
+        int to = (int) end;
+        CharSequence line = AsciiCharSequence.isAscii(buffer, from, to)
+                ? view.reset(buffer, from, to)
+                : LiteralSearch.decode(buffer, from, to);
+        if (!processChunks(line, bufferStart + start) && context != null) {
+            context.unmatched(bufferStart + start, bufferStart + end, lineNumber, result);
+        }
     }
 
     /**
-     * Processes a chunk of bytes representing a portion of a file. It converts the byte array into a String
-     * using UTF-8 encoding and then searches for matches against a list of regex patterns. Depending on the
-     * search options, it constructs LineResult objects for each match and adds them to the result container.
+     * Processes a single line, searching for matches against the list of regex patterns. The Matchers
+     * are reused from line to line, and the line is only turned into a String once a LineResult is
+     * built for it. Depending on the search options, it constructs LineResult objects for each match
+     * and adds them to the result container. With context, the lines before a match are added
+     * first, and a line outside the chunk is only searched until it matches.
      *
-     * @param chunk The byte array representing a chunk of the file content.
+     * @param line      The content of the line, either a view over the chunk or a decoded String.
+     * @param lineStart The file offset of the start of the line.
+     * @return Whether the line matched.
      */
-    private void processChunks(byte[] chunk) {
+    private boolean processChunks(CharSequence line, long lineStart) {
         String fileName = files.get(0);
-        String line = new String(chunk, StandardCharsets.UTF_8); // Convert line bytes to String
-        for (Pattern pattern : regexPatterns) {
-            Matcher matcher = pattern.matcher(line);
-            if (options.invertedSearch) {
-                while (!matcher.find()) {
-                    LineResult lineResult = builder.build(null, line, fileName, pattern);
+        if (matchers == null) {
+            matchers = new Matcher[regexPatterns.size()];
+        }
+        String text = null; // The line as a String, built on the first emitted result
+        boolean matched = false;
+        for (int i = 0; i < matchers.length; i++) {
+            Pattern pattern = regexPatterns.get(i);
+            Matcher matcher = (matchers[i] == null) ? (matchers[i] = pattern.matcher(line)) : matchers[i].reset(line);
+            if (options.onlyCountLines) {
+                countMatches(matcher, line, i);
+            } else if (options.invertedSearch) {
+                if (!LiteralSearch.find(matcher, line, options.wholeWord)) {
+                    text = (text == null) ? line.toString() : text;
+                    LineResult lineResult = builder.build(lineNumber, text, fileName, pattern);
                     result.addResult(lineResult);
                 }
             } else {
-                while (matcher.find()) {
-                    LineResult lineResult = builder.build(null, line, fileName, pattern);
+                while (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                    if (!matched && context != null) {
+                        context.matched(result);
+                        if (!context.owns(lineStart)) {
+                            return true;
+                        }
+                    }
+                    matched = true;
+                    text = (text == null) ? line.toString() : text;
+                    LineResult lineResult = builder.build(lineNumber, text, fileName, pattern);
                     result.addResult(lineResult);
                 }
             }
         }
+        return matched;
+    }
+
+    /**
+     * Counts the matches of a pattern in a line for -c, without turning the line into a String.
+     *
+     * @param matcher The matcher of the pattern, reset to the line.
+     * @param line    The content of the line.
+     * @param pattern The index of the pattern.
+     */
+    private void countMatches(Matcher matcher, CharSequence line, int pattern) {
+        if (options.invertedSearch) {
+            if (!LiteralSearch.find(matcher, line, options.wholeWord)) {
+                result.addMatch(pattern);
+            }
+            return;
+        }
+        while (LiteralSearch.find(matcher, line, options.wholeWord)) {
+            result.addMatch(pattern);
+        }
     }
-}
\ No newline at end of file
+}
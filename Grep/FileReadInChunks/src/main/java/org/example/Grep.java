@@ -3,9 +3,14 @@ package org.example;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * The Grep class is responsible for searching for patterns in files and directories using multiple threads.
@@ -18,9 +23,17 @@ public class Grep {
     MyRegexOptions options; // Options for regex search
     Result result; // Result container for search matches
     LineResult.Builder builder; // Builder for LineResult objects
+    LiteralSearch literalSearch; // Byte level search shared by all chunk tasks, null unless some pattern is a plain string
+    SearchLimit limit; // Stops files and the search once their answer is known, null unless -m, -q or a file listing
 
     // Maximum chunk size for file reading (300 MB)
     static long MAX_CHUNK_SIZE = 300L * 1024L * 1024L;
+    // Minimum chunk size, so that a file is not cut into ranges too small to be worth a task (1 MB)
+    static long MIN_CHUNK_SIZE = 1024L * 1024L;
+    // Files larger than this are split into chunks, smaller ones are batched (8 MB)
+    static long SPLIT_THRESHOLD = 8L * 1024L * 1024L;
+    // Total size of the small files grouped into one batch (8 MB)
+    static long BATCH_BYTE_BUDGET = 8L * 1024L * 1024L;
 
     /**
      * Constructs a Grep object with the specified parameters.
@@ -39,8 +52,15 @@ public class Grep {
         this.regexPatterns = regexPatterns;
         this.files = files;
         this.directories = directories;
-        this.result = new Result();
+        this.result = options.streamResults ? new Result(createSink(options)) : new Result();
         this.builder = new LineResult.Builder(this.options);
+        // Context needs every line, not only those the byte level search skips to
+        this.literalSearch = options.showContext ? null : LiteralSearch.compile(regexPatterns, options, builder);
+        this.limit = SearchLimit.of(options);
+
+        if (options.dirSearch) {
+            addFilesRecursive();
+        }
 
         if (files.isEmpty()) {
             throw new IllegalArgumentException("{ No files to search }");
@@ -49,55 +69,158 @@ public class Grep {
 
     /**
      * Executes the grep operation by searching for patterns in files using multiple threads.
+     * All files feed the same pool: files larger than the split threshold are cut into
+     * line-aligned byte ranges that are searched in parallel, and smaller files are grouped
+     * into batches of about the batch byte budget, so that one huge file next to thousands of
+     * small ones keeps every thread busy.
+     * With a limit files are not split, since the matches of a file have to be counted in order,
+     * and once the first match decides the search (-q) the tasks still queued are cancelled.
      *
      * @throws Exception If an error occurs during the execution.
      */
     public void execute() throws Exception {
+        int threadPoolSize = 10;
 
-        String file = files.get(0);
+        BlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<>(100);
 
-        System.out.println("file: " + file);
+        RejectedExecutionHandler rejectedExecutionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
 
-        try (FileInputStream fileInputStream = new FileInputStream(file);
-             FileChannel channel = fileInputStream.getChannel()) {
-            long fileSize = channel.size();
-            System.out.println("filesize: " + fileSize);
+        ExecutorService executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0, TimeUnit.MILLISECONDS, taskQueue, rejectedExecutionHandler);
+        if (limit != null) {
+            limit.onDecided(executor::shutdownNow);
+        }
 
-            int threadPoolSize = 10;
+        List<FileChannel> channels = new ArrayList<>(); // Channels of split files, shared by their chunks
+        List<String> batch = new ArrayList<>();
+        long batchBytes = 0;
+        try {
+            for (String file : files) {
+                if (limit != null && limit.decided()) {
+                    break;
+                }
+                long fileSize;
+                try {
+                    fileSize = Files.size(Paths.get(pwd, file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    continue;
+                }
 
-            long chunkSize = fileSize / threadPoolSize;
-            System.out.println("Calculated Chunk size: " + chunkSize);
-            if (chunkSize > MAX_CHUNK_SIZE) {
-                chunkSize = MAX_CHUNK_SIZE;
-            }
-            System.out.println("Final Chunk size: " + chunkSize);
+                if (fileSize > SPLIT_THRESHOLD && limit == null) {
+                    submitChunks(executor, channels, file, fileSize, threadPoolSize);
+                    continue;
+                }
 
-            BlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<>(100);
+                batch.add(file);
+                batchBytes += fileSize;
+                if (batchBytes >= BATCH_BYTE_BUDGET) {
+                    submitBatch(executor, batch, batchBytes);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+            }
+            if (!batch.isEmpty()) {
+                submitBatch(executor, batch, batchBytes);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+        if (!options.quiet) {
+            System.out.println("Finished all Threads");
+        }
+    }
 
-            RejectedExecutionHandler rejectedExecutionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
+    /**
+     * Splits a large file into line-aligned byte ranges and submits one task per range.
+     *
+     * @param executor       The pool to submit the tasks to.
+     * @param channels       The list the channel of the file is added to, to be closed once all tasks are done.
+     * @param file           The file to split.
+     * @param fileSize       The size of the file in bytes.
+     * @param threadPoolSize The number of threads in the pool.
+     * @throws Exception If an error occurs while opening or splitting the file.
+     */
+    private void submitChunks(ExecutorService executor, List<FileChannel> channels, String file, long fileSize, int threadPoolSize) throws Exception {
+        System.out.println("file: " + file);
+        System.out.println("filesize: " + fileSize);
 
-            ExecutorService executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0, TimeUnit.MILLISECONDS, taskQueue, rejectedExecutionHandler);
+        FileChannel channel = FileChannel.open(Paths.get(pwd, file));
+        channels.add(channel);
 
-            long startLocation = 0;
-            int sequenceNumber = 0;
+        long chunkSize = fileSize / threadPoolSize;
+        System.out.println("Calculated Chunk size: " + chunkSize);
+        if (chunkSize > MAX_CHUNK_SIZE) {
+            chunkSize = MAX_CHUNK_SIZE;
+        }
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            chunkSize = MIN_CHUNK_SIZE;
+        }
+        System.out.println("Final Chunk size: " + chunkSize);
 
-            while (startLocation < fileSize) {
-                long endLocation = startLocation + chunkSize - 1;
-                if (endLocation >= fileSize) {
-                    endLocation = fileSize - 1;
-                } else {
-                    endLocation = adjustEndLocation(channel, endLocation);
-                }
+        long startLocation = 0;
+        int sequenceNumber = 0;
 
-                System.out.println("Start: " + startLocation + ", End: " + endLocation);
-                executor.submit(new FileReadInChunks(channel, startLocation, endLocation, sequenceNumber++, regexPatterns, builder, result, files, options));
+        // Line numbers are only known once all earlier chunks have been counted, and context has to
+        // come out in file order around its matches
+        ChunkSequencer sequencer = (options.showLineNumbers || options.showContext) ? new ChunkSequencer(result) : null;
 
-                startLocation = endLocation + 1;
+        while (startLocation < fileSize) {
+            long endLocation = startLocation + chunkSize - 1;
+            if (endLocation >= fileSize) {
+                endLocation = fileSize - 1;
+            } else {
+                endLocation = adjustEndLocation(channel, endLocation);
             }
 
-            executor.shutdown();
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            System.out.println("Finished all Threads");
+            System.out.println("Start: " + startLocation + ", End: " + endLocation);
+            Result chunkResult = (sequencer != null) ? new Result() : result;
+            FileReadInChunks task = new FileReadInChunks(channel, startLocation, endLocation, sequenceNumber++, regexPatterns, builder, chunkResult, List.of(file), options);
+            task.setLiteralSearch(literalSearch);
+            task.setSequencer(sequencer);
+            executor.submit(task);
+
+            startLocation = endLocation + 1;
+        }
+    }
+
+    /**
+     * Submits a batch of small files as a single task.
+     *
+     * @param executor   The pool to submit the task to.
+     * @param batch      The files in the batch.
+     * @param batchBytes The total size of the files in bytes.
+     */
+    private void submitBatch(ExecutorService executor, List<String> batch, long batchBytes) {
+        if (!options.quiet) {
+            System.out.println("Batch of " + batch.size() + " files, " + batchBytes + " bytes");
+        }
+        FileBatch task = new FileBatch(pwd, batch, regexPatterns, builder, result, options, literalSearch, limit);
+        if (limit == null) {
+            executor.submit(task);
+        } else {
+            // Not submitted to a pool that was shut down once the search is decided
+            limit.submit(() -> executor.submit(task));
+        }
+    }
+
+    /**
+     * Adds all files in the current working directory and its subdirectories to the list of files to search.
+     *
+     * @throws IOException If an I/O error occurs during directory traversal.
+     */
+    private void addFilesRecursive() throws IOException {
+        Path dir = Paths.get(pwd);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.forEach(path -> {
+                if (Files.isRegularFile(path)) {
+                    String relFilePath = path.toString().substring(pwd.length() + 1);
+                    files.add(relFilePath);
+                }
+            });
         }
     }
 
@@ -122,4 +245,18 @@ public class Grep {
         }
         return endLocation;
     }
+
+    /**
+     * Creates the sink that streamed results are written to: the standard output, or nothing
+     * at all when only the count is wanted.
+     *
+     * @param options Options for regex search.
+     * @return The sink for streamed results.
+     */
+    private static ResultSink createSink(MyRegexOptions options) {
+        if (options.onlyCountLines) {
+            return ResultSink.discarding();
+        }
+        return new ResultSink(System.out);
+    }
 }
@@ -1,9 +1,11 @@
 package org.example;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -25,25 +27,38 @@ public class Main {
      * @throws IOException If an I/O error occurs.
      */
     public static void main(String[] args) throws Exception {
+        long mainStart = System.nanoTime();
         String pwd = System.getProperty("user.dir");
         if(args.length<2){
             throw new IllegalArgumentException("Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [ -c | -n | -l |  ] ");
         }
-        System.out.println("ran command from = "+pwd);
+        // -q prints nothing, it only tells through the exit status whether anything matched
+        boolean quiet = Arrays.asList(args).contains("-q");
+        if (!quiet) {
+            System.out.println("ran command from = "+pwd);
+        }
 
         List<Pattern> regexPatterns = new ArrayList<>();
         List<String> options = new ArrayList<>();
         List<String> files = new ArrayList<>();
         List<String> dirs=new ArrayList<>();
+        // -F and -i change how patterns are compiled, so they have to be known before patterns are parsed,
+        // and every pattern is compiled only once
+        List<String> argList = Arrays.asList(args);
+        int patternFlags = (argList.contains("-F") ? Pattern.LITERAL : 0) | (argList.contains("-i") ? Pattern.CASE_INSENSITIVE : 0);
+        // -debug echoes how the arguments were parsed and reports the startup time
+        boolean debug = argList.contains("-debug");
 
         for(int i = 0; i < args.length; i++) {
-            System.out.println("parsing args["+i+"]="+args[i]);
+            if (debug) {
+                System.out.println("parsing args["+i+"]="+args[i]);
+            }
             switch(args[i]){
                 case "-p":
                     i++;
                     while (i < args.length && !args[i].startsWith("-")) {
                         try {
-                            regexPatterns.add(Pattern.compile(args[i]));
+                            regexPatterns.add(Pattern.compile(args[i], patternFlags));
                         } catch (PatternSyntaxException e ){
                             System.out.println(ANSI_RED+"Regex pattern is not valid: " + e.getMessage()+ANSI_RESET);
                             System.out.println(" [ignored]  + " + args[i] + " pattern");
@@ -52,6 +67,29 @@ public class Main {
                     }
                     i--;
                     break;
+                case "-pf":
+                    // Patterns file option, one pattern per line
+                    i++;
+                    while (i < args.length && !args[i].startsWith("-")) {
+                        try {
+                            for (String patternLine : Files.readAllLines(Paths.get(pwd, args[i]))) {
+                                if (patternLine.isEmpty()) {
+                                    continue;
+                                }
+                                try {
+                                    regexPatterns.add(Pattern.compile(patternLine, patternFlags));
+                                } catch (PatternSyntaxException e) {
+                                    System.out.println(ANSI_RED + "Regex pattern is not valid: " + e.getMessage() + ANSI_RESET);
+                                    System.out.println(" [ignored]  + " + patternLine + " pattern");
+                                }
+                            }
+                        } catch (IOException e) {
+                            System.out.println("[ERROR] reading patterns file " + args[i] + " : " + e);
+                        }
+                        i++;
+                    }
+                    i--;
+                    break;
                 case "-f":
                     i++;
                     while (i < args.length && !args[i].startsWith("-")) {
@@ -99,68 +137,105 @@ public class Main {
                     //only count
                     options.add("-c");
                     break;
+                case "-F":
+                    //fixed strings
+                    options.add("-F");
+                    break;
+                case "-w":
+                    //whole word
+                    options.add("-w");
+                    break;
+                case "-stream":
+                    //stream results
+                    options.add("-stream");
+                    break;
+                case "-mmap":
+                    //memory mapped reading
+                    options.add("-mmap");
+                    break;
                 case "-R":
                     //Recursive search
-//                    options.add("-R");
-                    System.out.println(ANSI_RED+"Usage: Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] "+ANSI_RESET);
-                    System.out.println(ANSI_RED+"... unknown option " + args[i] + "  ignoring... "+ANSI_RESET);
-                    return;
+                    options.add("-R");
+                    break;
+                case "-m":
+                case "-A":
+                case "-B":
+                case "-C":
+                    //stop a file after this many matches, or show lines of context around matches
+                    if (i + 1 < args.length) {
+                        options.add(args[i]);
+                        options.add(args[++i]);
+                    } else {
+                        System.out.println(ANSI_RED+"... option " + args[i] + " needs a value  ignoring... "+ANSI_RESET);
+                    }
+                    break;
+                case "-q":
+                    //quiet, only the exit status tells whether anything matched
+                    options.add("-q");
+                    break;
+                case "-files-with-matches":
+                case "-files-without-match":
+                    //only list the files
+                    options.add(args[i]);
+                    break;
+                case "-debug":
+                    //debug output, read before parsing
+                    break;
                 default:
-                    System.out.println(ANSI_RED+"Usage: Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] "+ANSI_RESET);
+                    System.out.println(ANSI_RED+"Usage: Grep.java -p <pattern1> <pattern2> ... [-pf <patternsFile>] -f <file1> <file2> ..  [-c | -n | -v | -F | -w | -stream | -mmap | -R ] [-m <n>] [-A <n>] [-B <n>] [-C <n>] [-q | -files-with-matches | -files-without-match] "+ANSI_RESET);
                     System.out.println(ANSI_RED+"... unknown option " + args[i] + "  ignoring... "+ANSI_RESET);
                     break;
             }
         }
 
-        System.out.println("arguments processed.");
-        System.out.println();
-        System.out.print("Patterns = [");
-        for(Pattern regexPattern : regexPatterns){
-            System.out.print(regexPattern + ",");
-        }
-        System.out.println("]");
-
-        if(files.size()>1){
-            System.out.println(ANSI_RED+"Usage: Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] "+ANSI_RESET);
-            throw new Exception("more than one File is not supported");
-        }
-
-        //now process files and throw excpetions if any
-        System.out.print("Files gotten = [");
-        for(String file : files){
-            System.out.print(file +",");
-        }
-        System.out.println("]");
+        if (debug) {
+            System.out.println("arguments processed.");
+            System.out.println();
+            System.out.print("Patterns = [");
+            for(Pattern regexPattern : regexPatterns){
+                System.out.print(regexPattern + ",");
+            }
+            System.out.println("]");
 
+            //now process files and throw excpetions if any
+            System.out.print("Files gotten = [");
+            for(String file : files){
+                System.out.print(file +",");
+            }
+            System.out.println("]");
 
-        System.out.print("Options = [");
-        for(String option : options){
-            System.out.print(option +",");
+            System.out.print("Options = [");
+            for(String option : options){
+                System.out.print(option +",");
+            }
+            System.out.println("]");
         }
-        System.out.println("]");
 
         MyRegexOptions optionsObj=new MyRegexOptions(options);
 
-        List<Pattern> patternsToPass=new ArrayList<>();
-        if(optionsObj.caseInsensitive){
-            System.out.println("making patterns insensitive");
-            for(Pattern pattern : regexPatterns) {
-                patternsToPass.add(Pattern.compile(pattern.pattern(), pattern.flags() | Pattern.CASE_INSENSITIVE));
-            }
-        } else {
-            for(Pattern pattern : regexPatterns) {
-                patternsToPass.add(Pattern.compile(pattern.pattern() ));
-            }
+        if (debug) {
+            // The JVM start, which an AppCDS archive shortens, is worked out from the uptime after the
+            // management classes are loaded, so that loading them is not counted
+            long ready = System.nanoTime();
+            long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+            long jvmMillis = uptime - (System.nanoTime() - mainStart) / 1_000_000;
+            System.out.println(ANSI_YELLOW + " ... startup took " + jvmMillis + "ms in the JVM and " + (ready - mainStart) / 1_000_000 + "ms in main" + ANSI_RESET);
         }
-
         long begin = System.currentTimeMillis();
-        Grep myGrep=new Grep(pwd,patternsToPass,files,dirs,optionsObj);
+        Grep myGrep=new Grep(pwd,regexPatterns,files,dirs,optionsObj);
         myGrep.execute();
         long end = System.currentTimeMillis();
+        if (optionsObj.quiet) {
+            // The first match decides the search
+            System.exit(myGrep.limit.decided() ? 0 : 1);
+        }
 
         System.out.println();
-        if(!optionsObj.onlyCountLines ) myGrep.result.printResults();
-        myGrep.result.printCount();
+        if (optionsObj.filesWithMatches || optionsObj.filesWithoutMatch) myGrep.result.printFiles();
+        else if(!optionsObj.onlyCountLines ) myGrep.result.printResults();
+        else myGrep.result.printCounts(regexPatterns);
+        if (!optionsObj.filesWithMatches && !optionsObj.filesWithoutMatch) myGrep.result.printCount();
+        myGrep.result.printTimeToFirstMatch();
         System.out.println(ANSI_YELLOW+" ... took " + (end - begin) + "ms"+ANSI_RESET);
     }
 }
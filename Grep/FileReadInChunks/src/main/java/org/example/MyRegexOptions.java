@@ -1,5 +1,6 @@
 package org.example;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,6 +17,17 @@ public class MyRegexOptions {
     final boolean showFiles; // Option to show files where matches are found
     final boolean dirSearch; // Option to enable recursive directory search
     final boolean showPattern; // Option to show the pattern used for matching in the output
+    final boolean fixedStrings; // Option to treat every pattern as a plain string instead of a regex
+    final boolean wholeWord; // Option to only match whole words
+    final boolean streamResults; // Option to write results out as they are found instead of at the end
+    final boolean mappedIO; // Option to memory map the file instead of reading it onto the heap
+    final long maxCount; // Option to stop reading a file after this many matches (-m)
+    final boolean filesWithMatches; // Option to only list the files that have a match
+    final boolean filesWithoutMatch; // Option to only list the files that have no match
+    final boolean quiet; // Option to print nothing and only tell through the exit status whether anything matched
+    final int contextBefore; // Lines of context shown before every matching line (-B, -C)
+    final int contextAfter; // Lines of context shown after every matching line (-A, -C)
+    final boolean showContext; // Whether any lines of context are shown
 
     /**
      * Constructs an instance of MyRegexOptions based on the specified list of option flags.
@@ -33,10 +45,96 @@ public class MyRegexOptions {
         this.caseInsensitive = options.contains("-i");
         this.dirSearch = options.contains("-R");
         this.showPattern = options.contains("-sp");
+        this.fixedStrings = options.contains("-F");
+        this.wholeWord = options.contains("-w");
+        this.streamResults = options.contains("-stream");
+        this.mappedIO = options.contains("-mmap");
+        List<String> maxCounts = valuesOf(options, "-m");
+        this.maxCount = maxCounts.isEmpty() ? Long.MAX_VALUE : parseCount(maxCounts.get(maxCounts.size() - 1));
+        this.filesWithMatches = options.contains("-files-with-matches");
+        this.filesWithoutMatch = options.contains("-files-without-match");
+        this.quiet = options.contains("-q");
+        // -A and -B take precedence over -C, whatever their order
+        List<String> contexts = valuesOf(options, "-C");
+        int context = contexts.isEmpty() ? 0 : parseLines(contexts.get(contexts.size() - 1), "-C");
+        List<String> befores = valuesOf(options, "-B");
+        this.contextBefore = befores.isEmpty() ? context : parseLines(befores.get(befores.size() - 1), "-B");
+        List<String> afters = valuesOf(options, "-A");
+        this.contextAfter = afters.isEmpty() ? context : parseLines(afters.get(afters.size() - 1), "-A");
+        // Nothing shows lines when only files are listed or nothing is printed at all
+        this.showContext = (contextBefore > 0 || contextAfter > 0) && !quiet && !filesWithMatches && !filesWithoutMatch;
 
         // Validate options to ensure -c is not used with options that affect output formatting.
         if (onlyCountLines && (showLines || showLineNumbers || showFiles || showPattern)) {
             throw new IllegalArgumentException("-c cannot be used together with [ -n | -l | -sf | -sp ]");
         }
+        // Files are listed, or nothing is printed at all, so there is nothing to count.
+        if (onlyCountLines && (quiet || filesWithMatches || filesWithoutMatch)) {
+            throw new IllegalArgumentException("-c cannot be used together with [ -q | -files-with-matches | -files-without-match ]");
+        }
+        if (filesWithMatches && filesWithoutMatch) {
+            throw new IllegalArgumentException("-files-with-matches cannot be used together with -files-without-match");
+        }
+        // Context is shown around matching lines, which -c does not show and -v reports per pattern.
+        if (showContext && (onlyCountLines || invertedSearch)) {
+            throw new IllegalArgumentException("-A, -B and -C cannot be used together with [ -c | -v ]");
+        }
+    }
+
+    /**
+     * Collects the values of an option that takes a value. Such options are stored in the option
+     * list as the flag followed by its value, and may be given more than once.
+     *
+     * @param options The option list.
+     * @param flag    The option flag.
+     * @return The values given for the option, in order.
+     */
+    private static List<String> valuesOf(List<String> options, String flag) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < options.size() - 1; i++) {
+            if (options.get(i).equals(flag)) {
+                values.add(options.get(++i));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parses the number of matches given to -m.
+     *
+     * @param count The number of matches, at least 1.
+     * @return The number of matches.
+     * @throws IllegalArgumentException if the number is not valid.
+     */
+    private static long parseCount(String count) {
+        try {
+            long maxCount = Long.parseLong(count);
+            if (maxCount > 0) {
+                return maxCount;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("-m is not a valid number of matches: " + count);
+    }
+
+    /**
+     * Parses the number of lines of context given to -A, -B or -C.
+     *
+     * @param lines The number of lines, at least 0.
+     * @param flag  The option the number was given to.
+     * @return The number of lines.
+     * @throws IllegalArgumentException if the number is not valid.
+     */
+    private static int parseLines(String lines, String flag) {
+        try {
+            int context = Integer.parseInt(lines);
+            if (context >= 0) {
+                return context;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(flag + " is not a valid number of lines: " + lines);
     }
 }
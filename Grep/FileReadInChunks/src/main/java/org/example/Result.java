@@ -1,9 +1,16 @@
 package org.example;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static java.lang.Math.toIntExact;
 
 /**
  * A container for accumulating and reporting the results of a search operation.
@@ -14,17 +21,56 @@ public class Result {
     static String ANSI_GREEN = "\u001B[32m";
     static String ANSI_YELLOW = "\u001B[33m";
     static String ANSI_RESET = "\u001B[0m";
-    // List to hold individual search results
-    private final List<LineResult> result;
+    // Individual search results, kept in columns
+    private final ResultStore result;
+    // Writes results out as they are added instead of keeping them, or null
+    private final ResultSink sink;
+    // Creation time of this container, in nanoseconds
+    private final long startTime;
+    // Time the first match was added, in nanoseconds, or 0 if there is none yet
+    private final AtomicLong firstMatchTime;
     // Counter for the total number of matches found
-    AtomicInteger count;
+    AtomicLong count;
+    // Matches of each pattern, summed over the counters handed over with -c and the matches added, or null if there are none
+    private long[] patternCounts;
+    // Matches of each file that has any, summed over the counters handed over with -c
+    private final Map<String, Long> fileCounts;
+    // Files listed by -files-with-matches or -files-without-match
+    private final Set<String> listedFiles;
 
     /**
      * Constructs a new, empty Result object.
      */
     public Result(){
-        this.result = Collections.synchronizedList( new ArrayList<>());
-        this.count = new AtomicInteger(0);
+        this(null);
+    }
+
+    /**
+     * Constructs a new, empty Result object that streams its line results to the given sink
+     * instead of keeping them. The count is still kept as a running total.
+     *
+     * @param sink The sink to write line results to, or null to keep them.
+     */
+    public Result(ResultSink sink){
+        this(sink, true);
+    }
+
+    /**
+     * Constructs a new, empty Result object, with or without the line result store, counts and
+     * listed files of the container of a search. A container without them is cheap enough to
+     * create for every task, but must be a subclass that counts or passes on what is added to it.
+     *
+     * @param sink   The sink to write line results to, or null to keep them.
+     * @param stored Whether line results, counts and listed files are kept in this container.
+     */
+    protected Result(ResultSink sink, boolean stored){
+        this.result = stored ? new ResultStore() : null;
+        this.count = stored ? new AtomicLong(0) : null;
+        this.sink = sink;
+        this.startTime = System.nanoTime();
+        this.firstMatchTime = stored ? new AtomicLong() : null;
+        this.fileCounts = stored ? new TreeMap<>() : null;
+        this.listedFiles = stored ? new TreeSet<>() : null;
     }
 
     /**
@@ -33,17 +79,181 @@ public class Result {
      * @param lineResult The result of a single line search to add.
      */
     public void addResult(LineResult lineResult) {
-        result.add(lineResult);
-        count.getAndIncrement();
+        if (sink != null) {
+            sink.write(lineResult);
+        } else {
+            synchronized (result) {
+                result.add(lineResult);
+            }
+        }
+        if (count.getAndIncrement() == 0) {
+            firstMatchTime.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Adds all line results of another container to this one, shifting their line numbers.
+     * Used to turn chunk relative line numbers into absolute ones.
+     *
+     * @param other      The container holding the results to add.
+     * @param lineOffset The number of lines that precede the results in the file.
+     */
+    public void addResults(Result other, long lineOffset) {
+        if (sink == null) {
+            // Copied column by column, without a LineResult for any of them
+            if (other.result.size() == 0) {
+                return;
+            }
+            synchronized (result) {
+                result.addAll(other.result, lineOffset);
+            }
+            long added = other.count.get();
+            if (added > 0 && count.getAndAdd(added) == 0) {
+                firstMatchTime.compareAndSet(0, System.nanoTime());
+            }
+            return;
+        }
+        for (LineResult lineResult : other.result) {
+            if (lineResult.lineNumber != null) {
+                lineResult.lineNumber = toIntExact(lineResult.lineNumber + lineOffset);
+            }
+            if (lineResult.context) {
+                addContext(lineResult);
+            } else {
+                addResult(lineResult);
+            }
+        }
+    }
+
+    /**
+     * Returns the line results kept by this container, created anew from their columns, which
+     * is empty when streaming.
+     *
+     * @return The line results, in the order they were added.
+     */
+    public List<LineResult> getLineResults() {
+        synchronized (result) {
+            List<LineResult> lineResults = new ArrayList<>(result.size());
+            for (LineResult lineResult : result) {
+                lineResults.add(lineResult);
+            }
+            return lineResults;
+        }
+    }
+
+    /**
+     * Adds a line of context around a match (-A, -B, -C) to this container. It is kept or
+     * streamed like a match but not counted as one.
+     *
+     * @param lineResult The line of context to add.
+     */
+    public void addContext(LineResult lineResult) {
+        if (sink != null) {
+            sink.write(lineResult);
+        } else {
+            synchronized (result) {
+                result.add(lineResult);
+            }
+        }
+    }
+
+    /**
+     * Counts a match of a pattern without keeping a result for it, in the per pattern counts and
+     * the match count. With -c every task counts into a MatchCounter of its own instead, which is
+     * handed over with addCounts, so that workers do not take this lock for every match and the
+     * matches are also counted per file.
+     *
+     * @param pattern The index of the pattern that matched.
+     */
+    public synchronized void addMatch(int pattern) {
+        growPatternCounts(pattern + 1);
+        patternCounts[pattern]++;
+        if (count.getAndIncrement() == 0) {
+            firstMatchTime.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Makes room for the counts of the given number of patterns.
+     */
+    private void growPatternCounts(int patterns) {
+        if (patternCounts == null) {
+            patternCounts = new long[patterns];
+        } else if (patternCounts.length < patterns) {
+            patternCounts = Arrays.copyOf(patternCounts, patterns);
+        }
+    }
+
+    /**
+     * Adds the matches a task counted in a file to the per file and per pattern counts, and to
+     * the match count. Called once per task, so the lock is taken once per task instead of once
+     * per match.
+     *
+     * @param file    The file that was searched.
+     * @param counter The counter the matches of the task were counted in.
+     */
+    public synchronized void addCounts(String file, MatchCounter counter) {
+        long total = counter.total();
+        if (total == 0) {
+            return;
+        }
+        growPatternCounts(counter.patternCounts.length);
+        for (int i = 0; i < counter.patternCounts.length; i++) {
+            patternCounts[i] += counter.patternCounts[i];
+        }
+        fileCounts.merge(file, total, Long::sum);
+        if (count.getAndAdd(total) == 0) {
+            firstMatchTime.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Prints the match count of every file that has any, and of every pattern, to the standard output.
+     *
+     * @param patterns The patterns of the search, in pattern order.
+     */
+    public synchronized void printCounts(List<Pattern> patterns) {
+        for (Map.Entry<String, Long> entry : fileCounts.entrySet()) {
+            System.out.println(entry.getKey() + ":" + entry.getValue());
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            System.out.println("pattern '" + patterns.get(i) + "': " + ((patternCounts != null && i < patternCounts.length) ? patternCounts[i] : 0));
+        }
+    }
+
+    /**
+     * Adds a file to the files listed by -files-with-matches or -files-without-match.
+     *
+     * @param file The file to list.
+     */
+    public synchronized void addFile(String file) {
+        listedFiles.add(file);
+    }
+
+    /**
+     * Prints the listed files in name order, one per line, followed by their number.
+     */
+    public synchronized void printFiles() {
+        for (String file : listedFiles) {
+            System.out.println(file);
+        }
+        System.out.println(ANSI_GREEN+"Total files found: " + listedFiles.size()+ANSI_RESET);
     }
 
     /**
      * Prints all accumulated line results to the standard output.
-     * Each line result is printed on a new line.
+     * Each line result is printed on a new line. When streaming, the results have already been
+     * written and only what is still buffered in the sink is flushed.
      */
     public void printResults() {
-        for(LineResult lineResult : result) {
-            System.out.println(lineResult);
+        if (sink != null) {
+            sink.flush();
+            return;
+        }
+        synchronized (result) {
+            for(LineResult lineResult : result) {
+                System.out.println(lineResult);
+            }
         }
     }
 
@@ -53,4 +263,14 @@ public class Result {
     public void printCount() {
         System.out.println(ANSI_GREEN+"Total matches found: " + count+ANSI_RESET);
     }
+
+    /**
+     * Prints the time from the creation of this container to the first match.
+     */
+    public void printTimeToFirstMatch() {
+        long first = firstMatchTime.get();
+        if (first != 0) {
+            System.out.println(ANSI_YELLOW+" ... first match after " + (first - startTime) / 1_000_000 + "ms"+ANSI_RESET);
+        }
+    }
 }
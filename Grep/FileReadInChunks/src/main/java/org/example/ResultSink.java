@@ -0,0 +1,102 @@
+package org.example;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes line results to an output as soon as they are produced, instead of keeping them
+ * until the search is over. Results go through a bounded buffer, so memory use does not grow
+ * with the number of matches. The buffer is written out when the next result would not fit,
+ * when it has held results for longer than the flush interval, and for the very first result,
+ * so that the first match shows up without delay. A result that is left in the buffer starts a
+ * timer, so it is written out after the flush interval even if no other result follows; a burst
+ * of matches followed by a long quiet stretch is not held back until the search ends. Only whole
+ * lines are ever written out, so results do not get mixed up with other output of the application.
+ * Workers may write to a sink concurrently.
+ */
+public class ResultSink {
+    static final int BUFFER_SIZE = 64 * 1024; // Characters buffered before they are written out
+    static final long FLUSH_INTERVAL_NANOS = 100_000_000L; // Longest time a result waits in the buffer while results keep coming
+
+    private final PrintStream out; // The output, or null to discard results
+    private final StringBuilder buffer; // Whole lines waiting to be written out
+    private long lastFlush; // Time of the last flush, in nanoseconds
+    private boolean flushed; // Whether anything has been written out yet
+    private boolean scheduled; // Whether a timed flush of the buffer is pending
+
+    /**
+     * The thread that writes out results left in a buffer, started by the first sink that needs it.
+     */
+    private static class Timer {
+        static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "result-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Constructs a sink over the given output.
+     *
+     * @param out The output to write results to, or null to discard them.
+     */
+    public ResultSink(PrintStream out) {
+        this.out = out;
+        this.buffer = new StringBuilder((out != null) ? BUFFER_SIZE : 0);
+        this.lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Creates a sink that drops every result, for when only the count is wanted.
+     *
+     * @return A sink that writes nothing.
+     */
+    static ResultSink discarding() {
+        return new ResultSink(null);
+    }
+
+    /**
+     * Adds a single line result to the buffer, writing the buffer out if needed.
+     *
+     * @param lineResult The result to write.
+     */
+    public synchronized void write(LineResult lineResult) {
+        if (out == null) {
+            return;
+        }
+        String line = lineResult.toString();
+        if (buffer.length() + line.length() + 1 > BUFFER_SIZE) {
+            flush();
+        }
+        buffer.append(line).append('\n');
+        if (!flushed || System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+            flush();
+            flushed = true;
+        } else if (!scheduled) {
+            // Written out by the timer unless more results come and flush it first
+            scheduled = true;
+            Timer.FLUSHER.schedule(this::timedFlush, FLUSH_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void timedFlush() {
+        scheduled = false;
+        flush();
+    }
+
+    /**
+     * Writes out everything that is still buffered.
+     */
+    public synchronized void flush() {
+        if (out == null || buffer.length() == 0) {
+            return;
+        }
+        // A single print keeps the lines together even when other threads print as well
+        out.print(buffer);
+        out.flush();
+        buffer.setLength(0);
+        lastFlush = System.nanoTime();
+    }
+}
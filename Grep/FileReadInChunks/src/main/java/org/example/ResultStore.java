@@ -0,0 +1,168 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.lang.Math.toIntExact;
+
+/**
+ * Keeps line results in columns instead of one object per match. Every match takes a slot in
+ * a few primitive arrays: its line number, the ids of its file and pattern, which are kept once
+ * in a dictionary each, and the position of its line in an arena of UTF-8 bytes. A LineResult
+ * is only created again when the results are iterated.
+ * <p>
+ * A field the options leave out of a result is stored as absent, and a line of context has a
+ * pattern id of its own. Not thread safe; the Result
+ * holding it takes care of that.
+ */
+class ResultStore implements Iterable<LineResult> {
+    private static final int ABSENT = -1; // Id or length of a field the result does not have
+    private static final int CONTEXT = -2; // Pattern id of a line of context around a match
+    private static final int NO_LINE_NUMBER = Integer.MIN_VALUE; // Line number of a result without one
+    private static final int PAGE_SIZE = 1 << 20; // Bytes of an arena page, unless a line needs more
+
+    private int size; // Number of results kept
+    private int[] lineNumbers = new int[16]; // Line number of every result
+    private int[] fileIds = new int[16]; // Id of the file of every result
+    private int[] patternIds = new int[16]; // Id of the pattern of every result
+    private long[] lineStarts = new long[16]; // Page in the upper and offset in the lower half
+    private int[] lineLengths = new int[16]; // Bytes of the line of every result
+
+    private final List<String> files = new ArrayList<>(); // File of every file id
+    private final Map<String, Integer> fileIdsByName = new HashMap<>();
+    private final List<String> patterns = new ArrayList<>(); // Pattern of every pattern id
+    private final Map<String, Integer> patternIdsByName = new HashMap<>();
+
+    private final List<byte[]> pages = new ArrayList<>(); // Arena the lines are copied into
+    private int pageUsed; // Bytes used of the last page
+
+    /**
+     * Keeps the fields of a line result.
+     *
+     * @param lineResult The line result to keep.
+     */
+    void add(LineResult lineResult) {
+        byte[] line = (lineResult.line != null) ? lineResult.line.getBytes(StandardCharsets.UTF_8) : null;
+        add((lineResult.lineNumber != null) ? lineResult.lineNumber : NO_LINE_NUMBER,
+                id(lineResult.file, files, fileIdsByName),
+                lineResult.context ? CONTEXT : id(lineResult.pattern, patterns, patternIdsByName),
+                line, 0, (line != null) ? line.length : ABSENT);
+    }
+
+    /**
+     * Keeps all results of another store, shifting their line numbers.
+     *
+     * @param other      The store holding the results to keep.
+     * @param lineOffset The number added to every line number.
+     */
+    void addAll(ResultStore other, long lineOffset) {
+        for (int i = 0; i < other.size; i++) {
+            int lineNumber = other.lineNumbers[i];
+            if (lineNumber != NO_LINE_NUMBER) {
+                lineNumber = toIntExact(lineNumber + lineOffset);
+            }
+            int fileId = (other.fileIds[i] != ABSENT) ? id(other.files.get(other.fileIds[i]), files, fileIdsByName) : ABSENT;
+            int patternId = (other.patternIds[i] >= 0) ? id(other.patterns.get(other.patternIds[i]), patterns, patternIdsByName) : other.patternIds[i];
+            long start = other.lineStarts[i];
+            byte[] page = (other.lineLengths[i] != ABSENT) ? other.pages.get((int) (start >>> 32)) : null;
+            add(lineNumber, fileId, patternId, page, (int) start, other.lineLengths[i]);
+        }
+    }
+
+    /**
+     * Returns the number of results kept.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the result kept at the given index, created anew.
+     *
+     * @param index The index of the result, in the order it was added.
+     * @return A LineResult with the fields of the result.
+     */
+    LineResult get(int index) {
+        String line = null;
+        if (lineLengths[index] != ABSENT) {
+            long start = lineStarts[index];
+            line = new String(pages.get((int) (start >>> 32)), (int) start, lineLengths[index], StandardCharsets.UTF_8);
+        }
+        return LineResult.restore((lineNumbers[index] != NO_LINE_NUMBER) ? lineNumbers[index] : null, line,
+                (fileIds[index] != ABSENT) ? files.get(fileIds[index]) : null,
+                (patternIds[index] >= 0) ? patterns.get(patternIds[index]) : null, patternIds[index] == CONTEXT);
+    }
+
+    @Override
+    public Iterator<LineResult> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public LineResult next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    private void add(int lineNumber, int fileId, int patternId, byte[] line, int offset, int length) {
+        if (size == lineNumbers.length) {
+            int capacity = size * 2;
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+            fileIds = Arrays.copyOf(fileIds, capacity);
+            patternIds = Arrays.copyOf(patternIds, capacity);
+            lineStarts = Arrays.copyOf(lineStarts, capacity);
+            lineLengths = Arrays.copyOf(lineLengths, capacity);
+        }
+        lineNumbers[size] = lineNumber;
+        fileIds[size] = fileId;
+        patternIds[size] = patternId;
+        lineLengths[size] = length;
+        lineStarts[size] = (length != ABSENT) ? copy(line, offset, length) : 0;
+        size++;
+    }
+
+    /**
+     * Copies a line into the arena. A line longer than a page gets a page of its own.
+     *
+     * @return The start of the copy, with the page in the upper and the offset in the lower half.
+     */
+    private long copy(byte[] line, int offset, int length) {
+        if (pages.isEmpty() || pageUsed + length > pages.get(pages.size() - 1).length) {
+            pages.add(new byte[Math.max(PAGE_SIZE, length)]);
+            pageUsed = 0;
+        }
+        int page = pages.size() - 1;
+        System.arraycopy(line, offset, pages.get(page), pageUsed, length);
+        long start = ((long) page << 32) | pageUsed;
+        pageUsed += length;
+        return start;
+    }
+
+    private static int id(String value, List<String> values, Map<String, Integer> ids) {
+        if (value == null) {
+            return ABSENT;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+}
@@ -7,14 +7,22 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -62,17 +70,277 @@ public class FileReadInChunksTest {
     @Test
     public void testRun() throws IOException {
         byte[]testData="line1\nline2\nline3".getBytes();
-//        when(channel.read(any(ByteBuffer.class))).thenReturn(testData.length).thenReturn(-1);
+        FileReadInChunks task = spy(new FileReadInChunks(channel, 0, testData.length - 1, 1, regexPatterns, builder, result, files, options));
 
-//        ByteBuffer buffer = ByteBuffer.allocate(100); // Create a ByteBuffer instance
-//        when(channel.read(buffer)).thenReturn(testData.length).thenReturn(-1);
+        doAnswer(invocation -> {
+            ByteBuffer buffer = invocation.getArgument(0);
+            int position = (int) (long) invocation.getArgument(1);
+            int length = Math.min(buffer.remaining(), testData.length - position);
+            buffer.put(testData, position, length);
+            return length;
+        }).when(channel).read(any(ByteBuffer.class), anyLong());
+        task.run();
 
-        doReturn(testData.length).when(channel).read(any(ByteBuffer.class), anyLong());
-//        doNothing().when(fileReadInChunks).processLine(any(),anyLong(),anyLong());
-        fileReadInChunks.run();
+        verify(channel, atLeastOnce()).read(any(ByteBuffer.class), anyLong());
 
-        verify(channel,times(1)).read(any(ByteBuffer.class));
+        verify(task,times(3)).processLine(any(),anyLong(),anyLong());
+    }
+
+    @Test
+    public void testRunMapsSegmentsLargerThanOneWindow() throws IOException {
+        Path file = Files.createTempFile("chunk", ".log");
+        Files.write(file, "ERR-1 first\nsecond\nthird ERR-2\nERR-3\n".getBytes(StandardCharsets.UTF_8));
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-mmap")));
+        Result realResult = new Result();
+        int maxWindowSize = FileReadInChunks.MAX_WINDOW_SIZE;
+        FileReadInChunks.MAX_WINDOW_SIZE = 16;
+        try (FileChannel fileChannel = FileChannel.open(file)) {
+            new FileReadInChunks(fileChannel, 0, fileChannel.size() - 1, 0, List.of(Pattern.compile("ERR-[0-9]")),
+                    new LineResult.Builder(realOptions), realResult, List.of("chunk.log"), realOptions).run();
+        } finally {
+            FileReadInChunks.MAX_WINDOW_SIZE = maxWindowSize;
+            Files.delete(file);
+        }
+
+        assertEquals(3, realResult.count.get());
+    }
+
+    @Test
+    public void testRunOnlyCountsMatchesWithCountOption() throws IOException {
+        Path file = Files.createTempFile("chunk", ".log");
+        Files.write(file, "ERR-1 and ERR-2\nWARN\nERR-3\n".getBytes(StandardCharsets.UTF_8));
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-c")));
+        Result realResult = new Result();
+        try (FileChannel fileChannel = FileChannel.open(file)) {
+            new FileReadInChunks(fileChannel, 0, fileChannel.size() - 1, 0, List.of(Pattern.compile("ERR-[0-9]"), Pattern.compile("WARN")),
+                    builder, realResult, List.of("chunk.log"), realOptions).run();
+        } finally {
+            Files.delete(file);
+        }
+
+        assertEquals(4, realResult.count.get());
+        // Matches are counted without a LineResult being built for any of them
+        verifyNoInteractions(builder);
+    }
+
+    @Test
+    public void testProcessBufferMatchesEveryLineInPlace() {
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-l")));
+        Result realResult = new Result();
+        List<Pattern> patterns = List.of(Pattern.compile("ERR-[0-9]+"), Pattern.compile("caf."));
+        FileReadInChunks task = new FileReadInChunks(channel, 0, 100, 1, patterns, new LineResult.Builder(realOptions), realResult, List.of("test.log"), realOptions);
+
+        task.processBuffer(ByteBuffer.wrap("ok\nERR-1 and ERR-22\ncaf\u00e9 ERR-3\nnothing".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(4, realResult.count.get());
+    }
+
+    @Test
+    public void testSequencerNumbersLinesAcrossChunks() {
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-n")));
+        LineResult.Builder realBuilder = new LineResult.Builder(realOptions);
+        Result realResult = new Result();
+        ChunkSequencer sequencer = new ChunkSequencer(realResult);
+        List<Pattern> patterns = List.of(Pattern.compile("ERR"));
+        Result first = new Result();
+        Result second = new Result();
+        LineResult firstMatch = realBuilder.build(2, "ERR", "test.log", patterns.get(0));
+        LineResult secondMatch = realBuilder.build(1, "ERR", "test.log", patterns.get(0));
+        first.addResult(firstMatch);
+        second.addResult(secondMatch);
+
+        // The second chunk finishes first and has to wait for the first one
+        sequencer.complete(1, 1, second);
+        assertEquals(0, realResult.count.get());
+        sequencer.complete(0, 3, first);
+
+        assertEquals(2, realResult.count.get());
+        List<LineResult> lineResults = realResult.getLineResults();
+        assertEquals(2, lineResults.get(0).lineNumber);
+        assertEquals(4, lineResults.get(1).lineNumber);
+    }
+
+    @Test
+    public void testResultRestoresTheFieldsOfEveryMatch() {
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-n", "-l", "-sf")));
+        LineResult.Builder realBuilder = new LineResult.Builder(realOptions);
+        Result realResult = new Result();
+        Pattern pattern = Pattern.compile("h[e\u00e9]llo");
+        realResult.addResult(realBuilder.build(1, "h\u00e9llo w\u00f6rld", "a.log", pattern));
+        realResult.addResult(realBuilder.build(7, "hello", "b.log", pattern));
+        realResult.addResult(realBuilder.build(9, "", "a.log", pattern));
+
+        List<LineResult> lineResults = realResult.getLineResults();
+
+        assertEquals(3, lineResults.size());
+        assertEquals("LineResult{file='a.log' , lineNumber=1, line='h\u00e9llo w\u00f6rld'}", lineResults.get(0).toString());
+        assertEquals("LineResult{file='b.log' , lineNumber=7, line='hello'}", lineResults.get(1).toString());
+        assertEquals("LineResult{file='a.log' , lineNumber=9, line=''}", lineResults.get(2).toString());
+    }
+
+    @Test
+    public void testStreamingResultWritesMatchesAsTheyArrive() {
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-l", "-stream")));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Result realResult = new Result(new ResultSink(new PrintStream(output, true, StandardCharsets.UTF_8)));
+        FileReadInChunks task = new FileReadInChunks(channel, 0, 100, 0, List.of(Pattern.compile("ERR")), new LineResult.Builder(realOptions), realResult, List.of("test.log"), realOptions);
+
+        task.processBuffer(ByteBuffer.wrap("ERR-1\nok\nERR-2\n".getBytes(StandardCharsets.UTF_8)));
+
+        // The first match is written out right away, the rest once the sink is flushed
+        assertEquals("LineResult{line='ERR-1'}\n", output.toString(StandardCharsets.UTF_8));
+        realResult.printResults();
+        assertEquals("LineResult{line='ERR-1'}\nLineResult{line='ERR-2'}\n", output.toString(StandardCharsets.UTF_8));
+        assertEquals(2, realResult.count.get());
+    }
+
+    @Test
+    public void testSinkWritesOutResultsLeftInItsBufferAfterTheFlushInterval() throws Exception {
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-l", "-stream")));
+        LineResult.Builder realBuilder = new LineResult.Builder(realOptions);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ResultSink sink = new ResultSink(new PrintStream(output, true, StandardCharsets.UTF_8));
+        Pattern pattern = Pattern.compile("ERR");
+        sink.write(realBuilder.build(1, "ERR-1", "test.log", pattern));
+        sink.write(realBuilder.build(2, "ERR-2", "test.log", pattern));
+
+        // No other result follows and the sink is never flushed, the timer writes the second one out
+        long deadline = System.nanoTime() + 20 * ResultSink.FLUSH_INTERVAL_NANOS;
+        while (!output.toString(StandardCharsets.UTF_8).contains("ERR-2") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("LineResult{line='ERR-1'}\nLineResult{line='ERR-2'}\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExecuteSplitsLargeFilesAndBatchesSmallOnes() throws Exception {
+        Path dir = Files.createTempDirectory("grep");
+        Files.write(dir.resolve("large.log"), "ERR-1\nok\nERR-2\nok\nERR-3\nok\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("small1.log"), "ERR-4\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("small2.log"), "ok\nERR-5\n".getBytes(StandardCharsets.UTF_8));
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-n")));
+        long splitThreshold = Grep.SPLIT_THRESHOLD;
+        long minChunkSize = Grep.MIN_CHUNK_SIZE;
+        Grep.SPLIT_THRESHOLD = 16;
+        Grep.MIN_CHUNK_SIZE = 8;
+        try {
+            Grep grep = new Grep(dir.toString(), List.of(Pattern.compile("ERR-[0-9]")),
+                    new ArrayList<>(List.of("large.log", "small1.log", "small2.log")), new ArrayList<>(), realOptions);
+            grep.execute();
+
+            assertEquals(5, grep.result.count.get());
+        } finally {
+            Grep.SPLIT_THRESHOLD = splitThreshold;
+            Grep.MIN_CHUNK_SIZE = minChunkSize;
+            for (String file : List.of("large.log", "small1.log", "small2.log")) {
+                Files.delete(dir.resolve(file));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testMaxCountEndsEveryFileAfterItsMatchesWithoutSplittingIt() throws Exception {
+        Path dir = Files.createTempDirectory("grep");
+        Files.write(dir.resolve("large.log"), "ERR-1\nok\nERR-2\nok\nERR-3\nok\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("small.log"), "ERR-4 ERR-5 ERR-6\n".getBytes(StandardCharsets.UTF_8));
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-n", "-l", "-m", "2")));
+        long splitThreshold = Grep.SPLIT_THRESHOLD;
+        Grep.SPLIT_THRESHOLD = 16;
+        try {
+            Grep grep = new Grep(dir.toString(), List.of(Pattern.compile("ERR-[0-9]")),
+                    new ArrayList<>(List.of("large.log", "small.log")), new ArrayList<>(), realOptions);
+            grep.execute();
+
+            // The first two matches of every file, in file order
+            assertEquals(4, grep.result.count.get());
+            List<String> lines = new ArrayList<>();
+            for (LineResult lineResult : grep.result.getLineResults()) {
+                lines.add(lineResult.lineNumber + ":" + lineResult.line);
+            }
+            lines.sort(null);
+            assertEquals(List.of("1:ERR-1", "1:ERR-4 ERR-5 ERR-6", "1:ERR-4 ERR-5 ERR-6", "3:ERR-2"), lines);
+        } finally {
+            Grep.SPLIT_THRESHOLD = splitThreshold;
+            Files.delete(dir.resolve("large.log"));
+            Files.delete(dir.resolve("small.log"));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testContextExtendsAcrossChunkEdgesAndMerges() throws Exception {
+        Path dir = Files.createTempDirectory("grep");
+        Files.write(dir.resolve("test.log"), "l1\nl2\nERR-1\nl4\nERR-2\nl6\nl7\nl8\nl9\n".getBytes(StandardCharsets.UTF_8));
+        MyRegexOptions realOptions = new MyRegexOptions(new ArrayList<>(List.of("-n", "-l", "-B", "2", "-A", "2")));
+        long splitThreshold = Grep.SPLIT_THRESHOLD;
+        long minChunkSize = Grep.MIN_CHUNK_SIZE;
+        Grep.SPLIT_THRESHOLD = 16;
+        Grep.MIN_CHUNK_SIZE = 1;
+        try {
+            // About one line per chunk, so every match and its context are at chunk edges
+            Grep grep = new Grep(dir.toString(), List.of(Pattern.compile("ERR-[0-9]")),
+                    new ArrayList<>(List.of("test.log")), new ArrayList<>(), realOptions);
+            grep.execute();
+
+            assertEquals(2, grep.result.count.get());
+            List<String> lines = new ArrayList<>();
+            for (LineResult lineResult : grep.result.getLineResults()) {
+                lines.add(lineResult.lineNumber + (lineResult.context ? "-" : ":") + lineResult.line);
+            }
+            // In file order, and every line once even where the windows of both matches overlap
+            assertEquals(List.of("1-l1", "2-l2", "3:ERR-1", "4-l4", "5:ERR-2", "6-l6", "7-l7"), lines);
+        } finally {
+            Grep.SPLIT_THRESHOLD = splitThreshold;
+            Grep.MIN_CHUNK_SIZE = minChunkSize;
+            Files.delete(dir.resolve("test.log"));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testQuietIsDecidedByTheFirstMatch() throws Exception {
+        Path dir = Files.createTempDirectory("grep");
+        Files.write(dir.resolve("test.log"), "ok\nERR-1\nERR-2\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            Grep found = new Grep(dir.toString(), List.of(Pattern.compile("ERR")),
+                    new ArrayList<>(List.of("test.log")), new ArrayList<>(), new MyRegexOptions(new ArrayList<>(List.of("-q"))));
+            found.execute();
+            Grep missing = new Grep(dir.toString(), List.of(Pattern.compile("WARN")),
+                    new ArrayList<>(List.of("test.log")), new ArrayList<>(), new MyRegexOptions(new ArrayList<>(List.of("-q"))));
+            missing.execute();
+
+            assertTrue(found.limit.decided());
+            // Matches are only checked for, not kept
+            assertEquals(0, found.result.count.get());
+            assertFalse(missing.limit.decided());
+        } finally {
+            Files.delete(dir.resolve("test.log"));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testAddMatchCountsIntoAnyResult() {
+        Result realResult = new Result();
+        MatchCounter counter = new MatchCounter(2);
+        counter.addMatch(0);
+        realResult.addMatch(1);
+        realResult.addMatch(1);
+        realResult.addCounts("test.log", counter);
+
+        assertEquals(3, realResult.count.get());
+    }
+
+    @Test
+    public void testTotalCountGoesPastTheIntRange() {
+        Result realResult = new Result();
+        MatchCounter counter = new MatchCounter(1);
+        counter.patternCounts[0] = Integer.MAX_VALUE;
+
+        realResult.addCounts("a.log", counter);
+        realResult.addCounts("b.log", counter);
 
-        verify(fileReadInChunks,times(1)).processLine(any(),anyLong(),anyLong());
+        assertEquals(2L * Integer.MAX_VALUE, realResult.count.get());
     }
 }
@@ -0,0 +1,70 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures FileReadInChunks.processBuffer over a whole generated chunk and processLine over
+ * single lines, without any file I/O. A regex pattern goes through the matchers line by line,
+ * a plain string through the literal byte search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ProcessBufferBenchmark {
+    static final int LINES = 10_000; // Lines in the chunk
+
+    @Param({"h[ae]llo", "ERR-42"})
+    public String pattern; // The pattern searched for
+
+    @Param({"0.01", "0.2"})
+    public double matchRate; // Share of lines that match
+
+    private FileReadInChunks task;
+    private ByteBuffer chunk;
+    private int[] lineStarts; // Start of every line of the chunk, and the end of the chunk
+    private int next; // Next line handed to processLine
+
+    @Setup
+    public void setup() {
+        byte[] bytes = BenchmarkInput.text(LINES, matchRate, BenchmarkInput.SEED).getBytes(StandardCharsets.UTF_8);
+        chunk = ByteBuffer.wrap(bytes);
+        lineStarts = new int[LINES + 1];
+        int line = 1;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n' && line <= LINES) {
+                lineStarts[line++] = i + 1;
+            }
+        }
+        List<Pattern> patterns = List.of(Pattern.compile(pattern));
+        MyRegexOptions options = new MyRegexOptions(List.of("-n", "-l"));
+        LineResult.Builder builder = new LineResult.Builder(options);
+        task = new FileReadInChunks(null, 0, bytes.length - 1, 0, patterns, builder, new Result(), List.of("bench.log"), options);
+        task.setLiteralSearch(LiteralSearch.compile(patterns, options, builder));
+    }
+
+    @Setup(Level.Iteration)
+    public void resetResult() {
+        task.setResult(new Result()); // Results would otherwise pile up over the whole run
+    }
+
+    @Benchmark
+    public void processBuffer() {
+        task.processBuffer(chunk);
+    }
+
+    @Benchmark
+    public void processLine() {
+        int line = next;
+        next = (line + 1 == LINES) ? 0 : line + 1;
+        task.processLine(chunk, lineStarts[line], lineStarts[line + 1] - 1);
+    }
+}
@@ -0,0 +1,44 @@
+package org.example;
+
+import java.util.Random;
+
+/**
+ * Generates the text the benchmarks search. Lines are made of random lower case words, and a
+ * given share of them has one of the needles inserted at a random word boundary, so the match
+ * rate is known and the same seed always gives the same text.
+ */
+public class BenchmarkInput {
+    static final String[] NEEDLES = {"hello", "hallo", "ERR-42"}; // Inserted into matching lines
+    static final long SEED = 42; // Seed used by all benchmarks, so runs are comparable
+
+    /**
+     * Generates lines of text, each ending with a newline.
+     *
+     * @param lines     The number of lines.
+     * @param matchRate The share of lines that contain a needle, between 0 and 1.
+     * @param seed      The seed of the generator.
+     * @return The text.
+     */
+    public static String text(int lines, double matchRate, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(lines * 64);
+        for (int i = 0; i < lines; i++) {
+            int words = 4 + random.nextInt(12);
+            int needleAt = (random.nextDouble() < matchRate) ? random.nextInt(words) : -1;
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    sb.append(' ');
+                }
+                if (w == needleAt) {
+                    sb.append(NEEDLES[random.nextInt(NEEDLES.length)]).append(' ');
+                }
+                int length = 2 + random.nextInt(8);
+                for (int c = 0; c < length; c++) {
+                    sb.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
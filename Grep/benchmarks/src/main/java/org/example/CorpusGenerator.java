@@ -0,0 +1,302 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a seeded synthetic corpus to disk, shaped like production data, together with a
+ * manifest of the matches every implementation must find in it.
+ * <p>
+ * The corpus has four parts, each in a directory of its own under data/:
+ * <ul>
+ *     <li>huge: a few large log files with short lines;</li>
+ *     <li>tiny: many small files spread over nested directories;</li>
+ *     <li>long: files with lines of hundreds of kilobytes to megabytes;</li>
+ *     <li>unicode: text that is mostly Cyrillic, Greek, accented, CJK and emoji.</li>
+ * </ul>
+ * Lines are made of filler words, and a controlled share of them gets one or two needles (fifty
+ * times that share for the few very long lines). The filler is built from characters that cannot
+ * form any needle, so the expected counts are known from what was inserted, without searching
+ * the corpus. Every file is generated from its own
+ * random stream, derived from the seed and its path, so the same seed and scale always give the
+ * same bytes.
+ * <p>
+ * The manifest, manifest.tsv next to data/, lists for every pattern and every part (and "." for
+ * the whole corpus) the number of files, lines and matches a search with -R from that directory
+ * has to report. Matches count every occurrence, as -c does.
+ * <p>
+ * Usage: CorpusGenerator &lt;outputDir&gt; [-seed &lt;n&gt;] [-scale &lt;factor&gt;] [-density &lt;share&gt;]
+ */
+public class CorpusGenerator {
+    static final String DATA_DIRECTORY = "data"; // Directory the corpus is written to, inside the output directory
+    static final String MANIFEST = "manifest.tsv"; // Name of the manifest, inside the output directory
+
+    // Filler letters, without 'h' so that no filler word can spell a needle
+    static final String ASCII_LETTERS = "abcdefgijklmnopqrstuvwxyz";
+    // Non-ASCII filler words, without the characters of the non-ASCII needles
+    static final String[] UNICODE_WORDS = {
+            "привет", "данные", "поиск", "строка", "файл", "γειά", "κείμενο", "αρχείο", "café", "naïve",
+            "señor", "façade", "über", "中文", "测试", "数据", "文件", "搜索", "字符", "😀", "🚀", "ñandú"};
+
+    /**
+     * A pattern of the manifest, and the needles it matches.
+     */
+    enum Needle {
+        HELLO("hello", "-F"),
+        H_AE_LLO("h[ae]llo", ""),
+        ERR_CODE("ERR-\\d+", ""),
+        GROESSE("größe", "-F"),
+        LOG_CJK("日志", "-F");
+
+        final String pattern; // The pattern as given to -p
+        final String flags; // Options the pattern is searched with
+
+        Needle(String pattern, String flags) {
+            this.pattern = pattern;
+            this.flags = flags;
+        }
+    }
+
+    // Text inserted into a line for each kind of needle, and the patterns it matches
+    private static final String[] NEEDLE_TEXTS = {"hello", "hallo", "ERR-", "größe", "日志"};
+    private static final Needle[][] NEEDLE_MATCHES = {
+            {Needle.HELLO, Needle.H_AE_LLO}, {Needle.H_AE_LLO}, {Needle.ERR_CODE}, {Needle.GROESSE}, {Needle.LOG_CJK}};
+
+    private final Path data; // Root of the corpus
+    private final long seed; // Seed of the whole corpus
+    private final double scale; // Factor applied to the number and size of files
+    private final double density; // Share of lines that contain needles
+    private final Map<String, Counts[]> counts = new LinkedHashMap<>(); // Expected counts of every part and of the whole corpus
+    private long totalFiles; // Files written
+    private long totalBytes; // Bytes written
+
+    /**
+     * Expected results of one pattern in one part of the corpus.
+     */
+    static class Counts {
+        long files; // Files with at least one match
+        long lines; // Lines with at least one match
+        long matches; // Occurrences
+    }
+
+    CorpusGenerator(Path output, long seed, double scale, double density) {
+        this.data = output.resolve(DATA_DIRECTORY);
+        this.seed = seed;
+        this.scale = scale;
+        this.density = density;
+        counts.put(".", newCounts());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: CorpusGenerator <outputDir> [-seed <n>] [-scale <factor>] [-density <share>]");
+            return;
+        }
+        long seed = BenchmarkInput.SEED;
+        double scale = 1.0;
+        double density = 0.01;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "-scale":
+                    scale = Double.parseDouble(args[i + 1]);
+                    break;
+                case "-density":
+                    density = Double.parseDouble(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("[ERROR] unknown option " + args[i]);
+                    return;
+            }
+        }
+        Path output = Paths.get(args[0]);
+        if (Files.exists(output.resolve(DATA_DIRECTORY))) {
+            System.out.println("[ERROR] " + output.resolve(DATA_DIRECTORY) + " already exists, files of an earlier corpus would be mixed in");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        CorpusGenerator generator = new CorpusGenerator(output, seed, scale, density);
+        generator.generate();
+        generator.writeManifest(output.resolve(MANIFEST));
+        System.out.println("Wrote " + generator.totalFiles + " files, " + generator.totalBytes + " bytes to " + output.resolve(DATA_DIRECTORY)
+                + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Writes all parts of the corpus.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    void generate() throws IOException {
+        // A few huge logs with short lines
+        for (int i = 0; i < count(3); i++) {
+            writeFile("huge", "huge/app-" + i + ".log", size(100L << 20), 10, 200, 0, density);
+        }
+        // Many tiny files in nested directories
+        int tiny = count(20_000);
+        for (int i = 0; i < tiny; i++) {
+            writeFile("tiny", "tiny/d" + (i % 100) + "/s" + (i / 100 % 10) + "/f" + i + ".txt", random("tiny-size/" + i).nextInt(4096), 10, 120, 0, density);
+        }
+        // Lines of 256 KB to 4 MB; there are few of them, so more of them get needles
+        for (int i = 0; i < count(20); i++) {
+            SplittableRandom random = random("long-size/" + i);
+            int lineLength = (256 << 10) + random.nextInt((4 << 20) - (256 << 10));
+            writeFile("long", "long/wide-" + i + ".log", (long) lineLength * (4 + random.nextInt(12)), lineLength / 2, lineLength, 0, Math.min(1, density * 50));
+        }
+        // Mostly non-ASCII text
+        for (int i = 0; i < count(50); i++) {
+            writeFile("unicode", "unicode/text-" + i + ".txt", size(1L << 20), 20, 300, 0.7, density);
+        }
+    }
+
+    private int count(int files) {
+        return Math.max(1, (int) Math.round(files * scale));
+    }
+
+    private long size(long bytes) {
+        return Math.max(1, (long) (bytes * scale));
+    }
+
+    private SplittableRandom random(String name) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + name.hashCode());
+    }
+
+    /**
+     * Writes one file of about the given size and records the needles inserted into it.
+     *
+     * @param part          The part of the corpus the file belongs to.
+     * @param name          The path of the file, relative to the corpus root.
+     * @param bytes         The size to reach; the last line may go beyond it.
+     * @param minLine       The shortest line, in characters.
+     * @param maxLine       The longest line, in characters.
+     * @param unicodeShare  The share of filler words that are not ASCII.
+     * @param lineDensity   The share of lines that get needles.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeFile(String part, String name, long bytes, int minLine, int maxLine, double unicodeShare, double lineDensity) throws IOException {
+        Path file = data.resolve(name);
+        Files.createDirectories(file.getParent());
+        SplittableRandom random = random(name);
+        Counts[] partCounts = counts.computeIfAbsent(part, key -> newCounts());
+        long[] fileMatches = new long[Needle.values().length];
+        long written = 0;
+        StringBuilder line = new StringBuilder();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            while (written < bytes) {
+                line.setLength(0);
+                long[] lineMatches = new long[Needle.values().length];
+                int length = minLine + random.nextInt(maxLine - minLine + 1);
+                int needles = (random.nextDouble() < lineDensity) ? 1 + (random.nextInt(4) == 0 ? 1 : 0) : 0;
+                int[] needleAt = new int[needles];
+                for (int n = 0; n < needles; n++) {
+                    needleAt[n] = random.nextInt(length);
+                }
+                while (line.length() < length) {
+                    for (int n = 0; n < needles; n++) {
+                        if (needleAt[n] >= 0 && line.length() >= needleAt[n]) {
+                            appendNeedle(line, random, lineMatches);
+                            needleAt[n] = -1;
+                        }
+                    }
+                    appendWord(line, random, unicodeShare);
+                }
+                line.append('\n');
+                byte[] encoded = line.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(encoded);
+                written += encoded.length;
+                for (int p = 0; p < lineMatches.length; p++) {
+                    if (lineMatches[p] > 0) {
+                        partCounts[p].lines++;
+                        counts.get(".")[p].lines++;
+                        fileMatches[p] += lineMatches[p];
+                    }
+                }
+            }
+        }
+        for (int p = 0; p < fileMatches.length; p++) {
+            if (fileMatches[p] > 0) {
+                partCounts[p].files++;
+                partCounts[p].matches += fileMatches[p];
+                counts.get(".")[p].files++;
+                counts.get(".")[p].matches += fileMatches[p];
+            }
+        }
+        totalFiles++;
+        totalBytes += written;
+    }
+
+    /**
+     * Appends a random needle followed by a space, and counts the patterns it matches.
+     */
+    private static void appendNeedle(StringBuilder line, SplittableRandom random, long[] lineMatches) {
+        int kind = random.nextInt(NEEDLE_TEXTS.length);
+        line.append(NEEDLE_TEXTS[kind]);
+        if (NEEDLE_TEXTS[kind].equals("ERR-")) {
+            line.append(random.nextInt(1000));
+        }
+        line.append(' ');
+        for (Needle needle : NEEDLE_MATCHES[kind]) {
+            lineMatches[needle.ordinal()]++;
+        }
+    }
+
+    /**
+     * Appends a filler word followed by a space.
+     */
+    private static void appendWord(StringBuilder line, SplittableRandom random, double unicodeShare) {
+        if (unicodeShare > 0 && random.nextDouble() < unicodeShare) {
+            line.append(UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)]);
+        } else {
+            int length = 2 + random.nextInt(8);
+            for (int c = 0; c < length; c++) {
+                line.append(ASCII_LETTERS.charAt(random.nextInt(ASCII_LETTERS.length())));
+            }
+        }
+        line.append(' ');
+    }
+
+    private static Counts[] newCounts() {
+        Counts[] counts = new Counts[Needle.values().length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new Counts();
+        }
+        return counts;
+    }
+
+    /**
+     * Writes the manifest: one row per part and pattern, with the directory the search starts
+     * from relative to data/, the pattern, its options, and the expected files, lines and matches.
+     *
+     * @param manifest The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeManifest(Path manifest) throws IOException {
+        List<String> rows = new ArrayList<>();
+        rows.add("# seed=" + seed + " scale=" + scale + " density=" + density + " files=" + totalFiles + " bytes=" + totalBytes);
+        rows.add("# dir\tpattern\toptions\tfiles\tlines\tmatches");
+        for (Map.Entry<String, Counts[]> entry : counts.entrySet()) {
+            for (Needle needle : Needle.values()) {
+                Counts c = entry.getValue()[needle.ordinal()];
+                rows.add(entry.getKey() + "\t" + needle.pattern + "\t" + needle.flags + "\t" + c.files + "\t" + c.lines + "\t" + c.matches);
+            }
+        }
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(manifest, StandardCharsets.UTF_8))) {
+            for (String row : rows) {
+                writer.println(row);
+            }
+        }
+    }
+}
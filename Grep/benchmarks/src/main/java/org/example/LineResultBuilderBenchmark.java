@@ -0,0 +1,42 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures LineResult.Builder.build, which runs once for every reported match, for the
+ * combinations of output options that are used the most.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class LineResultBuilderBenchmark {
+
+    @Param({"-l", "-n -l", "-n -l -sf", "-n -l -sf -sp"})
+    public String flags; // Output options of the search
+
+    private LineResult.Builder builder;
+    private Pattern pattern;
+    private String line;
+    private int lineNumber;
+
+    @Setup
+    public void setup() {
+        List<String> options = Arrays.asList(flags.split(" "));
+        builder = new LineResult.Builder(new MyRegexOptions(options));
+        pattern = Pattern.compile("h[ae]llo");
+        line = BenchmarkInput.text(1, 1.0, BenchmarkInput.SEED).strip();
+    }
+
+    @Benchmark
+    public LineResult build() {
+        return builder.build(++lineNumber, line, "logs/app.log", pattern);
+    }
+}
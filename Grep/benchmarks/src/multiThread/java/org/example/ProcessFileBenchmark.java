@@ -0,0 +1,59 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures Grep.processFile on a generated file, which stays in the page cache after the first
+ * read. A regex pattern goes through the line by line matching, a plain string through the
+ * literal byte search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ProcessFileBenchmark {
+    static final int LINES = 10_000; // Lines in the file
+
+    @Param({"h[ae]llo", "ERR-42"})
+    public String pattern; // The pattern searched for
+
+    @Param({"0.01", "0.2"})
+    public double matchRate; // Share of lines that match
+
+    private Path dir;
+    private Grep grep;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("grep-bench");
+        Files.writeString(dir.resolve("bench.log"), BenchmarkInput.text(LINES, matchRate, BenchmarkInput.SEED));
+        List<String> files = new ArrayList<>(List.of("bench.log"));
+        grep = new Grep(dir.toString(), List.of(Pattern.compile(pattern)), files, new ArrayList<>(), new MyRegexOptions(List.of("-n", "-l")));
+    }
+
+    @Setup(Level.Iteration)
+    public void resetResult() {
+        grep.result = new Result(); // Results would otherwise pile up over the whole run
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(dir.resolve("bench.log"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public int processFile() {
+        return grep.processFile("bench.log", grep.result);
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures Result.addResult with several threads adding to the same container, as the search
+ * threads do. This Result copies every match into its column store under the lock of the
+ * store; compare with the unlocked store of the singleThread build.
+ * <p>
+ * The container is replaced before every iteration, and every iteration adds a fixed batch, so
+ * the store grows the same way in every run instead of with the speed of the machine.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 20, batchSize = ResultAddBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = ResultAddBenchmark.BATCH)
+@Fork(2)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ResultAddBenchmark {
+    static final int BATCH = 100_000; // Results added by every thread in one iteration
+
+    private Result result;
+    private LineResult lineResult;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        LineResult.Builder builder = new LineResult.Builder(new MyRegexOptions(List.of("-n", "-l")));
+        lineResult = builder.build(1, "hello world", "bench.log", Pattern.compile("hello"));
+    }
+
+    @Setup(Level.Iteration)
+    public void resetResult() {
+        result = new Result();
+    }
+
+    @Benchmark
+    public void addResult() {
+        result.addResult(lineResult);
+    }
+}
@@ -0,0 +1,88 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how adding results scales with the number of threads adding to the same container.
+ * This Result appends to a buffer per thread and publishes full batches on a lock-free queue;
+ * {@code addLocked} adds the same way the search did before, under the lock of the container
+ * into a synchronizedList, as the baseline.
+ * <p>
+ * Every invocation adds the same number of results in total, shared out among the threads, so
+ * the time should drop as threads are added while they do not contend.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 20)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ResultAddBenchmark {
+    static final int TOTAL = 4_000_000; // Results added by all threads together in one invocation
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads; // Threads adding results at the same time
+
+    private ExecutorService pool;
+    private LineResult lineResult;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = Executors.newFixedThreadPool(threads);
+        LineResult.Builder builder = new LineResult.Builder(new MyRegexOptions(List.of("-n", "-l")));
+        lineResult = builder.build(1, "hello world", "bench.log", Pattern.compile("hello"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<LineResult> addResult() throws Exception {
+        Result result = new Result();
+        run(() -> result.addResult(lineResult));
+        return result.getLineResults();
+    }
+
+    @Benchmark
+    public List<LineResult> addLocked() throws Exception {
+        List<LineResult> lines = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger count = new AtomicInteger();
+        run(() -> {
+            synchronized (lines) {
+                lines.add(lineResult);
+                count.getAndIncrement();
+            }
+        });
+        return lines;
+    }
+
+    /**
+     * Runs the add on every thread until the total is reached, and waits for all of them.
+     */
+    private void run(Runnable add) throws Exception {
+        List<Future<?>> adders = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int adds = TOTAL / threads + ((t < TOTAL % threads) ? 1 : 0);
+            adders.add(pool.submit(() -> {
+                for (int i = 0; i < adds; i++) {
+                    add.run();
+                }
+            }));
+        }
+        for (Future<?> adder : adders) {
+            adder.get();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton over the raw bytes of many literal patterns, so that a line
+ * is scanned once no matter how many patterns are searched for. The result of a scan is a
+ * bitset of the patterns that hit, indexed by the position of each pattern in the pattern list.
+ * Instances are immutable and can be shared between threads.
+ */
+public class AhoCorasick {
+    private final int[] rootNext; // Dense transitions out of the root state
+    private final int[] edgeStart; // Edges of state s are stored in [edgeStart[s], edgeStart[s + 1])
+    private final byte[] edgeLabel; // Byte label of each edge, sorted per state
+    private final int[] edgeTarget; // Target state of each edge
+    private final int[] fail; // Failure link of each state
+    private final int[][] outputs; // Patterns ending in each state, or null
+    private final int[] outputLink; // Closest state on the failure chain that has outputs, or -1
+    private final int[] lengths; // Length in bytes of each pattern, by pattern index
+    private final boolean ignoreCase; // Whether bytes are case folded before each transition
+    private final boolean wholeWord; // Whether hits must be surrounded by non-word characters
+
+    /**
+     * Builds an automaton from the literal matchers of a pattern list.
+     *
+     * @param literals The literal matcher of every pattern, or null for patterns that need the regex engine.
+     */
+    private AhoCorasick(LiteralMatcher[] literals) {
+        List<TreeMap<Integer, Integer>> children = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add(null);
+        this.lengths = new int[literals.length];
+        boolean ignoreCase = false;
+        boolean wholeWord = false;
+
+        // Build the trie
+        for (int p = 0; p < literals.length; p++) {
+            if (literals[p] == null) {
+                continue;
+            }
+            ignoreCase = literals[p].ignoreCase();
+            wholeWord = literals[p].wholeWord();
+            byte[] needle = literals[p].needle();
+            lengths[p] = needle.length;
+            int state = 0;
+            for (byte b : needle) {
+                Integer next = children.get(state).get(b & 0xFF);
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(b & 0xFF, next);
+                    children.add(new TreeMap<>());
+                    ends.add(null);
+                }
+                state = next;
+            }
+            if (ends.get(state) == null) {
+                ends.set(state, new ArrayList<>());
+            }
+            ends.get(state).add(p);
+        }
+        this.ignoreCase = ignoreCase;
+        this.wholeWord = wholeWord;
+
+        // Flatten the trie into sorted edge arrays
+        int states = children.size();
+        int edges = 0;
+        for (TreeMap<Integer, Integer> edgesOfState : children) {
+            edges += edgesOfState.size();
+        }
+        this.edgeStart = new int[states + 1];
+        this.edgeLabel = new byte[edges];
+        this.edgeTarget = new int[edges];
+        this.outputs = new int[states][];
+        int edge = 0;
+        for (int s = 0; s < states; s++) {
+            edgeStart[s] = edge;
+            for (Map.Entry<Integer, Integer> entry : children.get(s).entrySet()) {
+                edgeLabel[edge] = (byte) (int) entry.getKey();
+                edgeTarget[edge] = entry.getValue();
+                edge++;
+            }
+            List<Integer> patterns = ends.get(s);
+            if (patterns != null) {
+                outputs[s] = patterns.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+        edgeStart[states] = edge;
+
+        this.rootNext = new int[256];
+        for (Map.Entry<Integer, Integer> entry : children.get(0).entrySet()) {
+            rootNext[entry.getKey()] = entry.getValue();
+        }
+
+        // Compute failure and output links breadth first
+        this.fail = new int[states];
+        this.outputLink = new int[states];
+        outputLink[0] = -1;
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            int child = edgeTarget[e];
+            fail[child] = 0;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                int child = edgeTarget[e];
+                int f = step(fail[state], edgeLabel[e] & 0xFF);
+                fail[child] = f;
+                outputLink[child] = (outputs[f] != null) ? f : outputLink[f];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Builds an automaton over the literal patterns of a pattern list. All literals must agree
+     * on case sensitivity, which is always the case for patterns compiled by Main.
+     *
+     * @param literals The literal matcher of every pattern, or null for patterns that need the regex engine.
+     * @return An automaton, or null if there are fewer than two literals or they disagree on case sensitivity.
+     */
+    static AhoCorasick build(LiteralMatcher[] literals) {
+        int count = 0;
+        Boolean ignoreCase = null;
+        for (LiteralMatcher literal : literals) {
+            if (literal == null) {
+                continue;
+            }
+            if (ignoreCase != null && ignoreCase != literal.ignoreCase()) {
+                return null;
+            }
+            ignoreCase = literal.ignoreCase();
+            count++;
+        }
+        return (count < 2) ? null : new AhoCorasick(literals);
+    }
+
+    /**
+     * Follows the goto and failure functions for one input byte.
+     */
+    private int step(int state, int b) {
+        while (state != 0) {
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                if ((edgeLabel[e] & 0xFF) == b) {
+                    return edgeTarget[e];
+                }
+            }
+            state = fail[state];
+        }
+        return rootNext[b];
+    }
+
+    /**
+     * Scans a single line and sets the bit of every pattern that occurs in it.
+     *
+     * @param buffer The buffer holding the line, which must start at a line boundary.
+     * @param from   The start of the line.
+     * @param to     The end of the line, excluding the line terminator.
+     * @param hits   The bitset to set pattern bits in, indexed by pattern position.
+     * @return true if any pattern occurs in the line.
+     */
+    boolean matches(ByteBuffer buffer, int from, int to, long[] hits) {
+        boolean found = false;
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            state = step(state, LiteralMatcher.fold(buffer.get(i), ignoreCase));
+            if (state != 0 && report(state, buffer, i + 1, hits)) {
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Scans a region of complete lines until the end of the first line that contains a pattern.
+     * Lines without any hit are skipped without ever being decoded.
+     *
+     * @param buffer The buffer holding the region, which must start at a line boundary.
+     * @param from   The start of the region, at the start of a line.
+     * @param to     The end of the region.
+     * @param hits   The bitset to set pattern bits in for the matching line; it must be clear.
+     * @return The start of the first matching line, or -1 if no line in the region matches.
+     */
+    int nextMatchingLine(ByteBuffer buffer, int from, int to, long[] hits) {
+        boolean found = false;
+        int state = 0;
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                if (found) {
+                    return lineStart;
+                }
+                state = 0;
+                lineStart = i + 1;
+                continue;
+            }
+            state = step(state, LiteralMatcher.fold(b, ignoreCase));
+            if (state != 0 && report(state, buffer, i + 1, hits)) {
+                found = true;
+            }
+        }
+        return found ? lineStart : -1;
+    }
+
+    /**
+     * Sets the bits of every pattern that ends at the given position in the given state.
+     */
+    private boolean report(int state, ByteBuffer buffer, int end, long[] hits) {
+        boolean found = false;
+        for (int s = (outputs[state] != null) ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+            for (int p : outputs[s]) {
+                if (!wholeWord || LiteralMatcher.isWordBounded(buffer, end - lengths[p], end)) {
+                    hits[p >>> 6] |= 1L << p;
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+}
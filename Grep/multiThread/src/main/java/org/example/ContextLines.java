@@ -0,0 +1,145 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Adds the lines around every matching line to the result as context, for -A, -B and -C.
+ * The last lines before a match are kept in a fixed-size ring as their offsets in the file, not
+ * as Strings, and are only decoded once a match needs them: from the buffer being searched while
+ * they are still in it, otherwise read back from the file. A line that was added never goes into
+ * the ring again, so the context of matches that are close together merges and every line is
+ * added at most once.
+ * <p>
+ * Only lines in the owned range of the file are added. A task that searches part of a file also
+ * feeds the lines just outside its range through, so that a match there still gets its context
+ * from this task, and a match in this task gets its context from there.
+ */
+class ContextLines {
+    private final int after; // Lines added after a match
+    private final long[] starts; // Ring of the last lines not added: file offset of their start
+    private final long[] ends; // File offset of their end, without the newline
+    private final int[] lineNumbers; // Their line numbers
+    private int head; // Ring slot the next line goes to
+    private int size; // Lines in the ring
+    private int afterLeft; // Lines still to add after the last match
+    private final FileChannel channel; // The file, to read back lines no longer in the buffer
+    private final String file; // The file name to report in results
+    private final LineResult.Builder builder; // Builder for the context lines
+    private final long ownedStart; // First byte of the lines that are added
+    private final long ownedEnd; // End of the lines that are added (exclusive)
+    private ByteBuffer buffer; // The buffer being searched, or null
+    private long bufferStart; // File offset of the start of the buffer
+
+    /**
+     * Constructs the context of a search of the given range of a file.
+     *
+     * @param channel    The channel of the file.
+     * @param file       The file name to report in results.
+     * @param builder    Builder for the context lines.
+     * @param options    Options for the search, giving the lines of context before and after.
+     * @param ownedStart The first byte of the lines that may be added.
+     * @param ownedEnd   The end of the lines that may be added (exclusive).
+     */
+    ContextLines(FileChannel channel, String file, LineResult.Builder builder, MyRegexOptions options, long ownedStart, long ownedEnd) {
+        this.after = options.contextAfter;
+        this.starts = new long[options.contextBefore];
+        this.ends = new long[options.contextBefore];
+        this.lineNumbers = new int[options.contextBefore];
+        this.channel = channel;
+        this.file = file;
+        this.builder = builder;
+        this.ownedStart = ownedStart;
+        this.ownedEnd = ownedEnd;
+    }
+
+    /**
+     * Sets the buffer being searched, to decode lines from while they are still in it.
+     *
+     * @param buffer      The buffer.
+     * @param bufferStart The file offset of the start of the buffer.
+     */
+    void setBuffer(ByteBuffer buffer, long bufferStart) {
+        this.buffer = buffer;
+        this.bufferStart = bufferStart;
+    }
+
+    /**
+     * Returns whether the line starting at the given offset is in the owned range, so that it
+     * and its matches are added.
+     *
+     * @param start The file offset of the start of the line.
+     */
+    boolean owns(long start) {
+        return start >= ownedStart && start < ownedEnd;
+    }
+
+    /**
+     * Records a matching line. Called before its matches are added, so that the lines before it
+     * come first.
+     *
+     * @param result The container to add the lines before the match to.
+     */
+    void matched(Result result) {
+        // The match may be past the owned range, its lines before it still have to be added
+        for (int i = 0; i < size; i++) {
+            int slot = Math.floorMod(head - size + i, starts.length);
+            if (owns(starts[slot])) {
+                add(starts[slot], ends[slot], lineNumbers[slot], result);
+            }
+        }
+        size = 0;
+        afterLeft = after;
+    }
+
+    /**
+     * Records a line that does not match. It is added right away if it follows a match closely
+     * enough, and kept in the ring otherwise.
+     *
+     * @param start      The file offset of the start of the line.
+     * @param end        The file offset of the end of the line, without the newline.
+     * @param lineNumber The line number of the line.
+     * @param result     The container to add the line to.
+     */
+    void unmatched(long start, long end, int lineNumber, Result result) {
+        if (afterLeft > 0) {
+            afterLeft--;
+            if (owns(start)) {
+                add(start, end, lineNumber, result);
+            }
+            return;
+        }
+        if (starts.length == 0) {
+            return;
+        }
+        starts[head] = start;
+        ends[head] = end;
+        lineNumbers[head] = lineNumber;
+        head = (head + 1) % starts.length;
+        size = Math.min(size + 1, starts.length);
+    }
+
+    private void add(long start, long end, int lineNumber, Result result) {
+        result.addContext(builder.buildContext(lineNumber, decode(start, end), file));
+    }
+
+    /**
+     * Decodes a line from the buffer if it is still in it, or reads it back from the file.
+     */
+    private String decode(long start, long end) {
+        if (buffer != null && start >= bufferStart && end <= bufferStart + buffer.limit()) {
+            return LiteralSearch.decode(buffer, (int) (start - bufferStart), (int) (end - bufferStart));
+        }
+        ByteBuffer line = ByteBuffer.allocate((int) (end - start));
+        try {
+            while (line.hasRemaining() && channel.read(line, start + line.position()) > 0) {
+                // Read until the line is complete
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return LiteralSearch.decode(line, 0, line.position());
+    }
+}
@@ -0,0 +1,203 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks one or more directory trees in parallel and hands every regular file it finds to the
+ * search as soon as it is found, so that walking and matching overlap. Every directory is listed
+ * by its own task with walkFileTree, whose attributes tell files and directories apart without
+ * a second stat call, and subdirectories become new tasks for the walker threads.
+ * Files go through a bounded queue, and the search only takes the next file once it has fewer
+ * than Grep.MAX_FILES_IN_FLIGHT files submitted but not yet searched, so the walk waits for the
+ * search when it gets too far ahead, even when the pool itself queues without bound.
+ * A WalkFilter prunes ignored directories before they are listed and skips unwanted files.
+ * The queue has a single consumer.
+ */
+public class DirectoryWalker {
+    // Number of threads listing directories
+    static int WALKER_THREADS = 4;
+    // Number of files the walk may get ahead of the search
+    static int QUEUE_CAPACITY = 1024;
+
+    private static final String END = new String("<end of walk>"); // Marks the end of the walk, compared by identity
+
+    private final Path base; // Files are reported relative to this path
+    private final WalkFilter filter; // Decides which directories and files are walked
+    private final BlockingQueue<String> queue; // Files found but not yet taken by the search
+    private final ExecutorService walkers; // Threads listing directories
+    private final AtomicInteger pending = new AtomicInteger(); // Directories submitted but not yet listed
+    private final SearchProfile profile; // Charged with the walk time and the skipped entries, null unless -analyze
+
+    /**
+     * Constructs a walker that reports files relative to the given base directory.
+     *
+     * @param base   The directory files are reported relative to.
+     * @param filter  The filter that prunes directories and files during the walk.
+     * @param profile The profile of the search, or null.
+     */
+    public DirectoryWalker(Path base, WalkFilter filter, SearchProfile profile) {
+        this.base = base.toAbsolutePath().normalize();
+        this.filter = filter;
+        this.profile = profile;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.walkers = Executors.newFixedThreadPool(WALKER_THREADS);
+    }
+
+    /**
+     * Starts walking the given roots in the background. A root that equals another or lies
+     * inside it is walked only once, as part of the outer root.
+     *
+     * @param roots The directories to walk.
+     */
+    public void start(List<Path> roots) {
+        roots = distinctRoots(roots);
+        if (roots.isEmpty()) {
+            finish();
+            return;
+        }
+        pending.set(roots.size());
+        for (Path root : roots) {
+            walkers.submit(() -> walk(root, 0, null));
+        }
+    }
+
+    /**
+     * Normalises the roots and drops every root that equals or lies inside another, so that no
+     * file is found twice.
+     *
+     * @param roots The directories to walk.
+     * @return The outermost roots, absolute and normalised.
+     */
+    static List<Path> distinctRoots(List<Path> roots) {
+        List<Path> normalized = new ArrayList<>();
+        for (Path root : roots) {
+            normalized.add(root.toAbsolutePath().normalize());
+        }
+        // Outer roots come first, so that every root only has to be checked against those kept
+        normalized.sort(Comparator.comparingInt(Path::getNameCount));
+        List<Path> distinct = new ArrayList<>();
+        for (Path root : normalized) {
+            boolean nested = false;
+            for (Path kept : distinct) {
+                if (root.startsWith(kept)) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested) {
+                distinct.add(root);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Takes the next file found by the walk, waiting for one if needed.
+     *
+     * @return The path of the file relative to the base directory, or null once the walk is over.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public String take() throws InterruptedException {
+        String file = queue.take();
+        return (file == END) ? null : file;
+    }
+
+    /**
+     * Lists a single directory, queueing the files that pass the filter and submitting the
+     * subdirectories that do.
+     *
+     * The ignore rules of the directory are read inside the try, so that whatever goes wrong
+     * there still counts the directory as listed and cannot leave the walk waiting forever.
+     *
+     * @param dir         The directory to list.
+     * @param depth       The depth of the directory, the root being at depth 0.
+     * @param parentRules The ignore rules that apply inside the parent directory, or null.
+     */
+    private void walk(Path dir, int depth, IgnoreRules parentRules) {
+        if (profile != null) {
+            profile.enter(SearchProfile.Phase.WALK);
+        }
+        try {
+            IgnoreRules rules = (depth == 0) ? filter.rootRules(base, dir) : (parentRules != null) ? parentRules.child(dir) : null;
+            Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isDirectory()) {
+                        if (filter.acceptDirectory(path, depth + 1, rules)) {
+                            pending.incrementAndGet();
+                            walkers.submit(() -> walk(path, depth + 1, rules));
+                        } else if (profile != null) {
+                            profile.directoriesPruned.increment();
+                        }
+                    } else if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(path))) {
+                        if (!filter.acceptFile(path, attrs, rules)) {
+                            if (profile != null) {
+                                profile.filesSkipped.increment();
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+                        try {
+                            queue.put(base.relativize(path).toString());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    System.out.println("[ERROR] walking " + path + " : " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            if (profile != null) {
+                profile.exit();
+            }
+            if (pending.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Stops the walk before it is over, once the search is decided: the directories not yet
+     * listed are dropped and the consumer is told that no more files are coming.
+     */
+    public void cancel() {
+        walkers.shutdownNow();
+        queue.clear();
+        queue.offer(END);
+    }
+
+    /**
+     * Ends the walk: tells the consumer that no more files are coming and stops the walker threads.
+     */
+    private void finish() {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        walkers.shutdown();
+    }
+}
@@ -0,0 +1,48 @@
+package org.example;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Creates the JDK Flight Recorder events of a search, but only while the recorder runs, as it
+ * does from the start with -XX:StartFlightRecording. Loading the first event class makes the
+ * JVM load the recorder, a few hundred classes that would take longer than a small search
+ * itself, so without a recording no event is created and none of them is loaded. Checking
+ * whether the recorder runs only loads FlightRecorder.
+ * <p>
+ * Every method returns an event that has begun, or null when there is no recorder.
+ */
+final class FlightEvents {
+    private FlightEvents() {
+    }
+
+    /**
+     * Returns whether the recorder runs, so that events may be recorded.
+     */
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Begins the event of the search of a file.
+     */
+    static FileSearchEvent fileSearch() {
+        if (!recording()) {
+            return null;
+        }
+        FileSearchEvent event = new FileSearchEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins the event of a task the thread pool rejected.
+     */
+    static TaskRejectedEvent taskRejected() {
+        if (!recording()) {
+            return null;
+        }
+        TaskRejectedEvent event = new TaskRejectedEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -1,21 +1,31 @@
 package org.example;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 /**
  * Grep class for executing pattern-based searches on files and directories using ThreadPoolExecutor.
  */
 public class Grep {
+    private static final int CONTEXT_BUFFER_SIZE = 64 * 1024; // Initial block size with -A, -B or -C, grows for longer lines
+    // Files submitted to the pool but not yet searched, so a walk over millions of files does not queue them all
+    static int MAX_FILES_IN_FLIGHT = 1024;
+
     String pwd;
     List<Pattern> regexPatterns;
     List<String> files;
@@ -23,6 +33,10 @@ public class Grep {
     MyRegexOptions options;
     Result result;
     LineResult.Builder builder;
+    LiteralSearch literalSearch; // Byte level search used when any pattern is a plain string, null otherwise
+    SearchProfile profile; // Phase times and counters of the search, null unless -analyze
+    SearchLimit limit; // Stops files and the search once their answer is known, null unless -m, -q or a file listing
+    final Semaphore inFlight = new Semaphore(MAX_FILES_IN_FLIGHT); // A permit for every file submitted but not yet searched
 
     /**
      * Constructor for Grep class.
@@ -41,10 +55,16 @@ public class Grep {
         this.regexPatterns=regexPatterns;
         this.files=files;
         this.directories=directories;
-        this.result=new Result();
-        this.builder=new LineResult.Builder(this.options);
-        if(options.dirSearch){
-            addFilesRecursive();
+        this.profile = options.analyze ? new SearchProfile() : null;
+        ResultSink sink = options.streamResults ? createSink(options) : null;
+        this.result = (profile != null) ? new SearchProfile.ProfiledResult(sink, profile) : new Result(sink);
+        this.builder = (profile != null) ? new SearchProfile.ProfiledBuilder(this.options, profile) : new LineResult.Builder(this.options);
+        this.limit = SearchLimit.of(options);
+        // Context needs every line, not only those the byte level search skips to
+        this.literalSearch = options.showContext ? null : LiteralSearch.compile(regexPatterns, options, builder);
+        if (literalSearch != null) {
+            literalSearch.setProfile(profile);
+            literalSearch.setLimit(limit);
         }
 
         if(files.isEmpty() && !options.dirSearch){
@@ -54,30 +74,153 @@ public class Grep {
 
     /**
      * Executes the search using a ThreadPoolExecutor with the provided executor service.
+     * With -R the files are submitted while the directories are still being walked. At most
+     * MAX_FILES_IN_FLIGHT files are submitted but not yet searched, so when the search falls
+     * behind, submitting waits and the walk fills its queue and waits in turn, whatever the
+     * queue of the pool. Once the first match decides the search (-q), the queued files are
+     * cancelled and the walk stops.
      *
      * @param executor The executor service to use for execution.
      */
     public void executeUtil(ExecutorService executor){
-        if (options.invertedSearch) {
-            for(String file : files) {
-                executor.submit(()->{
-                    invertedProcessFile(file);
-                });
+        if (profile != null && executor instanceof ThreadPoolExecutor) {
+            profile.watchQueue(((ThreadPoolExecutor) executor).getQueue()::size);
+        }
+        if (limit != null) {
+            limit.onDecided(executor::shutdownNow);
+            // Cancelled files never give their permits back
+            limit.onDecided(() -> inFlight.release(MAX_FILES_IN_FLIGHT));
+        }
+        try {
+            for (String file : files) {
+                inFlight.acquire();
+                if (!submit(() -> executor.submit(() -> searchFileInFlight(file)))) {
+                    break;
+                }
             }
-        } else {
-            for(String file : files) {
-                executor.submit(()->{
-                    processFile(file);
-                });
+            if (options.dirSearch) {
+                DirectoryWalker walker = startWalker();
+                if (limit != null) {
+                    limit.onDecided(walker::cancel);
+                }
+                String file;
+                while ((file = walker.take()) != null) {
+                    String walkedFile = file;
+                    inFlight.acquire();
+                    if (!submit(() -> executor.submit(() -> searchFileInFlight(walkedFile)))) {
+                        break;
+                    }
+                }
             }
-        }
 
-        executor.shutdown();
-        try {
+            executor.shutdown();
             executor.awaitTermination(Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (profile != null) {
+                profile.stopWatching();
+            }
+        }
+    }
+
+    /**
+     * Submits a task, unless the search is already decided.
+     *
+     * @param submission The action that submits the task.
+     * @return Whether the task was submitted.
+     */
+    private boolean submit(Runnable submission) {
+        if (limit == null) {
+            submission.run();
+            return true;
         }
+        return limit.submit(submission);
+    }
+
+    /**
+     * Searches a single file that was submitted, and gives its permit back.
+     *
+     * @param file The file path to process.
+     */
+    private void searchFileInFlight(String file) {
+        try {
+            searchFile(file);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Searches a single file, with inverted search if requested. With -c the matches of the file
+     * are counted into a counter of its own, which is added to the result once the file is done.
+     * With a limit the file is read only until it has given all it needs to. With -A, -B or -C the
+     * file is searched into a container of its own first, so that its matches and their context
+     * stay together.
+     *
+     * @param file The file path to process.
+     */
+    private void searchFile(String file) {
+        if (limit != null && limit.decided()) {
+            return;
+        }
+        FileSearchEvent event = FlightEvents.fileSearch();
+        MatchCounter counter = options.onlyCountLines ? new MatchCounter(regexPatterns.size()) : null;
+        Result grouped = options.showContext ? new Result() : null;
+        Result fileResult = (counter != null) ? counter : (grouped != null) ? grouped : result;
+        SearchLimit.LimitedResult limited = (limit != null) ? limit.limit(fileResult) : null;
+        if (limited != null) {
+            fileResult = limited;
+        }
+        Result target = (event != null && event.isEnabled()) ? new FileSearchEvent.CountingResult(fileResult) : fileResult;
+        int lines = 0;
+        if (profile != null) {
+            profile.enter(SearchProfile.Phase.MATCH);
+        }
+        try {
+            if (options.invertedSearch) {
+                lines = invertedProcessFile(file, target);
+            } else {
+                lines = processFile(file, target);
+            }
+        } catch (SearchLimit.FileDone e) {
+            // The file has given all it needs to
+        } finally {
+            if (profile != null) {
+                profile.exit();
+            }
+            if (counter != null) {
+                result.addCounts(file, counter);
+            }
+            if (grouped != null) {
+                result.addResults(grouped);
+            }
+            if (limited != null) {
+                limit.fileDone(file, limited.matches, result);
+            }
+            if (event != null) {
+                event.finish(file, Paths.get(pwd, file), lines, target);
+            }
+        }
+    }
+
+    /**
+     * Starts walking the directories to search in, or the current working directory if none were given.
+     *
+     * @return The walker, to take the files it finds from.
+     */
+    private DirectoryWalker startWalker() {
+        Path base = Paths.get(pwd);
+        List<Path> roots = new ArrayList<>();
+        for (String directory : directories) {
+            roots.add(base.resolve(directory));
+        }
+        if (roots.isEmpty()) {
+            roots.add(base);
+        }
+        DirectoryWalker walker = new DirectoryWalker(base, new WalkFilter(options), profile);
+        walker.start(roots);
+        return walker;
     }
 
     /**
@@ -85,7 +228,9 @@ public class Grep {
      */
     public void execute1()  {
         int threadPoolSize=30;
-        System.out.println("creating fixed thread pool of size: "+threadPoolSize);
+        if (!options.quiet) {
+            System.out.println("creating fixed thread pool of size: "+threadPoolSize);
+        }
         ExecutorService executor= Executors.newFixedThreadPool(threadPoolSize);
         executeUtil(executor);
     }
@@ -134,6 +279,72 @@ public class Grep {
         executeUtil(executor);
     }
 
+    /**
+     * Executes the search on a work-stealing ForkJoinPool sized to the available cores. Every file
+     * is a task, and files larger than the split size keep splitting into line-aligned ranges
+     * that idle workers steal, so a single huge file next to many small ones still keeps every
+     * core busy. The pool queues are unbounded, so no task is ever rejected or dropped, and at most
+     * MAX_FILES_IN_FLIGHT files are submitted but not yet searched, so that the walk waits for
+     * the search when it gets too far ahead.
+     * Files are not split when line numbers are shown, since a range does not know its first line,
+     * nor with a limit, since the matches of a file have to be counted in order.
+     */
+    public void executeForkJoin() {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (!options.quiet) {
+            System.out.println("creating ForkJoinPool of parallelism: " + parallelism + " split size: " + RangeSearchTask.SPLIT_SIZE);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        LiteralSearch search = (literalSearch != null) ? literalSearch : LiteralSearch.compileAll(regexPatterns, options, builder);
+        search.setProfile(profile);
+        search.setLimit(limit);
+        if (profile != null) {
+            profile.watchQueue(() -> (int) pool.getQueuedTaskCount());
+        }
+        if (limit != null) {
+            limit.onDecided(pool::shutdownNow);
+            // Cancelled files never give their permits back
+            limit.onDecided(() -> inFlight.release(MAX_FILES_IN_FLIGHT));
+        }
+        RangeSearchTask.Stats stats = new RangeSearchTask.Stats();
+        boolean split = !options.showLineNumbers && limit == null;
+
+        try {
+            for (String file : files) {
+                inFlight.acquire();
+                if (!submit(() -> pool.execute(new RangeSearchTask(search, Paths.get(pwd, file), file, split, result, options.invertedSearch, limit, stats, inFlight)))) {
+                    break;
+                }
+            }
+            if (options.dirSearch) {
+                // Walked files are submitted as they are found
+                DirectoryWalker walker = startWalker();
+                if (limit != null) {
+                    limit.onDecided(walker::cancel);
+                }
+                String file;
+                while ((file = walker.take()) != null) {
+                    String walkedFile = file;
+                    inFlight.acquire();
+                    if (!submit(() -> pool.execute(new RangeSearchTask(search, Paths.get(pwd, walkedFile), walkedFile, split, result, options.invertedSearch, limit, stats, inFlight)))) {
+                        break;
+                    }
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (options.quiet) {
+            return;
+        }
+        System.out.println("ForkJoin stats: files=" + stats.files.sum() + " splits=" + stats.splits.sum()
+                + " ranges=" + stats.ranges.sum() + " steals=" + pool.getStealCount()
+                + " maxQueuedPerWorker=" + stats.maxQueued.get() + " queuedAtEnd=" + pool.getQueuedTaskCount());
+    }
+
     /**
      * Executes the search using a ThreadPoolExecutor with default policies for handling rejected tasks.
      */
@@ -151,48 +362,140 @@ public class Grep {
 
 
     /**
-     * Recursively adds files from the specified directory and its subdirectories to the search list.
+     * Processes the content of a file line by line using the specified regular expression patterns.
      *
-     * @throws IOException If an I/O error occurs during directory traversal.
+     * @param file   The file path to process.
+     * @param target The result container to add matches to.
+     * @return The number of lines read.
      */
-    private void addFilesRecursive() throws IOException {
-        Path dir = Paths.get(pwd);
-        addFileRecursiveUtil(dir);
+    int processFile(String file, Result target) {
+        if (literalSearch != null) {
+            return literalProcessFile(file, false, target);
+        }
+        if (options.showContext) {
+            return contextProcessFile(file, target);
+        }
+        int lineNumber = 1;
+        try (BufferedReader reader = openReader(file)) {
+            String line;
+            while ((line = readLine(reader)) != null) {
+                if (limit != null && limit.decided()) {
+                    break;
+                }
+                for (int p = 0; p < regexPatterns.size(); p++) {
+                    Pattern pattern = regexPatterns.get(p);
+                    Matcher matcher = pattern.matcher(line);
+                    while (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                        if (options.onlyCountLines) {
+                            target.addMatch(p);
+                            continue;
+                        }
+                        LineResult lineResult = builder.build(lineNumber, matcher.group(), file, pattern);
+                        target.addResult(lineResult);
+                    }
+                }
+                lineNumber++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lineNumber - 1;
     }
 
+
     /**
-     * Utility method to recursively add files from the given directory and its subdirectories.
+     * Processes the content of a file for -A, -B and -C. The file is read in blocks of whole lines
+     * instead of line by line, so that the lines before a match are kept as offsets into the
+     * block rather than as Strings, and only decoded when a match needs them.
      *
-     * @param dir The directory path to search recursively.
-     * @throws IOException If an I/O error occurs during directory traversal.
-     */
-    private void addFileRecursiveUtil(Path dir) throws IOException {
-        try (Stream<Path> paths = Files.walk(dir)) {
-            paths.forEach(path -> {
-                if (Files.isRegularFile(path)) {
-                    String relFilePath=path.toString().substring(pwd.length()+1);
-                    files.add(relFilePath);
+     * @param file   The file path to process.
+     * @param target The result container to add matches and their context to.
+     * @return The number of lines read.
+     */
+    private int contextProcessFile(String file, Result target) {
+        int lineNumber = 1;
+        try (FileChannel channel = FileChannel.open(Paths.get(pwd, file))) {
+            ContextLines context = new ContextLines(channel, file, builder, options, 0, Long.MAX_VALUE);
+            ByteBuffer buffer = ByteBuffer.allocate(CONTEXT_BUFFER_SIZE);
+            long position = 0;
+            boolean eof = false;
+            while (!eof && (limit == null || !limit.decided())) {
+                if (!buffer.hasRemaining()) {
+                    // A single line does not fit in the buffer, grow it
+                    buffer.flip();
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
                 }
-            });
+                int read = channel.read(buffer, position);
+                eof = read < 0;
+                position += Math.max(read, 0);
+                buffer.flip();
+                long bufferStart = position - buffer.limit();
+                context.setBuffer(buffer, bufferStart);
+                int to = eof ? buffer.limit() : lastIndexOf(buffer, (byte) '\n') + 1;
+                int lineStart = 0;
+                while (lineStart < to) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < to && buffer.get(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                    String line = LiteralSearch.decode(buffer, lineStart, lineEnd);
+                    boolean matched = false;
+                    for (Pattern pattern : regexPatterns) {
+                        Matcher matcher = pattern.matcher(line);
+                        while (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                            if (!matched) {
+                                context.matched(target);
+                                matched = true;
+                            }
+                            target.addResult(builder.build(lineNumber, matcher.group(), file, pattern));
+                        }
+                    }
+                    if (!matched) {
+                        context.unmatched(bufferStart + lineStart, bufferStart + lineEnd, lineNumber, target);
+                    }
+                    lineNumber++;
+                    lineStart = lineEnd + 1;
+                }
+                buffer.position(to);
+                buffer.compact();
+            }
+        } catch (ClosedByInterruptException e) {
+            // The search was decided and its running tasks interrupted
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
         }
+        return lineNumber - 1;
     }
 
-
     /**
-     * Processes the content of a file line by line using the specified regular expression patterns.
+     * Processes the content of a file line by line using inverted search based on specified regular expression patterns.
      *
-     * @param file The file path to process.
+     * @param file   The file path to process with inverted search.
+     * @param target The result container to add matches to.
+     * @return The number of lines read.
      */
-    private void processFile(String file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
+    private int invertedProcessFile(String file, Result target) {
+        if (literalSearch != null) {
+            return literalProcessFile(file, true, target);
+        }
+        int lineNumber = 1;
+        try (BufferedReader reader = openReader(file)) {
             String line;
-            int lineNumber = 1;
-            while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
+            while ((line = readLine(reader)) != null) {
+                if (limit != null && limit.decided()) {
+                    break;
+                }
+                for (int p = 0; p < regexPatterns.size(); p++) {
+                    Pattern pattern = regexPatterns.get(p);
                     Matcher matcher = pattern.matcher(line);
-                    while(matcher.find()) {
-                        LineResult lineResult = builder.build(lineNumber, matcher.group(), file, pattern);
-                        result.addResult(lineResult);
+                    if (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                        continue;
+                    }
+                    if (options.onlyCountLines) {
+                        target.addMatch(p);
+                    } else {
+                        LineResult lineResult = builder.build(lineNumber, line, file,pattern);
+                        target.addResult(lineResult);
                     }
                 }
                 lineNumber++;
@@ -200,30 +503,96 @@ public class Grep {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return lineNumber - 1;
     }
 
+    /**
+     * Opens a file for reading lines. With -analyze, opening is charged to the open phase and
+     * reading to the read phase.
+     *
+     * @param file The file path to open.
+     * @return A reader over the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    private BufferedReader openReader(String file) throws IOException {
+        if (profile == null) {
+            return new BufferedReader(new FileReader(pwd+"/"+file));
+        }
+        profile.enter(SearchProfile.Phase.OPEN);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new SearchProfile.ProfiledInputStream(new FileInputStream(pwd+"/"+file), profile)));
+            profile.filesSearched.increment();
+            return reader;
+        } finally {
+            profile.exit();
+        }
+    }
 
     /**
-     * Processes the content of a file line by line using inverted search based on specified regular expression patterns.
+     * Reads the next line. With -analyze, the time not spent reading bytes is charged to the
+     * decode phase.
      *
-     * @param file The file path to process with inverted search.
+     * @param reader The reader.
+     * @return The line, or null at the end of the file.
+     * @throws IOException If the file cannot be read.
      */
-    private void invertedProcessFile(String file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
-            String line;
-            int lineNumber = 1;
-            while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
-                    Matcher matcher = pattern.matcher(line);
-                    if (!matcher.find()) {
-                        LineResult lineResult = builder.build(lineNumber, line, file,pattern);
-                        result.addResult(lineResult);
-                    }
-                }
-                lineNumber++;
+    private String readLine(BufferedReader reader) throws IOException {
+        if (profile == null) {
+            return reader.readLine();
+        }
+        profile.enter(SearchProfile.Phase.DECODE);
+        try {
+            String line = reader.readLine();
+            if (line != null) {
+                profile.lines.increment();
             }
+            return line;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Processes the content of a file with the literal fast path, searching its raw bytes
+     * without decoding lines or going through the regex engine.
+     *
+     * @param file     The file path to process.
+     * @param inverted Whether to report the lines that do not match instead.
+     * @param target   The result container to add matches to.
+     * @return The number of lines read, or 0 if line numbers are not shown.
+     */
+    private int literalProcessFile(String file, boolean inverted, Result target) {
+        try {
+            return literalSearch.searchFile(Paths.get(pwd, file), file, target, inverted);
+        } catch (ClosedByInterruptException e) {
+            // The search was decided and its running tasks interrupted
+            return 0;
         } catch (IOException e) {
             e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte value) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the sink that streamed results are written to: the standard output, or nothing
+     * at all when only the count is wanted.
+     *
+     * @param options Options for regex search.
+     * @return The sink for streamed results.
+     */
+    private static ResultSink createSink(MyRegexOptions options) {
+        if (options.onlyCountLines) {
+            return ResultSink.discarding();
         }
+        return new ResultSink(System.out);
     }
 }
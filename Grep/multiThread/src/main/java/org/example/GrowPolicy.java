@@ -25,6 +25,7 @@ public class GrowPolicy implements RejectedExecutionHandler {
      */
     @Override
     public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) throws RejectedExecutionException {
+        TaskRejectedEvent event = FlightEvents.taskRejected();
         lock.lock();
         try {
             // Increase the maximum pool size by one
@@ -35,5 +36,8 @@ public class GrowPolicy implements RejectedExecutionHandler {
 
         // Resubmit the rejected task
         executor.submit(r);
+        if (event != null) {
+            event.finish("GrowPolicy", "grown", 0, executor);
+        }
     }
 }
@@ -25,6 +25,7 @@ public class GrowPolicy2 implements RejectedExecutionHandler {
 
     /**
      * Handles the rejected task by retrying with backoff for a limited number of retries.
+     * Once the retries are used up the task is run on the submitting thread, so that no task is lost.
      *
      * @param r        The task that was rejected.
      * @param executor The ThreadPoolExecutor that rejected the task.
@@ -32,6 +33,7 @@ public class GrowPolicy2 implements RejectedExecutionHandler {
      */
     @Override
     public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) throws RejectedExecutionException {
+        TaskRejectedEvent event = FlightEvents.taskRejected();
         int retries = 0;
         while (true) {
             if (retries < maxRetries) {
@@ -46,11 +48,21 @@ public class GrowPolicy2 implements RejectedExecutionHandler {
 
                 // Try offering the task to the executor's queue again
                 if (executor.getQueue().offer(r)) {
+                    if (event != null) {
+                        event.finish("GrowPolicy2", "requeued", retries, executor);
+                    }
                     break; // Retry successful, exit the loop
                 }
                 retries++; // Increment retry count
             } else {
-                System.err.println("Max retries reached, task rejected"); // Print rejection message
+                // Run the task on the submitting thread rather than dropping it
+                System.err.println("Max retries reached, running task in caller");
+                if (!executor.isShutdown()) {
+                    r.run();
+                }
+                if (event != null) {
+                    event.finish("GrowPolicy2", "ran in caller", retries, executor);
+                }
                 break; // Exit the loop after max retries
             }
         }
@@ -0,0 +1,256 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The ignore rules that apply inside a directory, read from the .gitignore files of the
+ * directory and of all its parents up to the walk root. Rules use the .gitignore syntax:
+ * blank lines and lines starting with # are skipped, a leading ! re-includes what an earlier rule
+ * ignored, a trailing / only matches directories, a pattern containing a / is anchored to the
+ * directory of its ignore file, and *, ?, [...] and ** work as globs. The last rule that matches
+ * a path decides, and rules of deeper ignore files come after the rules of their parents.
+ * Instances are immutable and shared by the walker threads.
+ */
+public class IgnoreRules {
+    static final String IGNORE_FILE = ".gitignore"; // The name of ignore files
+
+    private final IgnoreRules parent; // Rules of the parent directories, or null
+    private final Path dir; // The directory the rules were read in
+    private final List<Rule> rules; // Rules of this directory, in file order
+
+    /**
+     * A single line of an ignore file.
+     */
+    private static class Rule {
+        final Pattern pattern; // The glob of the rule, as a regex
+        final boolean negated; // Whether the rule re-includes paths
+        final boolean directoryOnly; // Whether the rule only matches directories
+        final boolean anchored; // Whether the rule matches the path relative to the directory instead of the name
+
+        Rule(Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+    }
+
+    private IgnoreRules(IgnoreRules parent, Path dir, List<Rule> rules) {
+        this.parent = parent;
+        this.dir = dir;
+        this.rules = rules;
+    }
+
+    /**
+     * Creates the rules of a walk root. When the root lies inside the base directory, the ignore
+     * files of the directories between the two apply as well, as they would for git.
+     *
+     * @param base The directory files are reported relative to.
+     * @param root The directory the walk starts at.
+     * @return The rules that apply inside the root.
+     */
+    static IgnoreRules root(Path base, Path root) {
+        Path start = root.normalize().startsWith(base.normalize()) ? base.normalize() : root.normalize();
+        IgnoreRules rules = new IgnoreRules(null, start, List.of()).child(start);
+        for (Path name : start.relativize(root.normalize())) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            start = start.resolve(name);
+            rules = rules.child(start);
+        }
+        return rules;
+    }
+
+    /**
+     * Creates the rules that apply inside a subdirectory, adding its own ignore file if there is one.
+     *
+     * @param child The subdirectory.
+     * @return The rules that apply inside the subdirectory, or these rules if it has no ignore file.
+     */
+    IgnoreRules child(Path child) {
+        Path ignoreFile = child.resolve(IGNORE_FILE);
+        if (!Files.isRegularFile(ignoreFile)) {
+            return this;
+        }
+        List<Rule> childRules = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(ignoreFile, StandardCharsets.UTF_8)) {
+                Rule rule;
+                try {
+                    rule = parse(line);
+                } catch (PatternSyntaxException e) {
+                    // Such as a range running backwards, [z-a]; the other rules of the file still apply
+                    System.out.println("[ERROR] skipping rule " + line + " in ignore file " + ignoreFile + " : " + e.getDescription());
+                    continue;
+                }
+                if (rule != null) {
+                    childRules.add(rule);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[ERROR] reading ignore file " + ignoreFile + " : " + e);
+            return this;
+        }
+        return childRules.isEmpty() ? this : new IgnoreRules(this, child, childRules);
+    }
+
+    /**
+     * Checks whether a path is ignored.
+     *
+     * @param path        The path to check, inside the directory of these rules.
+     * @param isDirectory Whether the path is a directory.
+     * @return true if the last rule matching the path ignores it.
+     */
+    boolean isIgnored(Path path, boolean isDirectory) {
+        Boolean ignored = decide(path, isDirectory);
+        return ignored != null && ignored;
+    }
+
+    /**
+     * Applies the rules of the parents first and then those of this directory, so that the last match wins.
+     *
+     * @return Whether the path is ignored, or null if no rule matches it.
+     */
+    private Boolean decide(Path path, boolean isDirectory) {
+        Boolean ignored = (parent != null) ? parent.decide(path, isDirectory) : null;
+        if (rules.isEmpty()) {
+            return ignored;
+        }
+        String relative = dir.relativize(path).toString().replace('\\', '/');
+        String name = path.getFileName().toString();
+        for (Rule rule : rules) {
+            if (rule.directoryOnly && !isDirectory) {
+                continue;
+            }
+            if (rule.pattern.matcher(rule.anchored ? relative : name).matches()) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    /**
+     * Parses a line of an ignore file.
+     *
+     * @param line The line.
+     * @return The rule, or null if the line holds no rule.
+     */
+    private static Rule parse(String line) {
+        String glob = line.strip();
+        if (glob.isEmpty() || glob.startsWith("#")) {
+            return null;
+        }
+        boolean negated = glob.startsWith("!");
+        if (negated) {
+            glob = glob.substring(1);
+        }
+        boolean directoryOnly = glob.endsWith("/");
+        if (directoryOnly) {
+            glob = glob.substring(0, glob.length() - 1);
+        }
+        boolean anchored = glob.contains("/");
+        if (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        }
+        if (glob.isEmpty()) {
+            return null;
+        }
+        return new Rule(Pattern.compile(toRegex(glob)), negated, directoryOnly, anchored);
+    }
+
+    /**
+     * Translates a glob into a regex, where * and ? do not cross directory separators and ** does.
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                    regex.append("(?:.*/)?"); // **/ matches any number of leading directories
+                    i += 2;
+                } else {
+                    regex.append(".*");
+                    i++;
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int close = setEnd(glob, i);
+                if (close < 0) {
+                    regex.append("\\[");
+                } else {
+                    appendSet(regex, glob.substring(i + 1, close));
+                    i = close;
+                }
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Finds the ] that closes the set opened at the given index. A ] right after the [ or the
+     * negating ! belongs to the set, as in []] or [!]].
+     *
+     * @return The index of the closing ], or -1 if the set is not closed.
+     */
+    private static int setEnd(String glob, int open) {
+        int i = open + 1;
+        if (i < glob.length() && glob.charAt(i) == '!') {
+            i++;
+        }
+        if (i < glob.length() && glob.charAt(i) == ']') {
+            i++;
+        }
+        for (; i < glob.length(); i++) {
+            if (glob.charAt(i) == '\\') {
+                i++;
+            } else if (glob.charAt(i) == ']') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a glob set as a regex character class. Only - keeps its meaning; every character
+     * that is special inside a regex class is escaped, and a backslash escapes the next character.
+     *
+     * @param regex The regex being built.
+     * @param set   The content of the set, between [ and ].
+     */
+    private static void appendSet(StringBuilder regex, String set) {
+        regex.append('[');
+        int i = 0;
+        if (set.startsWith("!")) {
+            regex.append('^');
+            i++;
+        }
+        for (; i < set.length(); i++) {
+            char c = set.charAt(i);
+            if (c == '\\' && i + 1 < set.length()) {
+                c = set.charAt(++i);
+            } else if (c == '-') {
+                regex.append(c);
+                continue;
+            }
+            if ("\\[]^&-".indexOf(c) >= 0) {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+        regex.append(']');
+    }
+}
@@ -12,6 +12,7 @@ public class LineResult {
     String line; // The content of the matching line
     String file; // File name where the match was found
     String pattern; // The pattern that was matched
+    boolean context; // Whether the line is context around a match (-A, -B, -C) rather than a match
 
     /**
      * Overrides the toString method to provide a string representation
@@ -33,7 +34,7 @@ public class LineResult {
             sb.append("pattern='").append(pattern).append("', ");
         }
         if (line != null) {
-            sb.append("line='").append(line).append("'");
+            sb.append(context ? "context='" : "line='").append(line).append("'");
         }
         sb.append("}");
         return sb.toString();
@@ -55,6 +56,23 @@ public class LineResult {
         this.pattern = (pattern != null) ? String.valueOf(pattern) : null;
     }
 
+    /**
+     * Recreates a line result from the fields a ResultStore kept of it.
+     *
+     * @param lineNumber The line number, or null if the result has none.
+     * @param line The content of the line, or null.
+     * @param file The file name, or null.
+     * @param pattern The pattern, already turned into a string, or null.
+     * @param context Whether the line is context around a match.
+     * @return A LineResult with exactly these fields.
+     */
+    static LineResult restore(Integer lineNumber, String line, String file, String pattern, boolean context) {
+        LineResult lineResult = new LineResult(lineNumber, line, file, null);
+        lineResult.pattern = pattern;
+        lineResult.context = context;
+        return lineResult;
+    }
+
     /**
      * Builder class for constructing LineResult instances with specific options.
      */
@@ -116,5 +134,21 @@ public class LineResult {
                 return new LineResult(null, null, null, null);
             }
         }
+
+        /**
+         * Builds a LineResult for a line of context around a match. It always has the content of
+         * the line, and the line number and file name as the options show them for matches.
+         *
+         * @param lineNumber The line number of the line.
+         * @param line The content of the line.
+         * @param file The file name of the line.
+         * @return A new LineResult marked as context.
+         */
+        public LineResult buildContext(Integer lineNumber, String line, String file) {
+            LineResult lineResult = new LineResult(options.showLineNumbers ? lineNumber : null, line,
+                    options.showFiles ? file : null, null);
+            lineResult.context = true;
+            return lineResult;
+        }
     };
 }
@@ -0,0 +1,499 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches files for a set of patterns directly on their raw bytes.
+ * Literal patterns are searched for across whole buffers instead of line by line: a single
+ * literal with Boyer-Moore-Horspool, several of them at once with an Aho-Corasick automaton.
+ * The surrounding line is only located (and decoded) when a LineResult is emitted, so for
+ * literal queries java.util.regex and BufferedReader.readLine are bypassed completely.
+ * Patterns that are not literals are still matched with the regex engine, line by line.
+ * Instances are immutable and can be shared between threads.
+ */
+public class LiteralSearch {
+    private static final int BUFFER_SIZE = 64 * 1024; // Initial read buffer size, grows for longer lines
+
+    private final List<Pattern> regexPatterns; // All patterns, in pattern order
+    private final LiteralMatcher[] literals; // Literal matcher of each pattern, null for regex patterns
+    private final AhoCorasick automaton; // Automaton over all literals, null if there are fewer than two
+    private final boolean hasRegex; // Whether some patterns still need the regex engine
+    private final LineResult.Builder builder; // Builder for LineResult objects
+    private final boolean countLines; // Whether line numbers need to be tracked
+    private final boolean wholeWord; // Whether regex matches must be whole words
+    private final boolean countOnly; // Whether matches are only counted (-c), without building results
+    private SearchProfile profile; // Charged with the phases of the search, null unless -analyze
+    private SearchLimit limit; // Stops reading once the search is decided, null unless there is a limit
+
+    /**
+     * Private constructor, use {@link #compile(List, MyRegexOptions, LineResult.Builder)} to create a search.
+     *
+     * @param regexPatterns All patterns, in pattern order.
+     * @param literals      The literal matcher of each pattern, null for regex patterns.
+     * @param builder       The builder used to create line results.
+     * @param options       The search options.
+     */
+    private LiteralSearch(List<Pattern> regexPatterns, LiteralMatcher[] literals, LineResult.Builder builder, MyRegexOptions options) {
+        this.regexPatterns = regexPatterns;
+        this.literals = literals;
+        this.automaton = AhoCorasick.build(literals);
+        this.hasRegex = Arrays.asList(literals).contains(null);
+        this.builder = builder;
+        this.countLines = options.showLineNumbers;
+        this.wholeWord = options.wholeWord;
+        this.countOnly = options.onlyCountLines;
+    }
+
+    /**
+     * Compiles the patterns into a byte level search if any of them is a plain string.
+     *
+     * @param regexPatterns The patterns to search for.
+     * @param options       The search options (-w is honoured here).
+     * @param builder       The builder used to create line results.
+     * @return A LiteralSearch, or null if every pattern needs the regex engine.
+     */
+    static LiteralSearch compile(List<Pattern> regexPatterns, MyRegexOptions options, LineResult.Builder builder) {
+        LiteralMatcher[] literals = new LiteralMatcher[regexPatterns.size()];
+        boolean anyLiteral = false;
+        for (int i = 0; i < literals.length; i++) {
+            literals[i] = LiteralMatcher.compile(regexPatterns.get(i), options.wholeWord);
+            anyLiteral |= literals[i] != null;
+        }
+        return anyLiteral ? new LiteralSearch(regexPatterns, literals, builder, options) : null;
+    }
+
+    /**
+     * Compiles the patterns into a byte level search even if none of them is a plain string.
+     * Searches that start in the middle of a file cannot go through BufferedReader, so they
+     * match regex patterns line by line on the raw bytes instead.
+     *
+     * @param regexPatterns The patterns to search for.
+     * @param options       The search options (-w is honoured here).
+     * @param builder       The builder used to create line results.
+     * @return A LiteralSearch for the patterns.
+     */
+    static LiteralSearch compileAll(List<Pattern> regexPatterns, MyRegexOptions options, LineResult.Builder builder) {
+        LiteralSearch search = compile(regexPatterns, options, builder);
+        if (search != null) {
+            return search;
+        }
+        return new LiteralSearch(regexPatterns, new LiteralMatcher[regexPatterns.size()], builder, options);
+    }
+
+    /**
+     * Sets the profile the phases of the search are charged to.
+     *
+     * @param profile The profile, or null.
+     */
+    void setProfile(SearchProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Sets the limit of the search, so that reading stops at the next block once the search is decided.
+     *
+     * @param limit The limit of the search, or null.
+     */
+    void setLimit(SearchLimit limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Creates the counter a task counts its matches in with -c.
+     *
+     * @return A new counter, or null if a result is built for every match.
+     */
+    MatchCounter newCounter() {
+        return countOnly ? new MatchCounter(literals.length) : null;
+    }
+
+    /**
+     * Opens a file for reading, charged to the open phase with -analyze.
+     *
+     * @param path The path of the file.
+     * @return The channel of the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    FileChannel open(Path path) throws IOException {
+        if (profile == null) {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+        profile.enter(SearchProfile.Phase.OPEN);
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            profile.filesSearched.increment();
+            return channel;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Searches a whole file, reading it in blocks that always end on a line boundary.
+     *
+     * @param path     The path of the file to read.
+     * @param file     The file name to report in results.
+     * @param result   The container to add results to.
+     * @param inverted Whether to report lines that do not match instead.
+     * @return The number of lines read, or 0 if line numbers are not tracked.
+     * @throws IOException If the file cannot be read.
+     */
+    int searchFile(Path path, String file, Result result, boolean inverted) throws IOException {
+        try (FileChannel channel = open(path)) {
+            return searchRange(channel, 0, Long.MAX_VALUE, 1, file, result, inverted) - 1;
+        }
+    }
+
+    /**
+     * Searches a byte range of a file, reading it in blocks that always end on a line boundary.
+     * Only positional reads are used, so several ranges of the same channel can be searched at once.
+     *
+     * @param channel    The channel of the file to read.
+     * @param start      The first byte of the range, at the start of a line.
+     * @param end        The end of the range (exclusive), at the start of a line or past the end of the file.
+     * @param lineNumber The line number of the first line in the range.
+     * @param file       The file name to report in results.
+     * @param result     The container to add results to.
+     * @param inverted   Whether to report lines that do not match instead.
+     * @return The line number of the line following the range.
+     * @throws IOException If the file cannot be read.
+     */
+    int searchRange(FileChannel channel, long start, long end, int lineNumber, String file, Result result, boolean inverted) throws IOException {
+        if (profile == null) {
+            return searchBlocks(channel, start, end, lineNumber, file, result, inverted);
+        }
+        profile.enter(SearchProfile.Phase.MATCH);
+        try {
+            return searchBlocks(channel, start, end, lineNumber, file, result, inverted);
+        } finally {
+            profile.exit();
+        }
+    }
+
+    private int searchBlocks(FileChannel channel, long start, long end, int lineNumber, String file, Result result, boolean inverted) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = start;
+        boolean eof = false;
+        while (!eof && (limit == null || !limit.decided())) {
+            if (!buffer.hasRemaining()) {
+                // A single line does not fit in the buffer, grow it
+                buffer.flip();
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+            }
+            long remaining = end - position;
+            if (remaining < buffer.remaining()) {
+                buffer.limit(buffer.position() + (int) remaining);
+            }
+            int read = (remaining > 0) ? read(channel, buffer, position) : -1;
+            eof = read < 0;
+            position += Math.max(read, 0);
+            buffer.flip();
+            int to = eof ? buffer.limit() : lastIndexOf(buffer, (byte) '\n') + 1;
+            if (profile != null) {
+                profile.lines.add(countNewlines(buffer, 0, to));
+            }
+            if (inverted) {
+                lineNumber = invertedSearch(buffer, 0, to, lineNumber, file, result);
+            } else {
+                lineNumber = search(buffer, 0, to, lineNumber, file, result);
+            }
+            buffer.position(to);
+            buffer.compact();
+        }
+        return lineNumber;
+    }
+
+    /**
+     * Reads from the channel, charged to the read phase with -analyze.
+     */
+    private int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (profile == null) {
+            return channel.read(buffer, position);
+        }
+        profile.enter(SearchProfile.Phase.READ);
+        try {
+            int read = channel.read(buffer, position);
+            profile.bytes.add(Math.max(read, 0));
+            return read;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Searches a region of complete lines for every pattern, emitting results in the same order
+     * as the line by line regex path: line by line, then pattern by pattern.
+     *
+     * @param buffer     The buffer holding the region, which must start at a line boundary.
+     * @param from       The start of the region.
+     * @param to         The end of the region.
+     * @param lineNumber The line number of the first line in the region.
+     * @param file       The file name to report in results.
+     * @param result     The container to add results to.
+     * @return The line number of the line following the region.
+     */
+    int search(ByteBuffer buffer, int from, int to, int lineNumber, String file, Result result) {
+        if (automaton != null && !hasRegex) {
+            return automatonSearch(buffer, from, to, lineNumber, file, result);
+        } else if (hasRegex || literals.length != 1) {
+            return lineByLineSearch(buffer, from, to, lineNumber, file, result, false);
+        }
+
+        // A single literal, searched for with Boyer-Moore-Horspool across the whole region
+        LiteralMatcher matcher = literals[0];
+        int hit = matcher.indexOf(buffer, from, to);
+        if (countOnly) {
+            // Line numbers are not shown with -c, so the lines around the hits are not even located
+            for (; hit >= 0; hit = matcher.indexOf(buffer, hit + matcher.length(), to)) {
+                result.addMatch(0);
+            }
+            return lineNumber;
+        }
+        int counted = from;
+        while (hit >= 0) {
+            int lineStart = lineStart(buffer, from, hit);
+            int lineEnd = lineEnd(buffer, hit, to);
+            if (countLines) {
+                lineNumber += countNewlines(buffer, counted, lineStart);
+                counted = lineStart;
+            }
+            while (hit >= 0 && hit < lineEnd) {
+                emit(buffer, hit, lineNumber, file, matcher, result);
+                hit = matcher.indexOf(buffer, hit + matcher.length(), to);
+            }
+        }
+        if (countLines) {
+            lineNumber += countNewlines(buffer, counted, to);
+        }
+        return lineNumber;
+    }
+
+    /**
+     * Searches a region of complete lines and reports every line that does not contain a pattern,
+     * once for each pattern it does not contain.
+     *
+     * @param buffer     The buffer holding the region, which must start at a line boundary.
+     * @param from       The start of the region.
+     * @param to         The end of the region.
+     * @param lineNumber The line number of the first line in the region.
+     * @param file       The file name to report in results.
+     * @param result     The container to add results to.
+     * @return The line number of the line following the region.
+     */
+    int invertedSearch(ByteBuffer buffer, int from, int to, int lineNumber, String file, Result result) {
+        return lineByLineSearch(buffer, from, to, lineNumber, file, result, true);
+    }
+
+    /**
+     * Scans the region with the Aho-Corasick automaton, skipping every line that contains no
+     * literal and emitting the matches of each literal that hit the other lines.
+     */
+    private int automatonSearch(ByteBuffer buffer, int from, int to, int lineNumber, String file, Result result) {
+        long[] hits = new long[(literals.length + 63) >>> 6];
+        int counted = from;
+        int lineStart;
+        while (from < to && (lineStart = automaton.nextMatchingLine(buffer, from, to, hits)) >= 0) {
+            int lineEnd = lineEnd(buffer, lineStart, to);
+            if (countLines) {
+                lineNumber += countNewlines(buffer, counted, lineStart);
+                counted = lineStart;
+            }
+            for (int p = 0; p < literals.length; p++) {
+                if ((hits[p >>> 6] & (1L << p)) != 0) {
+                    emitAll(buffer, lineStart, lineEnd, lineNumber, file, p, result);
+                }
+            }
+            Arrays.fill(hits, 0);
+            from = lineEnd + 1;
+        }
+        if (countLines) {
+            lineNumber += countNewlines(buffer, counted, to);
+        }
+        return lineNumber;
+    }
+
+    /**
+     * Visits every line of the region, checking literals on the raw bytes and the remaining
+     * patterns with the regex engine on the decoded line.
+     */
+    private int lineByLineSearch(ByteBuffer buffer, int from, int to, int lineNumber, String file, Result result, boolean inverted) {
+        long[] hits = new long[(literals.length + 63) >>> 6];
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineEnd(buffer, lineStart, to);
+            if (automaton != null) {
+                automaton.matches(buffer, lineStart, lineEnd, hits);
+            }
+            String line = hasRegex ? decodeLine(buffer, lineStart, lineEnd) : null;
+            for (int p = 0; p < literals.length; p++) {
+                LiteralMatcher literal = literals[p];
+                Pattern pattern = regexPatterns.get(p);
+                if (literal == null) {
+                    Matcher matcher = pattern.matcher(line);
+                    if (inverted) {
+                        if (find(matcher, line, wholeWord)) {
+                            continue;
+                        }
+                        if (countOnly) {
+                            result.addMatch(p);
+                        } else {
+                            result.addResult(builder.build(lineNumber, line, file, pattern));
+                        }
+                    } else {
+                        while (find(matcher, line, wholeWord)) {
+                            if (countOnly) {
+                                result.addMatch(p);
+                            } else {
+                                result.addResult(builder.build(lineNumber, matcher.group(), file, pattern));
+                            }
+                        }
+                    }
+                    continue;
+                }
+                boolean hit = (automaton != null)
+                        ? (hits[p >>> 6] & (1L << p)) != 0
+                        : literal.indexOf(buffer, lineStart, lineEnd) >= 0;
+                if (inverted && !hit && countOnly) {
+                    result.addMatch(p);
+                } else if (inverted && !hit) {
+                    if (line == null) {
+                        line = decodeLine(buffer, lineStart, lineEnd);
+                    }
+                    result.addResult(builder.build(countLines ? lineNumber : null, line, file, pattern));
+                } else if (!inverted && hit) {
+                    emitAll(buffer, lineStart, lineEnd, lineNumber, file, p, result);
+                }
+            }
+            Arrays.fill(hits, 0);
+            lineNumber++;
+            lineStart = lineEnd + 1;
+        }
+        return lineNumber;
+    }
+
+    /**
+     * Emits a result for every occurrence of a literal in a line, or only counts it with -c.
+     */
+    private void emitAll(ByteBuffer buffer, int lineStart, int lineEnd, int lineNumber, String file, int p, Result result) {
+        LiteralMatcher literal = literals[p];
+        int hit = literal.indexOf(buffer, lineStart, lineEnd);
+        while (hit >= 0) {
+            if (countOnly) {
+                result.addMatch(p);
+            } else {
+                emit(buffer, hit, lineNumber, file, literal, result);
+            }
+            hit = literal.indexOf(buffer, hit + literal.length(), lineEnd);
+        }
+    }
+
+    /**
+     * Emits the result for a single occurrence of a literal, reporting the matched text like the regex path.
+     */
+    private void emit(ByteBuffer buffer, int hit, int lineNumber, String file, LiteralMatcher literal, Result result) {
+        String matched = decodeLine(buffer, hit, hit + literal.length());
+        result.addResult(builder.build(countLines ? lineNumber : null, matched, file, literal.pattern()));
+    }
+
+    /**
+     * Finds the next match of the matcher in the line. When whole word matching is enabled,
+     * matches that are preceded or followed by a word character are skipped.
+     *
+     * @param matcher   The matcher to advance.
+     * @param line      The line the matcher was created for.
+     * @param wholeWord Whether matches must be whole words.
+     * @return true if a match was found.
+     */
+    static boolean find(Matcher matcher, String line, boolean wholeWord) {
+        while (matcher.find()) {
+            if (!wholeWord || LiteralMatcher.isWordBounded(line, matcher.start(), matcher.end())) {
+                return true;
+            }
+            if (matcher.start() >= line.length()) {
+                return false;
+            }
+            matcher.useTransparentBounds(true).useAnchoringBounds(false);
+            matcher.region(matcher.start() + 1, line.length());
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a region of the buffer, charged to the decode phase with -analyze.
+     */
+    private String decodeLine(ByteBuffer buffer, int start, int end) {
+        if (profile == null) {
+            return decode(buffer, start, end);
+        }
+        profile.enter(SearchProfile.Phase.DECODE);
+        try {
+            return decode(buffer, start, end);
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Decodes a region of the buffer as UTF-8, dropping a trailing carriage return.
+     *
+     * @param buffer The buffer to decode from.
+     * @param start  The start of the region.
+     * @param end    The end of the region.
+     * @return The decoded text.
+     */
+    static String decode(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int lineStart(ByteBuffer buffer, int from, int position) {
+        while (position > from && buffer.get(position - 1) != '\n') {
+            position--;
+        }
+        return position;
+    }
+
+    private static int lineEnd(ByteBuffer buffer, int position, int to) {
+        while (position < to && buffer.get(position) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    private static int countNewlines(ByteBuffer buffer, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte value) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ForkJoin task that searches a byte range of a file. A range larger than the split size is
+ * cut in two at a line boundary and both halves are forked, so that idle workers can steal the
+ * pending half of a large file while the owner keeps working on the other one. Small files
+ * never split and simply run as a single task.
+ * Line numbers are only known when a range starts at the beginning of the file, so files are
+ * not split when line numbers are shown. Nor are they with a limit, which has to see the matches
+ * of a file in order.
+ */
+public class RangeSearchTask extends RecursiveAction {
+    // Ranges larger than this are split in two (8 MB)
+    static long SPLIT_SIZE = 8L * 1024L * 1024L;
+
+    private final LiteralSearch search; // Byte level search shared by all tasks
+    private final Path path; // The path of the file, opened by the task covering the whole file
+    private final String file; // The file name to report in results
+    private final FileChannel channel; // The channel shared by all ranges of the file, null until opened
+    private final long start; // First byte of the range, at the start of a line
+    private final long end; // End of the range (exclusive), Long.MAX_VALUE for a whole file
+    private final boolean split; // Whether the range may be split
+    private final Result result; // Result container for search matches
+    private final boolean inverted; // Whether to report lines that do not match instead
+    private final SearchLimit limit; // Ends the file once it has given all it needs to, or null
+    private final Stats stats; // Statistics shared by all tasks of a search
+    private final Semaphore permits; // Given a permit back once the whole file is searched, null for a range
+
+    /**
+     * Counters shared by all tasks of a search, reported once the search is done.
+     */
+    static class Stats {
+        final LongAdder files = new LongAdder(); // Number of files searched
+        final LongAdder splits = new LongAdder(); // Number of times a range was split in two
+        final LongAdder ranges = new LongAdder(); // Number of ranges searched without splitting
+        final LongAccumulator maxQueued = new LongAccumulator(Math::max, 0); // Largest number of tasks seen waiting in the pool
+    }
+
+    /**
+     * Constructs a task that searches a whole file.
+     *
+     * @param search   The byte level search.
+     * @param path     The path of the file.
+     * @param file     The file name to report in results.
+     * @param split    Whether the file may be split into ranges.
+     * @param result   The container to add results to.
+     * @param inverted Whether to report lines that do not match instead.
+     * @param limit    The limit of the search, or null. A file with a limit must not be split.
+     * @param stats    The statistics of the search.
+     * @param permits  The permits of the files in flight, given one back once the file is searched.
+     */
+    RangeSearchTask(LiteralSearch search, Path path, String file, boolean split, Result result, boolean inverted, SearchLimit limit, Stats stats, Semaphore permits) {
+        this(search, path, file, null, 0, Long.MAX_VALUE, split, result, inverted, limit, stats, permits);
+    }
+
+    private RangeSearchTask(LiteralSearch search, Path path, String file, FileChannel channel, long start, long end, boolean split, Result result, boolean inverted, SearchLimit limit, Stats stats, Semaphore permits) {
+        this.search = search;
+        this.path = path;
+        this.file = file;
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.split = split;
+        this.result = result;
+        this.inverted = inverted;
+        this.limit = limit;
+        this.stats = stats;
+        this.permits = permits;
+    }
+
+    /**
+     * Opens the file for the task covering the whole file, and searches or splits the range.
+     * The channel is closed, and the permit of the file given back, only once every range of
+     * the file has been joined.
+     */
+    @Override
+    protected void compute() {
+        if (channel != null) {
+            searchOrSplit(channel, end);
+            return;
+        }
+        try {
+            if (limit != null && limit.decided()) {
+                return;
+            }
+            stats.files.increment();
+            try (FileChannel fileChannel = search.open(path)) {
+                searchOrSplit(fileChannel, fileChannel.size());
+            } catch (ClosedByInterruptException e) {
+                // The search was decided and its running tasks interrupted
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private void searchOrSplit(FileChannel fileChannel, long rangeEnd) {
+        try {
+            if (split && rangeEnd - start > SPLIT_SIZE) {
+                long middle = nextLineStart(fileChannel, start + (rangeEnd - start) / 2, rangeEnd);
+                if (middle < rangeEnd) {
+                    stats.splits.increment();
+                    RangeSearchTask left = new RangeSearchTask(search, path, file, fileChannel, start, middle, true, result, inverted, limit, stats, null);
+                    RangeSearchTask right = new RangeSearchTask(search, path, file, fileChannel, middle, rangeEnd, true, result, inverted, limit, stats, null);
+                    right.fork();
+                    stats.maxQueued.accumulate(ForkJoinTask.getQueuedTaskCount());
+                    left.compute();
+                    right.join();
+                    return;
+                }
+            }
+            stats.ranges.increment();
+            // With -c the range is counted on its own and handed over once it is done
+            MatchCounter counter = search.newCounter();
+            Result target = (counter != null) ? counter : result;
+            SearchLimit.LimitedResult limited = (limit != null) ? limit.limit(target) : null;
+            try {
+                // A file that was not split is read up to its actual end, like the other execute modes do
+                search.searchRange(fileChannel, start, (end == Long.MAX_VALUE) ? end : rangeEnd, 1, file, (limited != null) ? limited : target, inverted);
+            } catch (SearchLimit.FileDone e) {
+                // The file has given all it needs to
+            } finally {
+                if (counter != null) {
+                    result.addCounts(file, counter);
+                }
+                if (limited != null) {
+                    limit.fileDone(file, limited.matches, result);
+                }
+            }
+        } catch (ClosedByInterruptException e) {
+            // The search was decided and its running tasks interrupted
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after the given position.
+     *
+     * @param channel  The channel of the file.
+     * @param position The position to start looking from.
+     * @param limit    The end of the range to look in.
+     * @return The start of the next line, or the limit if no line starts before it.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        while (position < limit) {
+            buffer.clear();
+            if (channel.read(buffer, position) <= 0) {
+                break;
+            }
+            buffer.flip();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return Math.min(position + i + 1, limit);
+                }
+            }
+            position += buffer.limit();
+        }
+        return limit;
+    }
+}
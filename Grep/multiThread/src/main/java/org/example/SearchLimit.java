@@ -0,0 +1,179 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stops a search as soon as its answer is known, for -m, the file listings and -q. With -m a
+ * file is read only up to its Nth match, a file listing only needs the first match of every
+ * file, and -q only the first match of the whole search.
+ * <p>
+ * Every file adds its results through a LimitedResult, which ends the file by throwing FileDone
+ * out of the read loop once the file has given all it needs to. When the first match decides the
+ * whole search, the tasks still queued are cancelled and the readers that are still running stop
+ * at their next line or block.
+ */
+public class SearchLimit {
+    private final long maxCount; // Matches after which a file is done
+    private final boolean keepMatches; // Whether matches are passed on, not only checked for
+    private final boolean firstMatchDecides; // Whether the first match decides the whole search (-q)
+    private final boolean listWithMatches; // Whether files with a match are listed
+    private final boolean listWithoutMatch; // Whether files without a match are listed
+    private final List<Runnable> cancellers = new ArrayList<>(); // Run once the search is decided
+    private volatile boolean decided; // Whether the answer of the whole search is known
+
+    /**
+     * Thrown out of the read loop of a file once the file has given all it needs to. It carries
+     * no stack trace, so ending a file early costs no more than returning.
+     */
+    static class FileDone extends RuntimeException {
+        static final FileDone INSTANCE = new FileDone();
+
+        private FileDone() {
+            super(null, null, false, false);
+        }
+    }
+
+    private SearchLimit(MyRegexOptions options) {
+        boolean firstMatchOnly = options.quiet || options.filesWithMatches || options.filesWithoutMatch;
+        this.maxCount = firstMatchOnly ? 1 : options.maxCount;
+        this.keepMatches = !firstMatchOnly;
+        this.firstMatchDecides = options.quiet;
+        this.listWithMatches = options.filesWithMatches;
+        this.listWithoutMatch = options.filesWithoutMatch;
+    }
+
+    /**
+     * Creates the limit of a search.
+     *
+     * @param options Options for the search.
+     * @return The limit, or null if every file is read to the end.
+     */
+    static SearchLimit of(MyRegexOptions options) {
+        if (options.maxCount == Long.MAX_VALUE && !options.quiet && !options.filesWithMatches && !options.filesWithoutMatch) {
+            return null;
+        }
+        return new SearchLimit(options);
+    }
+
+    /**
+     * Wraps the result container of a file, so that the file ends once it has given all it needs to.
+     *
+     * @param target The container the matches of the file are added to.
+     * @return The container to search the file into.
+     */
+    LimitedResult limit(Result target) {
+        return new LimitedResult(target);
+    }
+
+    /**
+     * Returns whether the answer of the whole search is known, in which case nothing more has
+     * to be read.
+     */
+    boolean decided() {
+        return decided;
+    }
+
+    /**
+     * Registers an action that cancels the work of the search once it is decided, or runs it
+     * right away if it already is.
+     *
+     * @param cancel The action, such as shutting down a pool.
+     */
+    void onDecided(Runnable cancel) {
+        synchronized (this) {
+            if (!decided) {
+                cancellers.add(cancel);
+                return;
+            }
+        }
+        cancel.run();
+    }
+
+    /**
+     * Submits a task unless the search is already decided. Deciding the search runs the
+     * cancellers under the same lock, so no task is submitted to a pool that was shut down.
+     *
+     * @param submission The action that submits the task.
+     * @return Whether the task was submitted.
+     */
+    synchronized boolean submit(Runnable submission) {
+        if (decided) {
+            return false;
+        }
+        submission.run();
+        return true;
+    }
+
+    /**
+     * Adds a file that is done to the listing of the search, if it belongs there.
+     *
+     * @param file    The file.
+     * @param matches The matches the file gave, up to the limit.
+     * @param result  The result of the search.
+     */
+    void fileDone(String file, long matches, Result result) {
+        if ((listWithMatches && matches > 0) || (listWithoutMatch && matches == 0)) {
+            result.addFile(file);
+        }
+    }
+
+    private void decide() {
+        // Set before taking the lock, so readers stop while the pools are being shut down
+        decided = true;
+        synchronized (this) {
+            for (Runnable cancel : cancellers) {
+                cancel.run();
+            }
+            cancellers.clear();
+        }
+    }
+
+    /**
+     * A result container that counts the matches of one file on their way to the container of
+     * the file, and ends the file once it has given all it needs to. It is used by a single task,
+     * so the count needs no synchronization.
+     */
+    class LimitedResult extends Result {
+        private final Result target; // The container matches are passed on to
+        long matches; // Matches of the file so far
+
+        private LimitedResult(Result target) {
+            super(null, false);
+            this.target = target;
+        }
+
+        @Override
+        public void addResult(LineResult lineResult) {
+            if (keepMatches) {
+                target.addResult(lineResult);
+            }
+            counted();
+        }
+
+        @Override
+        public void addMatch(int pattern) {
+            if (keepMatches) {
+                target.addMatch(pattern);
+            }
+            counted();
+        }
+
+        @Override
+        public void addContext(LineResult lineResult) {
+            if (keepMatches) {
+                target.addContext(lineResult);
+            }
+        }
+
+        private void counted() {
+            if (++matches < maxCount) {
+                return;
+            }
+            if (firstMatchDecides) {
+                decide();
+            }
+            throw FileDone.INSTANCE;
+        }
+    }
+}
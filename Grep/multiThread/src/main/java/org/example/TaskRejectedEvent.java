@@ -0,0 +1,64 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A JDK Flight Recorder event for a file task the thread pool rejected, and what the rejection
+ * policy did about it. Its duration is the time the submitting thread spent in the policy,
+ * backoff included, which is time the directory walk was held up for.
+ * <p>
+ * The task is a future wrapping the file search, so the file it was for is not known here; the
+ * File Search event of the same thread that follows a "ran in caller" rejection names it.
+ */
+@Name("org.example.TaskRejected")
+@Label("Task Rejected")
+@Category({"Grep", "Thread Pool"})
+@Description("File task rejected by the thread pool, and how the rejection policy handled it")
+@StackTrace(false)
+class TaskRejectedEvent extends jdk.jfr.Event {
+    @Label("Policy")
+    String policy;
+
+    @Label("Outcome")
+    @Description("grown, requeued or ran in caller")
+    String outcome;
+
+    @Label("Retries")
+    int retries;
+
+    @Label("Pool Size")
+    int poolSize;
+
+    @Label("Maximum Pool Size")
+    int maximumPoolSize;
+
+    @Label("Queue Size")
+    int queueSize;
+
+    /**
+     * Ends the event and commits it if the recording wants it.
+     *
+     * @param policy   The rejection policy.
+     * @param outcome  What the policy did with the task.
+     * @param retries  The number of offers to the queue that failed.
+     * @param executor The pool that rejected the task.
+     */
+    void finish(String policy, String outcome, int retries, ThreadPoolExecutor executor) {
+        end();
+        if (shouldCommit()) {
+            this.policy = policy;
+            this.outcome = outcome;
+            this.retries = retries;
+            this.poolSize = executor.getPoolSize();
+            this.maximumPoolSize = executor.getMaximumPoolSize();
+            this.queueSize = executor.getQueue().size();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides during a directory walk which directories are descended into and which files are
+ * searched, so that whole subtrees are pruned before any of their files is opened.
+ * Filters are applied cheapest first: depth, globs and ignore rules need no I/O, the size comes
+ * with the walk attributes, and only files that pass all of them are sniffed for binary content.
+ * Instances are immutable and shared by the walker threads.
+ */
+public class WalkFilter {
+    static final int SNIFF_SIZE = 8 * 1024; // Bytes read from the start of a file to tell whether it is binary
+    static final String VCS_DIRECTORY = ".git"; // Directory that is always pruned when ignore files are honoured
+
+    private final List<PathMatcher> includes; // File name globs that files must match, if any are given
+    private final List<PathMatcher> excludes; // File and directory name globs that are skipped
+    private final int maxDepth; // Deepest level of files that are searched, the files of a root are at depth 1
+    private final long maxSize; // Largest file size in bytes that is searched
+    private final boolean useIgnoreFiles; // Whether .gitignore files are honoured
+    private final boolean skipBinary; // Whether files with NUL bytes in their first block are skipped
+
+    /**
+     * Creates the filter for the given search options.
+     *
+     * @param options Options for the search.
+     */
+    public WalkFilter(MyRegexOptions options) {
+        this.includes = globs(options.includeGlobs);
+        this.excludes = globs(options.excludeGlobs);
+        this.maxDepth = options.maxDepth;
+        this.maxSize = options.maxSize;
+        this.useIgnoreFiles = options.useIgnoreFiles;
+        this.skipBinary = options.skipBinary;
+    }
+
+    private static List<PathMatcher> globs(List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    /**
+     * Creates the ignore rules of a walk root.
+     *
+     * @param base The directory files are reported relative to.
+     * @param root The directory the walk starts at.
+     * @return The rules that apply inside the root, or null if ignore files are not honoured.
+     */
+    IgnoreRules rootRules(Path base, Path root) {
+        return useIgnoreFiles ? IgnoreRules.root(base, root) : null;
+    }
+
+    /**
+     * Decides whether to descend into a directory.
+     *
+     * @param dir   The directory.
+     * @param depth The depth of the directory, the root being at depth 0.
+     * @param rules The ignore rules of the parent directory, or null.
+     * @return true if the files of the directory may be searched.
+     */
+    boolean acceptDirectory(Path dir, int depth, IgnoreRules rules) {
+        if (depth >= maxDepth) {
+            return false;
+        }
+        Path name = dir.getFileName();
+        if (useIgnoreFiles && name.toString().equals(VCS_DIRECTORY)) {
+            return false;
+        }
+        if (matchesAny(excludes, name)) {
+            return false;
+        }
+        return rules == null || !rules.isIgnored(dir, true);
+    }
+
+    /**
+     * Decides whether to search a file.
+     *
+     * @param file  The file.
+     * @param attrs The attributes of the file, from the walk.
+     * @param rules The ignore rules of the directory of the file, or null.
+     * @return true if the file should be searched.
+     */
+    boolean acceptFile(Path file, BasicFileAttributes attrs, IgnoreRules rules) {
+        Path name = file.getFileName();
+        if (!includes.isEmpty() && !matchesAny(includes, name)) {
+            return false;
+        }
+        if (matchesAny(excludes, name)) {
+            return false;
+        }
+        if (rules != null && rules.isIgnored(file, false)) {
+            return false;
+        }
+        if (maxSize != Long.MAX_VALUE && size(file, attrs) > maxSize) {
+            return false;
+        }
+        return !skipBinary || !isBinary(file);
+    }
+
+    /**
+     * Returns the size of a file. The walk does not follow links, so the attributes of a link
+     * describe the link itself, and the size of its target has to be read.
+     *
+     * @param file  The file.
+     * @param attrs The attributes of the file, from the walk.
+     * @return The size of the file, or of the file a link points to, in bytes.
+     */
+    private static long size(Path file, BasicFileAttributes attrs) {
+        if (!attrs.isSymbolicLink()) {
+            return attrs.size();
+        }
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).size();
+        } catch (IOException e) {
+            return 0; // Let the search report the error
+        }
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path name) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a file looks binary, reading only its first block.
+     *
+     * @param file The file to check.
+     * @return true if the first block of the file contains a NUL byte.
+     */
+    static boolean isBinary(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SNIFF_SIZE);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) <= 0) {
+                    break;
+                }
+            }
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            return false; // Let the search report the error
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IgnoreRulesTest {
+
+    @TempDir
+    Path base;
+
+    private void ignoreFile(Path dir, String... lines) throws IOException {
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(IgnoreRules.IGNORE_FILE), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLastMatchingRuleDecidesAndNegationReincludes() throws IOException {
+        ignoreFile(base, "*.log", "!keep.log", "# *.txt", "", "temp*");
+        IgnoreRules rules = IgnoreRules.root(base, base);
+
+        assertTrue(rules.isIgnored(base.resolve("a.log"), false));
+        assertTrue(rules.isIgnored(base.resolve("sub/deep/b.log"), false));
+        assertFalse(rules.isIgnored(base.resolve("keep.log"), false));
+        // Comments and blank lines hold no rule
+        assertFalse(rules.isIgnored(base.resolve("a.txt"), false));
+        assertTrue(rules.isIgnored(base.resolve("temporary"), true));
+    }
+
+    @Test
+    public void testRulesWithASlashAreAnchoredToTheirDirectory() throws IOException {
+        ignoreFile(base, "/build", "docs/*.md", "out/");
+        IgnoreRules rules = IgnoreRules.root(base, base);
+
+        assertTrue(rules.isIgnored(base.resolve("build"), true));
+        assertFalse(rules.isIgnored(base.resolve("src/build"), true));
+        assertTrue(rules.isIgnored(base.resolve("docs/a.md"), false));
+        assertFalse(rules.isIgnored(base.resolve("docs/sub/a.md"), false));
+        assertFalse(rules.isIgnored(base.resolve("other/docs/a.md"), false));
+        // A trailing slash only matches directories
+        assertTrue(rules.isIgnored(base.resolve("src/out"), true));
+        assertFalse(rules.isIgnored(base.resolve("src/out"), false));
+    }
+
+    @Test
+    public void testDoubleStarCrossesDirectories() throws IOException {
+        ignoreFile(base, "**/gen/*.java", "logs/**", "a/**/z.txt");
+        IgnoreRules rules = IgnoreRules.root(base, base);
+
+        assertTrue(rules.isIgnored(base.resolve("gen/A.java"), false));
+        assertTrue(rules.isIgnored(base.resolve("x/y/gen/A.java"), false));
+        assertFalse(rules.isIgnored(base.resolve("x/gen/sub/A.java"), false));
+        assertTrue(rules.isIgnored(base.resolve("logs/2024/01/app.txt"), false));
+        assertTrue(rules.isIgnored(base.resolve("a/z.txt"), false));
+        assertTrue(rules.isIgnored(base.resolve("a/b/c/z.txt"), false));
+        assertFalse(rules.isIgnored(base.resolve("b/a/z.txt"), false));
+    }
+
+    @Test
+    public void testSetsHandleNegationClosingBracketsAndEscapes() throws IOException {
+        ignoreFile(base, "[abc].txt", "[!0-9].dat", "[]]x", "[!]]y", "[\\!]e", "[&^]w", "?.bin");
+        IgnoreRules rules = IgnoreRules.root(base, base);
+
+        assertTrue(rules.isIgnored(base.resolve("b.txt"), false));
+        assertFalse(rules.isIgnored(base.resolve("d.txt"), false));
+        assertTrue(rules.isIgnored(base.resolve("x.dat"), false));
+        assertFalse(rules.isIgnored(base.resolve("7.dat"), false));
+        assertTrue(rules.isIgnored(base.resolve("]x"), false));
+        assertTrue(rules.isIgnored(base.resolve("ay"), false));
+        assertFalse(rules.isIgnored(base.resolve("]y"), false));
+        assertTrue(rules.isIgnored(base.resolve("!e"), false));
+        assertTrue(rules.isIgnored(base.resolve("&w"), false));
+        assertTrue(rules.isIgnored(base.resolve("^w"), false));
+        assertFalse(rules.isIgnored(base.resolve("aw"), false));
+        assertTrue(rules.isIgnored(base.resolve("a.bin"), false));
+        assertFalse(rules.isIgnored(base.resolve("ab.bin"), false));
+    }
+
+    @Test
+    public void testInvalidRuleIsSkippedAndTheOthersStillApply() throws IOException {
+        // [z-a] runs backwards, which the regex engine refuses
+        ignoreFile(base, "*.log", "[z-a]", "!keep.log");
+        IgnoreRules rules = IgnoreRules.root(base, base);
+
+        assertTrue(rules.isIgnored(base.resolve("a.log"), false));
+        assertFalse(rules.isIgnored(base.resolve("keep.log"), false));
+        assertFalse(rules.isIgnored(base.resolve("m"), false));
+    }
+
+    @Test
+    public void testRulesOfSubdirectoriesComeAfterThoseOfTheirParents() throws IOException {
+        ignoreFile(base, "*.tmp", "/out");
+        ignoreFile(base.resolve("sub"), "!important.tmp", "/out");
+        IgnoreRules rules = IgnoreRules.root(base, base);
+        IgnoreRules subRules = rules.child(base.resolve("sub"));
+
+        assertTrue(subRules.isIgnored(base.resolve("sub/a.tmp"), false));
+        assertFalse(subRules.isIgnored(base.resolve("sub/important.tmp"), false));
+        assertTrue(rules.isIgnored(base.resolve("important.tmp"), false));
+        // Anchored rules are relative to the directory of their own ignore file
+        assertTrue(subRules.isIgnored(base.resolve("sub/out"), true));
+        assertFalse(subRules.isIgnored(base.resolve("sub/x/out"), true));
+    }
+
+    @Test
+    public void testChildWithoutIgnoreFileSharesTheRulesOfItsParent() throws IOException {
+        ignoreFile(base, "*.log");
+        Files.createDirectories(base.resolve("plain"));
+        IgnoreRules rules = IgnoreRules.root(base, base);
+
+        assertSame(rules, rules.child(base.resolve("plain")));
+    }
+
+    @Test
+    public void testRootInsideTheBaseInheritsTheIgnoreFilesInBetween() throws IOException {
+        ignoreFile(base, "secret/", "/top.txt");
+        ignoreFile(base.resolve("a"), "*.bak");
+        Files.createDirectories(base.resolve("a/b"));
+        IgnoreRules rules = IgnoreRules.root(base, base.resolve("a/b"));
+
+        assertTrue(rules.isIgnored(base.resolve("a/b/secret"), true));
+        assertTrue(rules.isIgnored(base.resolve("a/b/c.bak"), false));
+        assertFalse(rules.isIgnored(base.resolve("a/b/top.txt"), false));
+    }
+
+    @Test
+    public void testRootOutsideTheBaseOnlyHasItsOwnRules() throws IOException {
+        Path project = base.resolve("project");
+        Path elsewhere = base.resolve("elsewhere");
+        ignoreFile(project, "*.log");
+        ignoreFile(elsewhere, "*.bak");
+        IgnoreRules rules = IgnoreRules.root(project, elsewhere);
+
+        assertFalse(rules.isIgnored(elsewhere.resolve("a.log"), false));
+        assertTrue(rules.isIgnored(elsewhere.resolve("a.bak"), false));
+    }
+}
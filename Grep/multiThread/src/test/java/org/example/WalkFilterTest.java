@@ -0,0 +1,141 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WalkFilterTest {
+
+    @TempDir
+    Path base;
+
+    private static WalkFilter filter(String... options) {
+        return new WalkFilter(new MyRegexOptions(new ArrayList<>(Arrays.asList(options))));
+    }
+
+    private Path file(String name, String content) throws IOException {
+        Path file = base.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // The walk does not follow links, so it sees the attributes of a link itself
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    @Test
+    public void testMaxDepthLimitsTheDirectoriesDescendedInto() {
+        WalkFilter filter = filter("-maxdepth", "2");
+
+        assertTrue(filter.acceptDirectory(base.resolve("a"), 1, null));
+        assertFalse(filter.acceptDirectory(base.resolve("a/b"), 2, null));
+        assertTrue(filter().acceptDirectory(base.resolve("a/b/c/d"), 40, null));
+    }
+
+    @Test
+    public void testVcsAndExcludedAndIgnoredDirectoriesArePruned() throws IOException {
+        file(IgnoreRules.IGNORE_FILE, "build/\n");
+        WalkFilter filter = filter("-exclude", "node_*");
+        IgnoreRules rules = filter.rootRules(base, base);
+
+        assertFalse(filter.acceptDirectory(base.resolve(".git"), 1, rules));
+        assertFalse(filter.acceptDirectory(base.resolve("node_modules"), 1, rules));
+        assertFalse(filter.acceptDirectory(base.resolve("build"), 1, rules));
+        assertTrue(filter.acceptDirectory(base.resolve("src"), 1, rules));
+        // Without ignore files nothing is pruned for them
+        WalkFilter noIgnore = filter("-no-ignore");
+        assertTrue(noIgnore.acceptDirectory(base.resolve(".git"), 1, noIgnore.rootRules(base, base)));
+    }
+
+    @Test
+    public void testIncludeExcludeAndIgnoreRulesSelectFiles() throws IOException {
+        file(IgnoreRules.IGNORE_FILE, "*.gen.java\n");
+        Path main = file("Main.java", "class Main {}\n");
+        Path generated = file("Parser.gen.java", "class Parser {}\n");
+        Path test = file("MainTest.java", "class MainTest {}\n");
+        Path notes = file("notes.txt", "notes\n");
+        WalkFilter filter = filter("-include", "*.java", "-exclude", "*Test.java");
+        IgnoreRules rules = filter.rootRules(base, base);
+
+        assertTrue(filter.acceptFile(main, attrs(main), rules));
+        assertFalse(filter.acceptFile(generated, attrs(generated), rules));
+        assertFalse(filter.acceptFile(test, attrs(test), rules));
+        assertFalse(filter.acceptFile(notes, attrs(notes), rules));
+    }
+
+    @Test
+    public void testMaxSizeSkipsLargerFiles() throws IOException {
+        Path small = file("small.txt", "x".repeat(1024));
+        Path large = file("large.txt", "x".repeat(1025));
+        WalkFilter filter = filter("-maxsize", "1K");
+
+        assertTrue(filter.acceptFile(small, attrs(small), null));
+        assertFalse(filter.acceptFile(large, attrs(large), null));
+    }
+
+    @Test
+    public void testMaxSizeOfASymlinkIsTheSizeOfItsTarget() throws IOException {
+        Path large = file("large.log", "x".repeat(64 * 1024));
+        Path small = file("small.log", "x");
+        Path largeLink = Files.createSymbolicLink(base.resolve("large-link.log"), large);
+        Path smallLink = Files.createSymbolicLink(base.resolve("small-link.log"), small);
+        WalkFilter filter = filter("-maxsize", "1K");
+
+        assertFalse(filter.acceptFile(largeLink, attrs(largeLink), null));
+        assertTrue(filter.acceptFile(smallLink, attrs(smallLink), null));
+    }
+
+    @Test
+    public void testBinaryFilesAreSkippedUnlessAsked() throws IOException {
+        Path binary = file("image.png", "PNG\0\0data");
+        Path text = file("text.txt", "plain text\n");
+        // A NUL past the sniffed block is not seen
+        Path late = file("late.txt", "x".repeat(WalkFilter.SNIFF_SIZE) + "\0");
+
+        assertFalse(filter().acceptFile(binary, attrs(binary), null));
+        assertTrue(filter().acceptFile(text, attrs(text), null));
+        assertTrue(filter().acceptFile(late, attrs(late), null));
+        assertTrue(filter("-a").acceptFile(binary, attrs(binary), null));
+    }
+
+    @Test
+    public void testWalkEndsWhenAnIgnoreFileHasAnInvalidRule() throws IOException {
+        file(IgnoreRules.IGNORE_FILE, "[z-a]\n*.log\n");
+        file("sub/" + IgnoreRules.IGNORE_FILE, "[]]\n[z-a]\n");
+        file("a.txt", "a\n");
+        file("b.log", "b\n");
+        file("sub/c.txt", "c\n");
+        file("sub/]", "d\n");
+        DirectoryWalker walker = new DirectoryWalker(base, filter(), null);
+
+        List<String> found = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            walker.start(List.of(base));
+            List<String> files = new ArrayList<>();
+            String file;
+            while ((file = walker.take()) != null) {
+                files.add(file);
+            }
+            return files;
+        });
+
+        assertEquals(new TreeSet<>(List.of(IgnoreRules.IGNORE_FILE, "a.txt", "sub/" + IgnoreRules.IGNORE_FILE, "sub/c.txt")), new TreeSet<>(found));
+    }
+}
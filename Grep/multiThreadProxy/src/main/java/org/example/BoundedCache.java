@@ -0,0 +1,321 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * An in-memory cache bounded by the total weight of its values, with W-TinyLFU eviction.
+ * <p>
+ * New entries go into a small LRU window that takes 1% of the budget. When the window
+ * overflows, its least recently used entry becomes a candidate for the main LRU area, and is
+ * only admitted if it was used more often than the entry it would evict there. Frequencies are
+ * kept by a count-min sketch that also remembers keys which are no longer cached, and whose
+ * counters are halved from time to time so old popularity fades. A scan of entries that are
+ * each used once therefore churns through the window without flushing the main area.
+ * <p>
+ * Entries also expire after they have not been used for a while. A timer wheel holds every
+ * entry in the bucket of its deadline, and a background sweeper expires the entries of a
+ * bucket once its time has passed, so expiry costs nothing on the lookup path.
+ * <p>
+ * All operations are synchronized on the cache.
+ *
+ * @param <K> The type of keys.
+ * @param <V> The type of values.
+ */
+public class BoundedCache<K, V> {
+    // Share of the budget taken by the admission window
+    static double WINDOW_SHARE = 0.01;
+    // Number of buckets of the timer wheel
+    static int WHEEL_SIZE = 64;
+
+    private final long maxWeight; // Budget for the total weight of all values
+    private final long windowMaxWeight; // Budget of the admission window
+    private final long idleNanos; // Time after which an unused entry expires
+    private final long tickNanos; // Time covered by one bucket of the timer wheel
+    private final ToLongFunction<V> weigher; // Estimates the weight of a value
+    private final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>(16, 0.75f, true); // Admission window, least recently used first
+    private final LinkedHashMap<K, Node<K, V>> main = new LinkedHashMap<>(16, 0.75f, true); // Main area, least recently used first
+    private final FrequencySketch sketch = new FrequencySketch(); // How often keys were used recently
+    private final List<LinkedHashSet<Node<K, V>>> wheel = new ArrayList<>(); // Entries by the bucket of their deadline
+    private final ScheduledExecutorService sweeper; // Expires entries in the background
+    private long windowWeight; // Total weight of the window
+    private long mainWeight; // Total weight of the main area
+    private long sweptTick; // Last tick the sweeper has processed
+
+    // Counters, readable without the lock
+    private final LongAdder hits = new LongAdder(); // Lookups that found a live entry
+    private final LongAdder misses = new LongAdder(); // Lookups that found nothing
+    private final LongAdder evictions = new LongAdder(); // Entries evicted or refused to stay within the budget
+    private final LongAdder expirations = new LongAdder(); // Entries expired by the sweeper
+
+    /**
+     * A cached entry.
+     */
+    private static class Node<K, V> {
+        final K key; // The key
+        final V value; // The value
+        final long weight; // The weight of the value
+        long deadline; // Time the entry expires at, in nanoseconds
+        int bucket = -1; // Bucket of the timer wheel holding the entry
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Constructs a cache and starts its sweeper.
+     *
+     * @param maxWeight The budget for the total weight of all values.
+     * @param idleTime  The time after which an entry that was not used expires.
+     * @param unit      The unit of the idle time.
+     * @param weigher   Estimates the weight of a value.
+     */
+    public BoundedCache(long maxWeight, long idleTime, TimeUnit unit, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.windowMaxWeight = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.idleNanos = unit.toNanos(idleTime);
+        this.tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), idleNanos / (WHEEL_SIZE / 2));
+        this.weigher = weigher;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new LinkedHashSet<>());
+        }
+        this.sweptTick = System.nanoTime() / tickNanos;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(this::sweep, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Looks up a value and records the use of its key.
+     *
+     * @param key The key.
+     * @return The value, or null if it is not cached.
+     */
+    public synchronized V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = window.get(key);
+        if (node == null) {
+            node = main.get(key);
+        }
+        long now = System.nanoTime();
+        if (node == null || node.deadline - now <= 0) {
+            if (node != null) {
+                remove(key); // Expired but not swept yet
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        schedule(node, now);
+        return node.value;
+    }
+
+    /**
+     * Adds a value to the window, evicting entries as needed to stay within the budget.
+     * A value heavier than the whole budget is not cached.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public synchronized void put(K key, V value) {
+        remove(key);
+        sketch.increment(key);
+        long weight = weigher.applyAsLong(value);
+        if (weight > maxWeight) {
+            evictions.increment();
+            return;
+        }
+        Node<K, V> node = new Node<>(key, value, weight);
+        window.put(key, node);
+        windowWeight += weight;
+        schedule(node, System.nanoTime());
+        evict();
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key The key.
+     */
+    public synchronized void remove(K key) {
+        Node<K, V> node = window.remove(key);
+        if (node != null) {
+            windowWeight -= node.weight;
+        } else {
+            node = main.remove(key);
+            if (node == null) {
+                return;
+            }
+            mainWeight -= node.weight;
+        }
+        wheel.get(node.bucket).remove(node);
+    }
+
+    /**
+     * Moves entries out of the window while it is over its budget. Each one is admitted into the
+     * main area only while it is used more often than the least recently used entry there.
+     */
+    private void evict() {
+        while (windowWeight > windowMaxWeight) {
+            Node<K, V> candidate = window.values().iterator().next();
+            window.remove(candidate.key);
+            windowWeight -= candidate.weight;
+            main.put(candidate.key, candidate);
+            mainWeight += candidate.weight;
+            Iterator<Node<K, V>> victims = main.values().iterator();
+            while (mainWeight > maxWeight - windowMaxWeight) {
+                Node<K, V> victim = victims.next();
+                if (victim == candidate || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    victim = candidate;
+                }
+                main.remove(victim.key);
+                mainWeight -= victim.weight;
+                wheel.get(victim.bucket).remove(victim);
+                evictions.increment();
+                if (victim == candidate) {
+                    break;
+                }
+                victims = main.values().iterator();
+            }
+        }
+    }
+
+    /**
+     * Sets the deadline of an entry and moves it to the bucket of the wheel that holds it.
+     */
+    private void schedule(Node<K, V> node, long now) {
+        if (node.bucket >= 0) {
+            wheel.get(node.bucket).remove(node);
+        }
+        node.deadline = now + idleNanos;
+        node.bucket = (int) Math.floorMod(node.deadline / tickNanos, (long) WHEEL_SIZE);
+        wheel.get(node.bucket).add(node);
+    }
+
+    /**
+     * Expires the entries of every bucket whose time has fully passed since the last sweep.
+     * A bucket also holds entries that are due a whole turn of the wheel later, and these are kept.
+     */
+    private synchronized void sweep() {
+        long now = System.nanoTime();
+        long tick = now / tickNanos - 1; // The last tick that is over
+        for (long t = Math.max(sweptTick + 1, tick - WHEEL_SIZE + 1); t <= tick; t++) {
+            Iterator<Node<K, V>> nodes = wheel.get((int) Math.floorMod(t, (long) WHEEL_SIZE)).iterator();
+            while (nodes.hasNext()) {
+                Node<K, V> node = nodes.next();
+                if (node.deadline - now <= 0) {
+                    nodes.remove();
+                    node.bucket = -1;
+                    Map<K, Node<K, V>> area = window.containsKey(node.key) ? window : main;
+                    area.remove(node.key);
+                    if (area == window) {
+                        windowWeight -= node.weight;
+                    } else {
+                        mainWeight -= node.weight;
+                    }
+                    expirations.increment();
+                }
+            }
+        }
+        sweptTick = tick;
+    }
+
+    /**
+     * Stops the sweeper. The cache keeps working but entries only expire when looked up.
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long expirationCount() {
+        return expirations.sum();
+    }
+
+    public synchronized long weight() {
+        return windowWeight + mainWeight;
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    /**
+     * A count-min sketch of how often keys were used, with four rows of saturating counters.
+     * Once as many uses have been recorded as there are counters in a row, all counters are
+     * halved, so the sketch follows the recent popularity of keys.
+     */
+    private static class FrequencySketch {
+        static final int WIDTH = 1 << 14; // Counters per row
+        static final int DEPTH = 4; // Number of rows
+        static final int MAX_COUNT = 15; // Counters saturate at this value
+        private final byte[][] counters = new byte[DEPTH][WIDTH]; // Counters of every row
+        private int additions; // Uses recorded since the last halving
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            for (int row = 0; row < DEPTH; row++) {
+                int index = indexOf(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                }
+            }
+            if (++additions >= WIDTH) {
+                for (byte[] rowCounters : counters) {
+                    for (int i = 0; i < WIDTH; i++) {
+                        rowCounters[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private static int indexOf(int hash, int row) {
+            int h = (hash + row) * 0x9E3779B9 + row * 0x7F4A7C15;
+            return (h ^ (h >>> 16)) & (WIDTH - 1);
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
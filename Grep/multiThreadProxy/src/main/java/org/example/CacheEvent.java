@@ -0,0 +1,66 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A JDK Flight Recorder event for one operation of the cache manager on the results of a file:
+ * a lookup, a load of an entry from the cache store on disk, which happens within a lookup
+ * that missed in memory, or a save. Its duration shows how much of a file task the cache took,
+ * including waiting for the lock of the in-memory cache.
+ */
+@Name("org.example.Cache")
+@Label("Cache Operation")
+@Category({"Grep", "Cache"})
+@Description("Lookup, load or save of the cached results of a file")
+@StackTrace(false)
+class CacheEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("lookup, load or save")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Outcome")
+    @Description("hit, miss or stale for a lookup, found or missing for a load, saved or too recent for a save")
+    String outcome;
+
+    @Label("Bytes")
+    @Description("Size of the file")
+    @DataAmount
+    long bytes;
+
+    @Label("Matches")
+    @Description("Number of cached matches")
+    long matches;
+
+    CacheEvent(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Ends the event and commits it if the recording wants it.
+     *
+     * @param file    The file the results are for.
+     * @param attrs   The attributes of the file.
+     * @param outcome How the operation went.
+     * @param matches The number of matches of the file, or 0 if there are none.
+     */
+    void finish(String file, BasicFileAttributes attrs, String outcome, long matches) {
+        end();
+        if (shouldCommit()) {
+            this.file = file;
+            this.outcome = outcome;
+            this.bytes = attrs.size();
+            this.matches = matches;
+            commit();
+        }
+    }
+}
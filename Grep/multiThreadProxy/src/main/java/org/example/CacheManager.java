@@ -1,39 +1,112 @@
 package org.example;
 
 import java.io.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The CacheManager class manages a cache of results with expiration capability.
+ * The CacheManager class manages a cache of per-file results. Every entry holds the results of
+ * one query on one file together with the fingerprint of the file when it was searched: its
+ * size, modification time and file key (the inode on Unix). An entry is only used while the
+ * fingerprint still matches, so entries never expire on a timer and an edit to one file only
+ * invalidates the results of that file. Entries are kept in a CacheStore, which writes them
+ * in the background and reads them from disk only when they are looked up. Entries that were
+ * used recently are also kept in memory by a BoundedCache, within a budget that weighs every
+ * entry by the estimated heap footprint of its results.
  */
 public class CacheManager implements Serializable {
     static String ANSI_GREEN = "\u001B[32m";
     static String ANSI_YELLOW = "\u001B[33m";
     static String ANSI_RESET = "\u001B[0m";
     static final String ANSI_RED = "\u001B[31m";
-    private static final long CACHE_EXPIRATION_TIME_MS = 60000; // 1 minute expiration time
-    private final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>(); // Cache storage
-    private final String cacheFilePath = "/Users/vrajk/Desktop/cache.dat"; // File path to store cache data
+    // Files modified less than this long before they are searched are not cached, since a
+    // second edit within the timestamp granularity of the file system would go unnoticed
+    static long RACY_WINDOW_MS = 2000;
+    // Directory of the cache store, shared by all grep processes of the user
+    static String CACHE_DIRECTORY = System.getProperty("grep.cache.dir", Paths.get(System.getProperty("user.home"), ".grep-cache").toString());
+    // Heap budget of the entries kept in memory, in bytes (256 MB)
+    static long MEMORY_BUDGET = Long.getLong("grep.cache.memory", 256L * 1024L * 1024L);
+    // Entries kept in memory expire after they have not been used for this long
+    static long IDLE_MINUTES = Long.getLong("grep.cache.idle.minutes", 10);
+    private final CacheStore store; // Cache storage, or null if it could not be opened
+    private final BoundedCache<String, CacheEntry> memory; // Entries used recently, already deserialised
 
     /**
-     * Retrieves the cache instance.
-     *
-     * @return The ConcurrentHashMap representing the cache.
-     */
-    public ConcurrentHashMap<String, CacheEntry> getCache() {
-        return cache;
-    }
-
-    /**
-     * Represents an entry in the cache containing the result and timestamp.
+     * Represents an entry in the cache containing the results of a file and its fingerprint.
+     * A -c search caches the match count of each pattern instead of the results.
      */
     static class CacheEntry implements Serializable {
-        final Result result; // Cached result
-        final long timestamp; // Timestamp of cache entry creation
+        // Kept from before the counts were added, so that entries already on disk still load
+        private static final long serialVersionUID = 542155688469064056L;
+        final long size; // Size of the file when it was searched
+        final long lastModified; // Modification time of the file when it was searched, in milliseconds
+        final String fileKey; // File key of the file when it was searched, or null if the file system has none
+        final List<LineResult> lineResults; // Cached results of the file, or null if only counts were cached
+        final long[] patternCounts; // Cached match count of each pattern with -c, or null
+
+        CacheEntry(BasicFileAttributes attrs, List<LineResult> lineResults, long[] patternCounts) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.fileKey = (attrs.fileKey() != null) ? attrs.fileKey().toString() : null;
+            this.lineResults = lineResults;
+            this.patternCounts = patternCounts;
+        }
 
-        CacheEntry(Result result, long timestamp) {
-            this.result = result;
-            this.timestamp = timestamp;
+        /**
+         * Returns the number of matches the entry holds.
+         *
+         * @return The number of cached results, or the sum of the cached counts.
+         */
+        long matches() {
+            if (lineResults != null) {
+                return lineResults.size();
+            }
+            long matches = 0;
+            for (long patternCount : patternCounts) {
+                matches += patternCount;
+            }
+            return matches;
+        }
+
+        /**
+         * Estimates the heap footprint of the entry, assuming compressed references and
+         * strings of one byte characters. Strings shared by several results are counted once
+         * for every result, so the estimate errs on the high side.
+         *
+         * @return The estimated size of the entry in bytes.
+         */
+        long estimateWeight() {
+            if (lineResults == null) {
+                return 64 + 16 + 8L * patternCounts.length; // The entry and its array of counts
+            }
+            long weight = 64 + 4L * lineResults.size(); // The entry, its list and the list's references
+            for (LineResult lineResult : lineResults) {
+                weight += 32; // Header and fields of the line result
+                if (lineResult.lineNumber != null) {
+                    weight += 16;
+                }
+                weight += stringWeight(lineResult.line) + stringWeight(lineResult.file) + stringWeight(lineResult.pattern);
+            }
+            return weight;
+        }
+
+        private static long stringWeight(String string) {
+            return (string != null) ? 40 + string.length() : 0; // String, its array header and its bytes
+        }
+
+        /**
+         * Checks whether the file is still the one that was searched.
+         *
+         * @param attrs The current attributes of the file.
+         * @return true if the size, modification time and file key are unchanged.
+         */
+        boolean matches(BasicFileAttributes attrs) {
+            String currentKey = (attrs.fileKey() != null) ? attrs.fileKey().toString() : null;
+            return size == attrs.size()
+                    && lastModified == attrs.lastModifiedTime().toMillis()
+                    && (fileKey == null ? currentKey == null : fileKey.equals(currentKey));
         }
     }
 
@@ -41,7 +114,14 @@ public class CacheManager implements Serializable {
     private static final CacheManager instance = new CacheManager();
 
     private CacheManager() {
-        loadCacheFromFile(); // Load cache from file on startup
+        CacheStore opened = null;
+        try {
+            opened = new CacheStore(Paths.get(CACHE_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println(ANSI_RED + "[ERROR] opening cache in " + CACHE_DIRECTORY + " : " + e + ", searching without cache" + ANSI_RESET);
+        }
+        this.store = opened;
+        this.memory = new BoundedCache<>(MEMORY_BUDGET, IDLE_MINUTES, TimeUnit.MINUTES, CacheEntry::estimateWeight);
     }
 
     /**
@@ -54,59 +134,147 @@ public class CacheManager implements Serializable {
     }
 
     /**
-     * Adds a result to the cache with the specified key.
+     * Adds the results of a file to the cache.
      *
-     * @param key    The key for caching the result.
-     * @param result The Result object to cache.
+     * @param queryKey    The key of the query the file was searched for.
+     * @param file        The file that was searched.
+     * @param attrs       The attributes of the file, read before it was searched.
+     * @param lineResults The results of the file.
      */
-    public void addResultToCache(String key, Result result) {
-        CacheEntry newEntry = new CacheEntry(result, System.currentTimeMillis());
-        cache.put(key, newEntry);
-        saveCacheToFile(); // Save cache to file after adding entry
+    public void addFileResults(String queryKey, String file, BasicFileAttributes attrs, List<LineResult> lineResults) {
+        put(queryKey, file, attrs, lineResults, null);
     }
 
     /**
-     * Retrieves a result from the cache based on the key.
+     * Adds the match counts of a file to the cache, for a -c search.
      *
-     * @param key The key to look up in the cache.
-     * @return The Result object if found and not expired, or null if not found or expired.
+     * @param queryKey      The key of the query the file was searched for.
+     * @param file          The file that was searched.
+     * @param attrs         The attributes of the file, read before it was searched.
+     * @param patternCounts The match count of each pattern in the file.
      */
-    public Result getResultFromCache(String key) {
-        CacheEntry entry = cache.get(key);
-        if (entry != null && (System.currentTimeMillis() - entry.timestamp < CACHE_EXPIRATION_TIME_MS)) {
-            System.out.println(ANSI_GREEN+"Cache hit for key: " + key+ANSI_RESET);
-            return entry.result;
-        } else if (entry != null) {
-            cache.remove(key);
-            System.out.println(ANSI_GREEN+"Cache entry expired and removed for key: " + key+ANSI_RESET);
-            saveCacheToFile();
+    public void addFileCounts(String queryKey, String file, BasicFileAttributes attrs, long[] patternCounts) {
+        put(queryKey, file, attrs, null, patternCounts);
+    }
+
+    private void put(String queryKey, String file, BasicFileAttributes attrs, List<LineResult> lineResults, long[] patternCounts) {
+        CacheEvent event = FlightEvents.cache("save");
+        if (System.currentTimeMillis() - attrs.lastModifiedTime().toMillis() < RACY_WINDOW_MS) {
+            finish(event, file, attrs, "too recent", 0);
+            return;
         }
-        return null; // Cache miss
+        String key = entryKey(queryKey, file);
+        CacheEntry entry = new CacheEntry(attrs, lineResults, patternCounts);
+        memory.put(key, entry);
+        if (store != null) {
+            store.put(key, entry);
+        }
+        finish(event, file, attrs, "saved", entry.matches());
     }
 
     /**
-     * Saves the cache to a file.
+     * Retrieves the cached results of a file, if the file has not changed since they were cached.
+     *
+     * @param queryKey The key of the query.
+     * @param file     The file to look up.
+     * @param attrs    The current attributes of the file.
+     * @return The cached results, or null if there are none or the file has changed.
      */
-    void saveCacheToFile() {
-        try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(cacheFilePath))) {
-            outputStream.writeObject(cache);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public List<LineResult> getFileResults(String queryKey, String file, BasicFileAttributes attrs) {
+        CacheEntry entry = lookup(queryKey, file, attrs);
+        return (entry != null) ? entry.lineResults : null;
     }
 
     /**
-     * Loads the cache from a file.
+     * Retrieves the cached match counts of a file for a -c search, if the file has not changed
+     * since they were cached.
+     *
+     * @param queryKey The key of the query.
+     * @param file     The file to look up.
+     * @param attrs    The current attributes of the file.
+     * @return The cached match count of each pattern, or null if there are none or the file has changed.
      */
-    private void loadCacheFromFile() {
-        try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(cacheFilePath))) {
-            Object obj = inputStream.readObject();
-            if (obj instanceof ConcurrentHashMap) {
-                cache.putAll((ConcurrentHashMap<String, CacheEntry>) obj);
+    public long[] getFileCounts(String queryKey, String file, BasicFileAttributes attrs) {
+        CacheEntry entry = lookup(queryKey, file, attrs);
+        return (entry != null) ? entry.patternCounts : null;
+    }
+
+    private CacheEntry lookup(String queryKey, String file, BasicFileAttributes attrs) {
+        CacheEvent event = FlightEvents.cache("lookup");
+        String key = entryKey(queryKey, file);
+        CacheEntry entry = memory.get(key);
+        if (entry == null && store != null) {
+            entry = load(key, file, attrs);
+        }
+        if (entry == null) {
+            finish(event, file, attrs, "miss", 0);
+            return null; // Cache miss
+        }
+        if (!entry.matches(attrs)) {
+            memory.remove(key);
+            if (store != null) {
+                store.remove(key);
             }
-            System.out.println(cache.size());
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            finish(event, file, attrs, "stale", entry.matches());
+            return null;
+        }
+        finish(event, file, attrs, "hit", entry.matches());
+        return entry;
+    }
+
+    /**
+     * Loads an entry from the cache store into memory.
+     *
+     * @param key   The key of the entry.
+     * @param file  The file the entry is for.
+     * @param attrs The current attributes of the file.
+     * @return The entry, or null if the store has none.
+     */
+    private CacheEntry load(String key, String file, BasicFileAttributes attrs) {
+        CacheEvent event = FlightEvents.cache("load");
+        Object stored = store.get(key);
+        if (!(stored instanceof CacheEntry)) {
+            finish(event, file, attrs, "missing", 0);
+            return null;
+        }
+        CacheEntry entry = (CacheEntry) stored;
+        memory.put(key, entry);
+        finish(event, file, attrs, "found", entry.matches());
+        return entry;
+    }
+
+    /**
+     * Ends a cache event, if one was begun.
+     */
+    private static void finish(CacheEvent event, String file, BasicFileAttributes attrs, String outcome, long matches) {
+        if (event != null) {
+            event.finish(file, attrs, outcome, matches);
         }
     }
+
+    private static String entryKey(String queryKey, String file) {
+        return queryKey + "|" + file;
+    }
+
+    /**
+     * Waits for the cache store to write every change made so far, and lets it compact.
+     * Called once a search is done.
+     *
+     * @throws InterruptedException If interrupted while waiting for the store.
+     */
+    void checkpoint() throws InterruptedException {
+        if (store != null) {
+            store.checkpoint();
+        }
+    }
+
+    /**
+     * Prints the counters of the entries kept in memory, to size the memory budget.
+     */
+    void printStats() {
+        System.out.println(ANSI_YELLOW + "Memory cache: " + memory.size() + " entries, "
+                + memory.weight() / 1024 + "KB of " + MEMORY_BUDGET / 1024 + "KB"
+                + ", hits " + memory.hitCount() + ", misses " + memory.missCount()
+                + ", evictions " + memory.evictionCount() + ", expirations " + memory.expirationCount() + ANSI_RESET);
+    }
 }
@@ -0,0 +1,525 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent key value store made of append-only segment files in a directory.
+ * <p>
+ * Every put or remove appends a record to the newest segment, so nothing already written is ever
+ * rewritten. Records are appended by a background writer thread, so callers never wait for
+ * serialisation or disk I/O. When the store is opened, the segments are memory mapped and only
+ * the record headers and keys are read to build the index; values stay on disk until they are
+ * looked up, and values written by this process are dropped from memory once their records are
+ * written. Once superseded records make up more than half of the store, or the store outgrows
+ * its disk budget, a checkpoint compacts the live records into a new segment and deletes the old
+ * ones, dropping the records written longest ago if needed to fit the budget.
+ * <p>
+ * Several processes may share one store directory. Appends and compaction hold an exclusive
+ * FileChannel lock on the lock file of the directory, and opening holds a shared one, so no
+ * process ever sees a record half written. A process sees the records that existed when it
+ * opened the store plus its own; when two processes write the same key the later record wins.
+ * A process killed in the middle of an append leaves a torn record at the end of the segment;
+ * the next append cuts the segment back to its last valid record before writing.
+ * <p>
+ * Record layout: key length (int), value length (int, -1 for a removal), CRC32 of key and value
+ * (int), then the UTF-8 key and the serialised value.
+ */
+public class CacheStore {
+    // A new segment is started once the newest one is larger than this (64 MB)
+    static long SEGMENT_SIZE = 64L * 1024L * 1024L;
+    // Compaction only runs once this many bytes are taken by superseded records (1 MB)
+    static long COMPACTION_MIN_GARBAGE = 1024L * 1024L;
+    // Compaction drops the oldest live records once they take more than this (1 GB)
+    static long DISK_BUDGET = Long.getLong("grep.cache.disk", 1024L * 1024L * 1024L);
+
+    private static final int HEADER_SIZE = 12; // Key length, value length and checksum
+    private static final String SEGMENT_PREFIX = "segment-"; // File names of segments, followed by their number
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Object REMOVED = new Object(); // Marks a key removed by this process
+    private static final Object COMPACT = new Object(); // Asks the writer to compact if needed
+
+    private final Path dir; // Directory holding the segments
+    private final FileChannel lockChannel; // Channel of the lock file, locked around appends and compaction
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>(); // Where the latest record of every key is
+    private final ConcurrentHashMap<String, Object> recent = new ConcurrentHashMap<>(); // Values put or removed by this process and not yet written
+    private final Set<String> queued = ConcurrentHashMap.newKeySet(); // Keys waiting for the writer
+    private final BlockingQueue<Object> writes = new LinkedBlockingQueue<>(); // Keys to append, and latches of callers waiting for them
+    private final Thread writer; // Background thread appending records
+    private volatile long totalBytes; // Bytes of all records in the store
+    private volatile long garbageBytes; // Bytes of records that were superseded or removed
+    private Path tailSegment; // Segment the writer last appended to, or null
+    private long tailEnd; // End of the records of that segment known to be valid
+
+    /**
+     * Where the value of a key is stored in a mapped segment.
+     */
+    private static class Location {
+        final MappedByteBuffer segment; // The mapped segment
+        final int offset; // Offset of the record in the segment
+        final int keyLength; // Length of the key in bytes
+        final int valueLength; // Length of the value in bytes
+
+        Location(MappedByteBuffer segment, int offset, int keyLength, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        int recordSize() {
+            return HEADER_SIZE + keyLength + valueLength;
+        }
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if needed, and starts its writer thread.
+     *
+     * @param dir The directory holding the segments.
+     * @throws IOException If the directory cannot be created or read.
+     */
+    public CacheStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (FileLock lock = lockChannel.lock(0, Long.MAX_VALUE, true)) {
+            for (Path segment : segments().values()) {
+                scanSegment(segment);
+            }
+        }
+        this.writer = new Thread(this::writeLoop, "cache-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Looks up the value of a key, reading it from its segment if it was not written by this process.
+     *
+     * @param key The key.
+     * @return The value, or null if there is none or it cannot be read.
+     */
+    public Object get(String key) {
+        Object value = recent.get(key);
+        if (value != null) {
+            return (value == REMOVED) ? null : value;
+        }
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        byte[] record = new byte[location.recordSize() - HEADER_SIZE];
+        location.segment.get(location.offset + HEADER_SIZE, record);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != location.segment.getInt(location.offset + 8)) {
+            System.out.println("[ERROR] corrupt cache record for key: " + key);
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record, location.keyLength, location.valueLength))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Sets the value of a key. The record is appended in the background.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void put(String key, Serializable value) {
+        recent.put(key, value);
+        enqueue(key);
+    }
+
+    /**
+     * Removes a key. The removal record is appended in the background.
+     *
+     * @param key The key.
+     */
+    public void remove(String key) {
+        recent.put(key, REMOVED);
+        enqueue(key);
+    }
+
+    private void enqueue(String key) {
+        if (queued.add(key)) {
+            writes.add(key);
+        }
+    }
+
+    /**
+     * Waits until every put and remove made so far has been appended.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        writes.add(done);
+        done.await();
+    }
+
+    /**
+     * Flushes the store and compacts it if superseded records take more than half of it, or if
+     * it has grown over its disk budget. Compaction runs on the writer thread, which is the only
+     * thread taking the file lock once the store is open.
+     *
+     * @throws InterruptedException If interrupted while waiting for the writer.
+     */
+    public void checkpoint() throws InterruptedException {
+        writes.add(COMPACT);
+        flush();
+    }
+
+    /**
+     * Appends the queued keys in batches, taking the file lock once per batch. Compaction
+     * requests and the latches of flush callers are handled once everything queued before them
+     * is written.
+     */
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(writes.take());
+                writes.drainTo(batch);
+                List<String> keys = new ArrayList<>();
+                for (Object item : batch) {
+                    if (item instanceof String) {
+                        keys.add((String) item);
+                        continue;
+                    }
+                    if (!keys.isEmpty()) {
+                        append(keys);
+                        keys = new ArrayList<>();
+                    }
+                    if (item == COMPACT) {
+                        compactIfNeeded();
+                    } else {
+                        ((CountDownLatch) item).countDown();
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    append(keys);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // The process is exiting
+        }
+    }
+
+    private void compactIfNeeded() {
+        if ((garbageBytes > COMPACTION_MIN_GARBAGE && garbageBytes * 2 > totalBytes) || totalBytes > DISK_BUDGET) {
+            try {
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Appends the current values of the given keys to the newest segment, under the exclusive lock.
+     *
+     * @param keys The keys to write.
+     */
+    private void append(List<String> keys) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        List<String> written = new ArrayList<>(); // Keys in the order of their records
+        List<Object> values = new ArrayList<>(); // Values the records were made of
+        List<Integer> offsets = new ArrayList<>(); // Offsets of the records in the batch
+        for (String key : keys) {
+            queued.remove(key); // A put from now on queues the key again
+            Object value = recent.get(key);
+            try {
+                byte[] record = (value == REMOVED) ? record(key, null) : record(key, serialize(value));
+                written.add(key);
+                values.add(value);
+                offsets.add(records.size());
+                records.write(record);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        MappedByteBuffer mapped;
+        try (FileLock lock = lockChannel.lock()) {
+            Path active = activeSegment(records.size());
+            try (FileChannel segment = FileChannel.open(active, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long start = validEnd(active, segment);
+                if (start < segment.size()) {
+                    // Otherwise every record appended from now on would follow the torn one and be lost
+                    System.out.println("[ERROR] dropping a torn record at the end of cache segment " + active.getFileName() + " from offset " + start);
+                    segment.truncate(start);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+                long position = start;
+                while (buffer.hasRemaining()) {
+                    position += segment.write(buffer, position);
+                }
+                mapped = segment.map(FileChannel.MapMode.READ_ONLY, start, records.size());
+                tailSegment = active;
+                tailEnd = position;
+            }
+            totalBytes += records.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // Point the index at the records just written, so the values no longer need to be kept in memory
+        for (int i = 0; i < written.size(); i++) {
+            String key = written.get(i);
+            int offset = offsets.get(i);
+            int keyLength = mapped.getInt(offset);
+            int valueLength = mapped.getInt(offset + 4);
+            Location previous = (valueLength >= 0)
+                    ? index.put(key, new Location(mapped, offset, keyLength, valueLength))
+                    : index.remove(key);
+            if (previous != null) {
+                garbageBytes += previous.recordSize();
+            }
+            if (valueLength < 0) {
+                garbageBytes += HEADER_SIZE + keyLength;
+            }
+            recent.remove(key, values.get(i));
+        }
+    }
+
+    /**
+     * Finds the end of the last valid record of a segment, checking the checksum of every record
+     * that was not checked before. Called under the exclusive lock, so the records found are
+     * complete, and anything after them is the tail of an append that did not finish.
+     *
+     * @param path    The path of the segment.
+     * @param segment The open segment.
+     * @return The offset just past the last valid record.
+     * @throws IOException If the segment cannot be read.
+     */
+    private long validEnd(Path path, FileChannel segment) throws IOException {
+        long size = segment.size();
+        // Records this process checked or wrote are valid, only the ones added since need checking
+        long from = (path.equals(tailSegment) && tailEnd <= size) ? tailEnd : 0;
+        if (from == size) {
+            return size;
+        }
+        MappedByteBuffer buffer = segment.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        int offset = 0;
+        while (isRecord(buffer, offset) && hasValidChecksum(buffer, offset)) {
+            offset += HEADER_SIZE + buffer.getInt(offset) + Math.max(buffer.getInt(offset + 4), 0);
+        }
+        return from + offset;
+    }
+
+    private static boolean hasValidChecksum(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset) + Math.max(buffer.getInt(offset + 4), 0);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + HEADER_SIZE, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 8);
+    }
+
+    /**
+     * Rewrites the live records of all segments into a new segment and deletes the old ones.
+     * Segments are scanned again under the exclusive lock, so records appended by other
+     * processes since this one opened the store are kept.
+     *
+     * @throws IOException If the segments cannot be read or written.
+     */
+    private void compact() throws IOException {
+        try (FileLock lock = lockChannel.lock()) {
+            TreeMap<Long, Path> segments = segments();
+            Map<String, ByteBuffer> live = new LinkedHashMap<>(); // Latest record of every live key, in its mapped segment
+            for (Path segment : segments.values()) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    int offset = 0;
+                    while (isRecord(buffer, offset)) {
+                        int keyLength = buffer.getInt(offset);
+                        int valueLength = buffer.getInt(offset + 4);
+                        String key = key(buffer, offset, keyLength);
+                        live.remove(key);
+                        int size = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+                        if (valueLength >= 0) {
+                            live.put(key, buffer.slice(offset, size));
+                        }
+                        offset += size;
+                    }
+                }
+            }
+            // Drop the records written longest ago until the live records fit the disk budget
+            long liveBytes = 0;
+            for (ByteBuffer record : live.values()) {
+                liveBytes += record.remaining();
+            }
+            int dropped = 0;
+            Iterator<ByteBuffer> oldest = live.values().iterator();
+            while (liveBytes > DISK_BUDGET && oldest.hasNext()) {
+                liveBytes -= oldest.next().remaining();
+                oldest.remove();
+                dropped++;
+            }
+            long next = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+            Path compacted = segmentPath(next);
+            Path temporary = dir.resolve(compacted.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (ByteBuffer record : live.values()) {
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }
+            }
+            Files.move(temporary, compacted, StandardCopyOption.ATOMIC_MOVE);
+            for (Path segment : segments.values()) {
+                Files.deleteIfExists(segment);
+            }
+            // Point the index at the compacted segment, the old mappings stay valid for readers until then
+            index.keySet().retainAll(live.keySet());
+            scanSegment(compacted);
+            totalBytes = Files.size(compacted);
+            garbageBytes = 0;
+            System.out.println("Compacted cache: " + segments.size() + " segments into 1, " + live.size() + " entries, " + dropped + " dropped over budget");
+        }
+    }
+
+    /**
+     * Reads the record headers and keys of a segment into the index, without reading any value.
+     * Scanning stops at the first incomplete record, which can only be the tail of a write that
+     * did not finish.
+     */
+    private void scanSegment(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int offset = 0;
+            while (isRecord(buffer, offset)) {
+                int keyLength = buffer.getInt(offset);
+                int valueLength = buffer.getInt(offset + 4);
+                String key = key(buffer, offset, keyLength);
+                Location previous = (valueLength >= 0)
+                        ? index.put(key, new Location(buffer, offset, keyLength, valueLength))
+                        : index.remove(key);
+                int size = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+                if (previous != null) {
+                    garbageBytes += previous.recordSize();
+                }
+                if (valueLength < 0) {
+                    garbageBytes += size;
+                }
+                totalBytes += size;
+                offset += size;
+            }
+        }
+    }
+
+    private static boolean isRecord(ByteBuffer buffer, int offset) {
+        if (buffer.limit() - offset < HEADER_SIZE) {
+            return false;
+        }
+        int keyLength = buffer.getInt(offset);
+        int valueLength = buffer.getInt(offset + 4);
+        return keyLength > 0 && valueLength >= -1
+                && (long) offset + HEADER_SIZE + keyLength + Math.max(valueLength, 0) <= buffer.limit();
+    }
+
+    private static String key(ByteBuffer buffer, int offset, int keyLength) {
+        byte[] key = new byte[keyLength];
+        buffer.get(offset + HEADER_SIZE, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Builds a record.
+     *
+     * @param key   The key.
+     * @param value The serialised value, or null for a removal.
+     * @return The bytes of the record.
+     */
+    private static byte[] record(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = (value != null) ? value.length : 0;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueLength);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        if (value != null) {
+            crc.update(value);
+        }
+        record.putInt(keyBytes.length).putInt((value != null) ? value.length : -1).putInt((int) crc.getValue());
+        record.put(keyBytes);
+        if (value != null) {
+            record.put(value);
+        }
+        return record.array();
+    }
+
+    /**
+     * Chooses the segment to append to: the newest one, or a new one if the newest is full.
+     *
+     * @param recordBytes The number of bytes about to be appended.
+     * @return The path of the segment.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private Path activeSegment(long recordBytes) throws IOException {
+        TreeMap<Long, Path> segments = segments();
+        if (segments.isEmpty()) {
+            return segmentPath(0);
+        }
+        Path newest = segments.lastEntry().getValue();
+        if (Files.size(newest) > 0 && Files.size(newest) + recordBytes > SEGMENT_SIZE) {
+            return segmentPath(segments.lastKey() + 1);
+        }
+        return newest;
+    }
+
+    private Path segmentPath(long number) {
+        return dir.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Lists the segments of the store.
+     *
+     * @return The segments, ordered by number from oldest to newest.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+                } catch (NumberFormatException e) {
+                    // Not a segment of this store
+                }
+            }
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A JDK Flight Recorder event for the search of one file by a file task, cache misses
+ * included. Its duration is the time the task spent on the file, so in a recording slow files show up next to the GC pauses,
+ * lock waits and thread states of the same moment.
+ * <p>
+ * The event is only created while the recorder runs, see {@link FlightEvents}, and only filled
+ * in when a recording has it enabled.
+ */
+@Name("org.example.FileSearch")
+@Label("File Search")
+@Category({"Grep", "Search"})
+@Description("Search of one file by a file task")
+@StackTrace(false)
+class FileSearchEvent extends jdk.jfr.Event {
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    @Description("Lines read, 0 when the literal search did not number them")
+    long lines;
+
+    @Label("Matches")
+    long matches;
+
+    /**
+     * Ends the event and commits it if the recording wants it.
+     *
+     * @param file   The file name reported in results.
+     * @param path   The path of the file.
+     * @param lines  The number of lines read.
+     * @param target The container the file task added its results to.
+     */
+    void finish(String file, Path path, int lines, Result target) {
+        end();
+        if (shouldCommit()) {
+            this.file = file;
+            this.bytes = path.toFile().length();
+            this.lines = lines;
+            this.matches = (target instanceof CountingResult) ? ((CountingResult) target).matches : 0;
+            commit();
+        }
+    }
+
+    /**
+     * A result container that counts the results of one file on their way to the shared
+     * container. It is used by a single file task, so the count needs no synchronization.
+     */
+    static class CountingResult extends Result {
+        private final Result target; // The container results are passed on to
+        int matches; // Results added so far
+
+        CountingResult(Result target) {
+            super(null, false);
+            this.target = target;
+        }
+
+        @Override
+        public void addResult(LineResult lineResult) {
+            matches++;
+            target.addResult(lineResult);
+        }
+
+        @Override
+        public void addMatch(int pattern) {
+            matches++;
+            target.addMatch(pattern);
+        }
+
+        @Override
+        public void addResults(List<LineResult> lineResults) {
+            matches += lineResults.size();
+            target.addResults(lineResults);
+        }
+    }
+}
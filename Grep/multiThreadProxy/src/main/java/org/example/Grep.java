@@ -1,12 +1,16 @@
 package org.example;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -23,6 +27,18 @@ public class Grep {
     private final MyRegexOptions options; // Options for regex search
     private final Result result; // Result container for search matches
     private final LineResult.Builder builder; // Builder for LineResult objects
+    private final LiteralSearch literalSearch; // Byte level search used when any pattern is a plain string, null otherwise
+    private final Semaphore cpuPermits; // Limits how many virtual threads match at once, null unless -vt is set
+    private final Semaphore ioPermits; // Limits how many files virtual threads hold in memory at once, null unless -vt is set
+    private final LiteralSearch byteSearch; // Search over files read into memory by virtual threads, null unless -vt is set
+    private final SearchProfile profile; // Phase times and counters of the search, null unless -analyze
+
+    // Files up to this size are read into memory before a virtual thread takes a CPU permit (8 MB)
+    static long IN_MEMORY_LIMIT = 8L * 1024L * 1024L;
+    // Number of files virtual threads may be reading or holding in memory at once
+    static int MAX_IN_FLIGHT_FILES = 256;
+    // Number of virtual threads that may be matching at once
+    static int CPU_PERMITS = Runtime.getRuntime().availableProcessors();
 
     /**
      * Constructs a Grep object with the specified parameters.
@@ -41,8 +57,25 @@ public class Grep {
         this.regexPatterns = regexPatterns;
         this.files = files;
         this.directories = directories;
-        builder = new LineResult.Builder(options);
-        this.result = new Result();
+        profile = options.analyze ? new SearchProfile() : null;
+        builder = (profile != null) ? new SearchProfile.ProfiledBuilder(options, profile) : new LineResult.Builder(options);
+        literalSearch = LiteralSearch.compile(regexPatterns, options, builder);
+        if (options.virtualThreads) {
+            cpuPermits = new Semaphore(CPU_PERMITS);
+            ioPermits = new Semaphore(MAX_IN_FLIGHT_FILES);
+            byteSearch = (literalSearch != null) ? literalSearch : LiteralSearch.compileAll(regexPatterns, options, builder);
+        } else {
+            cpuPermits = null;
+            ioPermits = null;
+            byteSearch = null;
+        }
+        for (LiteralSearch search : new LiteralSearch[]{literalSearch, byteSearch}) {
+            if (search != null) {
+                search.setProfile(profile);
+            }
+        }
+        ResultSink sink = options.streamResults ? createSink(options) : null;
+        this.result = (profile != null) ? new SearchProfile.ProfiledResult(sink, profile) : new Result(sink);
 
         if (options.dirSearch) {
             addFilesRecursive();
@@ -51,29 +84,142 @@ public class Grep {
         if (files.isEmpty()) {
             throw new IllegalArgumentException("{ No files to search }");
         }
+
+        if (options.useIndex) {
+            filterWithIndex();
+        }
     }
 
     /**
      * Executes the grep operation by searching for patterns in files using multiple threads.
+     * By default a fixed pool of 25 platform threads is used. With -vt every file gets its own
+     * virtual thread, so that slow opens and reads do not tie up a pool thread each.
      *
      * @return The Result object containing search matches.
      */
     public Result execute() throws InterruptedException {
-        ExecutorService executorService = Executors.newFixedThreadPool(25);
+        ExecutorService executorService = options.virtualThreads
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(25);
+        executeUtil(executorService);
+        return result; // Return the result after processing all files
+    }
+
+    /**
+     * Submits one task per file to the given executor service and waits for all of them to finish.
+     *
+     * @param executorService The executor service to run the file tasks on.
+     * @throws InterruptedException If interrupted while waiting for the tasks.
+     */
+    public void executeUtil(ExecutorService executorService) throws InterruptedException {
+        if (profile != null && executorService instanceof ThreadPoolExecutor) {
+            profile.watchQueue(((ThreadPoolExecutor) executorService).getQueue()::size);
+        }
         for (String file : files) {
-            executorService.submit(() -> {
-                if (options.invertedSearch) {
-                    invertedProcessFile(file);
-                } else {
-                    processFile(file);
-                }
-            });
+            executorService.submit(() -> searchFile(file));
         }
 
         executorService.shutdown();
 
         executorService.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
-        return result; // Return the result after processing all files
+        if (profile != null) {
+            profile.stopWatching();
+        }
+    }
+
+    /**
+     * Searches a single file, adding its matches to the result of the search.
+     * Runs on the executor, and is where the cache proxy looks files up.
+     *
+     * @param file The file path to search.
+     */
+    protected void searchFile(String file) {
+        if (!options.onlyCountLines) {
+            searchFile(file, result);
+            return;
+        }
+        // With -c the file is counted on its own and handed over once it is done
+        MatchCounter counter = new MatchCounter(regexPatterns.size());
+        searchFile(file, counter);
+        result.addCounts(file, counter);
+    }
+
+    /**
+     * Searches a single file with the execution mode chosen by the options.
+     *
+     * @param file   The file path to search.
+     * @param target The result container to add the matches of the file to.
+     */
+    protected void searchFile(String file, Result target) {
+        FileSearchEvent event = FlightEvents.fileSearch();
+        Result counted = (event != null && event.isEnabled()) ? new FileSearchEvent.CountingResult(target) : target;
+        int lines = 0;
+        if (profile != null) {
+            profile.enter(SearchProfile.Phase.MATCH);
+        }
+        try {
+            if (cpuPermits != null) {
+                lines = boundedProcessFile(file, counted);
+            } else if (options.invertedSearch) {
+                lines = invertedProcessFile(file, counted);
+            } else {
+                lines = processFile(file, counted);
+            }
+        } finally {
+            if (profile != null) {
+                profile.exit();
+            }
+            if (event != null) {
+                event.finish(file, Paths.get(pwd, file), lines, counted);
+            }
+        }
+    }
+
+    /**
+     * Processes a file on a virtual thread. The file is read into memory without holding a CPU
+     * permit, so that many virtual threads can wait on I/O at once, and is then searched while
+     * holding one, so that matching never runs on more threads than there are cores. The number
+     * of files read or held in memory at once is bounded as well, to keep memory use flat.
+     * Files larger than the in memory limit are streamed as usual while holding a CPU permit.
+     *
+     * @param file   The file path to process.
+     * @param target The result container to add matches to.
+     * @return The number of lines read, or 0 if line numbers are not shown.
+     */
+    private int boundedProcessFile(String file, Result target) {
+        Path path = Paths.get(pwd, file);
+        try {
+            if (Files.size(path) > IN_MEMORY_LIMIT) {
+                cpuPermits.acquire();
+                try {
+                    return options.invertedSearch ? invertedProcessFile(file, target) : processFile(file, target);
+                } finally {
+                    cpuPermits.release();
+                }
+            }
+
+            ioPermits.acquire();
+            try {
+                byte[] content = readAllBytes(path);
+                cpuPermits.acquire();
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(content);
+                    if (options.invertedSearch) {
+                        return byteSearch.invertedSearch(buffer, 0, content.length, 1, file, target) - 1;
+                    }
+                    return byteSearch.search(buffer, 0, content.length, 1, file, target) - 1;
+                } finally {
+                    cpuPermits.release();
+                }
+            } finally {
+                ioPermits.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
     }
 
     /**
@@ -83,7 +229,16 @@ public class Grep {
      */
     private void addFilesRecursive() throws IOException {
         Path dir = Paths.get(pwd);
-        addFileRecursiveUtil(dir);
+        if (profile != null) {
+            profile.enter(SearchProfile.Phase.WALK);
+        }
+        try {
+            addFileRecursiveUtil(dir);
+        } finally {
+            if (profile != null) {
+                profile.exit();
+            }
+        }
     }
 
     /**
@@ -103,23 +258,61 @@ public class Grep {
         }
     }
 
+    /**
+     * Narrows the files down to those a trigram index says can hold a match. The index is
+     * brought up to date first, so files that changed since the last search are read again.
+     * The remaining files are searched as usual, so the results are the same as without -idx.
+     */
+    private void filterWithIndex() {
+        long begin = System.currentTimeMillis();
+        int before = files.size();
+        if (profile != null) {
+            profile.enter(SearchProfile.Phase.WALK);
+        }
+        TrigramQuery query = TrigramQuery.of(regexPatterns, options.invertedSearch);
+        TrigramIndex index = TrigramIndex.open(pwd);
+        try {
+            int reindexed = index.update(pwd, files);
+            Set<String> candidates = index.candidates(query);
+            if (candidates != null) {
+                files.removeIf(file -> !candidates.contains(file));
+            }
+            index.printSummary(reindexed, files.size(), System.currentTimeMillis() - begin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (profile != null) {
+                profile.filesSkipped.add(before - files.size());
+                profile.exit();
+            }
+        }
+    }
+
     /**
      * Processes the content of a file line by line using the specified regular expression patterns.
      *
-     * @param file The file path to process.
+     * @param file   The file path to process.
+     * @param target The result container to add matches to.
+     * @return The number of lines read.
      */
-    private void processFile(String file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pwd + "/" + file))) {
+    private int processFile(String file, Result target) {
+        if (literalSearch != null) {
+            return literalProcessFile(file, false, target);
+        }
+        int lineNumber = 1;
+        try (BufferedReader reader = openReader(file)) {
             String line;
-            int lineNumber = 1;
-            while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
+            while ((line = readLine(reader)) != null) {
+                for (int p = 0; p < regexPatterns.size(); p++) {
+                    Pattern pattern = regexPatterns.get(p);
                     Matcher matcher = pattern.matcher(line);
-                    while (matcher.find()) {
-                        LineResult lineResult = builder.build(lineNumber, matcher.group(), file, pattern);
-                        synchronized (result) {
-                            result.addResult(lineResult);
+                    while (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                        if (options.onlyCountLines) {
+                            target.addMatch(p);
+                            continue;
                         }
+                        LineResult lineResult = builder.build(lineNumber, matcher.group(), file, pattern);
+                        target.addResult(lineResult);
                     }
                 }
                 lineNumber++;
@@ -127,23 +320,35 @@ public class Grep {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return lineNumber - 1;
     }
 
     /**
      * Processes the content of a file line by line using inverted search based on specified regular expression patterns.
      *
-     * @param file The file path to process with inverted search.
+     * @param file   The file path to process with inverted search.
+     * @param target The result container to add matches to.
+     * @return The number of lines read.
      */
-    private void invertedProcessFile(String file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pwd + "/" + file))) {
+    private int invertedProcessFile(String file, Result target) {
+        if (literalSearch != null) {
+            return literalProcessFile(file, true, target);
+        }
+        int lineNumber = 1;
+        try (BufferedReader reader = openReader(file)) {
             String line;
-            int lineNumber = 1;
-            while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
+            while ((line = readLine(reader)) != null) {
+                for (int p = 0; p < regexPatterns.size(); p++) {
+                    Pattern pattern = regexPatterns.get(p);
                     Matcher matcher = pattern.matcher(line);
-                    if (!matcher.find()) {
+                    if (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                        continue;
+                    }
+                    if (options.onlyCountLines) {
+                        target.addMatch(p);
+                    } else {
                         LineResult lineResult = builder.build(lineNumber, line, file, pattern);
-                        result.addResult(lineResult);
+                        target.addResult(lineResult);
                     }
                 }
                 lineNumber++;
@@ -151,6 +356,99 @@ public class Grep {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return lineNumber - 1;
+    }
+
+    /**
+     * Opens a file for reading lines. With -analyze, opening is charged to the open phase and
+     * reading to the read phase.
+     *
+     * @param file The file path to open.
+     * @return A reader over the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    private BufferedReader openReader(String file) throws IOException {
+        if (profile == null) {
+            return new BufferedReader(new FileReader(pwd + "/" + file));
+        }
+        profile.enter(SearchProfile.Phase.OPEN);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new SearchProfile.ProfiledInputStream(new FileInputStream(pwd + "/" + file), profile)));
+            profile.filesSearched.increment();
+            return reader;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Reads the next line. With -analyze, the time not spent reading bytes is charged to the
+     * decode phase.
+     *
+     * @param reader The reader.
+     * @return The line, or null at the end of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private String readLine(BufferedReader reader) throws IOException {
+        if (profile == null) {
+            return reader.readLine();
+        }
+        profile.enter(SearchProfile.Phase.DECODE);
+        try {
+            String line = reader.readLine();
+            if (line != null) {
+                profile.lines.increment();
+            }
+            return line;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Reads a whole file into memory. With -analyze, opening and reading are charged to the read
+     * phase.
+     *
+     * @param path The path of the file.
+     * @return The content of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private byte[] readAllBytes(Path path) throws IOException {
+        if (profile == null) {
+            return Files.readAllBytes(path);
+        }
+        profile.enter(SearchProfile.Phase.READ);
+        try {
+            byte[] content = Files.readAllBytes(path);
+            profile.filesSearched.increment();
+            profile.bytes.add(content.length);
+            for (byte b : content) {
+                if (b == '\n') {
+                    profile.lines.increment();
+                }
+            }
+            return content;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Processes the content of a file with the literal fast path, searching its raw bytes
+     * without decoding lines or going through the regex engine.
+     *
+     * @param file     The file path to process.
+     * @param inverted Whether to report the lines that do not match instead.
+     * @param target   The result container to add matches to.
+     * @return The number of lines read, or 0 if line numbers are not shown.
+     */
+    private int literalProcessFile(String file, boolean inverted, Result target) {
+        try {
+            return literalSearch.searchFile(Paths.get(pwd, file), file, target, inverted);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
     }
 
     // Getters for caching key generation in the proxy
@@ -173,4 +471,26 @@ public class Grep {
     public MyRegexOptions getOptions() {
         return options;
     }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public SearchProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Creates the sink that streamed results are written to: the standard output, or nothing
+     * at all when only the count is wanted.
+     *
+     * @param options Options for regex search.
+     * @return The sink for streamed results.
+     */
+    private static ResultSink createSink(MyRegexOptions options) {
+        if (options.onlyCountLines) {
+            return ResultSink.discarding();
+        }
+        return new ResultSink(System.out);
+    }
 }
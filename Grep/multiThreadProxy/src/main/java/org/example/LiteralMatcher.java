@@ -0,0 +1,210 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled plain-string pattern that is searched for directly in raw file bytes
+ * using the Boyer-Moore-Horspool algorithm, bypassing java.util.regex entirely.
+ * Instances are immutable and can be shared between threads.
+ */
+public class LiteralMatcher {
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}\n\r";
+    private static final byte[] FOLD = new byte[256]; // ASCII case folding table
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            FOLD[i] = (byte) ((i >= 'A' && i <= 'Z') ? i + ('a' - 'A') : i);
+        }
+    }
+
+    private final Pattern pattern; // The pattern this matcher was compiled from
+    private final byte[] needle; // UTF-8 bytes of the literal, case folded when ignoring case
+    private final int[] shift; // Horspool bad character shift table
+    private final boolean ignoreCase; // Whether ASCII letters are compared case insensitively
+    private final boolean wholeWord; // Whether matches must be surrounded by non-word characters
+
+    /**
+     * Private constructor, use {@link #compile(Pattern, boolean)} to create a matcher.
+     *
+     * @param pattern    The pattern this matcher was compiled from.
+     * @param literal    The literal string to search for.
+     * @param ignoreCase Whether ASCII letters are compared case insensitively.
+     * @param wholeWord  Whether matches must be whole words.
+     */
+    private LiteralMatcher(Pattern pattern, String literal, boolean ignoreCase, boolean wholeWord) {
+        this.pattern = pattern;
+        this.ignoreCase = ignoreCase;
+        this.wholeWord = wholeWord;
+        this.needle = literal.getBytes(StandardCharsets.UTF_8);
+        if (ignoreCase) {
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = FOLD[needle[i] & 0xFF];
+            }
+        }
+        this.shift = new int[256];
+        int last = needle.length - 1;
+        Arrays.fill(shift, needle.length);
+        for (int i = 0; i < last; i++) {
+            shift[needle[i] & 0xFF] = last - i;
+        }
+    }
+
+    /**
+     * Returns the literal text of a pattern, or null if the pattern uses any regex syntax.
+     * Patterns compiled with {@link Pattern#LITERAL} (the -F option) are always literal.
+     *
+     * @param pattern The compiled pattern to inspect.
+     * @return The literal string the pattern matches, or null if it is not a plain string.
+     */
+    static String literalOf(Pattern pattern) {
+        String source = pattern.pattern();
+        if (source.isEmpty() || source.indexOf('\n') >= 0 || source.indexOf('\r') >= 0) {
+            return null;
+        }
+        int flags = pattern.flags();
+        if ((flags & Pattern.LITERAL) != 0) {
+            return ((flags & ~(Pattern.LITERAL | Pattern.CASE_INSENSITIVE)) == 0) ? source : null;
+        }
+        if ((flags & ~Pattern.CASE_INSENSITIVE) != 0) {
+            return null;
+        }
+        for (int i = 0; i < source.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(source.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Compiles a pattern into a literal matcher if the pattern is really a plain string.
+     *
+     * @param pattern   The compiled regex pattern.
+     * @param wholeWord Whether matches must be whole words (the -w option).
+     * @return A LiteralMatcher, or null if the pattern needs the regex engine.
+     */
+    static LiteralMatcher compile(Pattern pattern, boolean wholeWord) {
+        String literal = literalOf(pattern);
+        if (literal == null) {
+            return null;
+        }
+        boolean ignoreCase = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+        return new LiteralMatcher(pattern, literal, ignoreCase, wholeWord);
+    }
+
+    /**
+     * Finds the first occurrence of the literal in the buffer between two absolute positions.
+     * The buffer is expected to start at a line boundary, since bytes outside of it count as
+     * non-word characters for whole word matching.
+     *
+     * @param buffer The buffer to search, accessed with absolute gets only.
+     * @param from   The first position that may start a match.
+     * @param to     The position that a match may not extend past.
+     * @return The position of the first match, or -1 if there is none.
+     */
+    int indexOf(ByteBuffer buffer, int from, int to) {
+        int last = needle.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (byteAt(buffer, i + j) == needle[j]) {
+                if (j == 0) {
+                    if (!wholeWord || isWordBounded(buffer, i, i + needle.length)) {
+                        return i;
+                    }
+                    break;
+                }
+                j--;
+            }
+            i += shift[byteAt(buffer, i + last) & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a byte from the buffer, folding its case when the matcher ignores case.
+     */
+    private byte byteAt(ByteBuffer buffer, int index) {
+        byte b = buffer.get(index);
+        return ignoreCase ? FOLD[b & 0xFF] : b;
+    }
+
+    /**
+     * Returns the unsigned value of a byte, folding its case when ignoring case.
+     *
+     * @param b          The byte to fold.
+     * @param ignoreCase Whether ASCII letters should be folded to lower case.
+     * @return The unsigned, possibly folded, byte value.
+     */
+    static int fold(byte b, boolean ignoreCase) {
+        return (ignoreCase ? FOLD[b & 0xFF] : b) & 0xFF;
+    }
+
+    /**
+     * Checks that a match in the buffer is not preceded or followed by a word character.
+     */
+    static boolean isWordBounded(ByteBuffer buffer, int start, int end) {
+        return (start == 0 || !isWordByte(buffer.get(start - 1)))
+                && (end >= buffer.limit() || !isWordByte(buffer.get(end)));
+    }
+
+    /**
+     * Checks that a match in a line is not preceded or followed by a word character.
+     * Used by the regex path so that -w behaves the same way for both engines.
+     *
+     * @param line  The line that was matched.
+     * @param start The start index of the match.
+     * @param end   The end index of the match.
+     * @return true if the match is a whole word.
+     */
+    static boolean isWordBounded(CharSequence line, int start, int end) {
+        return (start == 0 || !isWordChar(line.charAt(start - 1)))
+                && (end >= line.length() || !isWordChar(line.charAt(end)));
+    }
+
+    private static boolean isWordByte(byte b) {
+        return isWordChar((char) (b & 0xFF));
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * @return The number of bytes a match of this literal spans.
+     */
+    int length() {
+        return needle.length;
+    }
+
+    /**
+     * @return The bytes of the literal, case folded when ignoring case.
+     */
+    byte[] needle() {
+        return needle;
+    }
+
+    /**
+     * @return Whether ASCII letters are compared case insensitively.
+     */
+    boolean ignoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * @return Whether matches must be whole words.
+     */
+    boolean wholeWord() {
+        return wholeWord;
+    }
+
+    /**
+     * @return The pattern this matcher was compiled from, used for result attribution.
+     */
+    Pattern pattern() {
+        return pattern;
+    }
+}
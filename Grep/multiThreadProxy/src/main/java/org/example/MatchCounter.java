@@ -0,0 +1,41 @@
+package org.example;
+
+/**
+ * A result container for -c that counts the matches of one task per pattern instead of keeping
+ * them. The search engines call addMatch for every match instead of building a LineResult, so
+ * counting allocates nothing per match. A counter is only used by the task that created it, so
+ * its counts are plain longs that no other worker contends on, and it has none of the batches of a
+ * shared container. Once the task is done the counter
+ * is handed over to the result of the search with {@link Result#addCounts(String, MatchCounter)}.
+ */
+public class MatchCounter extends Result {
+    final long[] patternCounts; // Matches of each pattern, in pattern order
+
+    /**
+     * Constructs a counter with every count at zero.
+     *
+     * @param patterns The number of patterns of the search.
+     */
+    public MatchCounter(int patterns) {
+        super(null, false);
+        this.patternCounts = new long[patterns];
+    }
+
+    @Override
+    public void addMatch(int pattern) {
+        patternCounts[pattern]++;
+    }
+
+    /**
+     * Returns the number of matches of all patterns.
+     *
+     * @return The total count.
+     */
+    long total() {
+        long total = 0;
+        for (long patternCount : patternCounts) {
+            total += patternCount;
+        }
+        return total;
+    }
+}
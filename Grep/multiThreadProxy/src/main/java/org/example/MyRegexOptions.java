@@ -16,6 +16,12 @@ public class MyRegexOptions {
     final boolean showFiles; // Option to show files where matches are found
     final boolean dirSearch; // Option to enable recursive directory search
     final boolean showPattern; // Option to show the pattern used for matching in the output
+    final boolean fixedStrings; // Option to treat every pattern as a plain string instead of a regex
+    final boolean wholeWord; // Option to only match whole words
+    final boolean streamResults; // Option to write results out as they are found instead of at the end
+    final boolean virtualThreads; // Option to search every file on its own virtual thread
+    final boolean useIndex; // Option to only search the files a trigram index says can match
+    final boolean analyze; // Option to report the time and counters of every phase of the search
 
     /**
      * Constructs an instance of MyRegexOptions based on the specified list of option flags.
@@ -33,6 +39,12 @@ public class MyRegexOptions {
         this.caseInsensitive = options.contains("-i");
         this.dirSearch = options.contains("-R");
         this.showPattern = options.contains("-sp");
+        this.fixedStrings = options.contains("-F");
+        this.wholeWord = options.contains("-w");
+        this.streamResults = options.contains("-stream");
+        this.virtualThreads = options.contains("-vt");
+        this.useIndex = options.contains("-idx");
+        this.analyze = options.contains("-analyze");
 
         // Validate options to ensure -c is not used with options that affect output formatting.
         if (onlyCountLines && (showLines || showLineNumbers || showFiles || showPattern)) {
@@ -2,29 +2,97 @@ package org.example;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 /**
  * A container for accumulating and reporting the results of a search operation.
  * It keeps track of individual matching lines as well as the total count of matches.
+ * <p>
+ * Workers add results without taking a lock: every thread appends to a buffer of its own,
+ * and publishes it as a batch on a lock-free queue once it is full. The count is a LongAdder,
+ * so threads do not contend on it either. Results are read once the workers are done, from
+ * the published batches and the buffers that were not full yet.
  */
 public class Result implements Serializable {
     static String ANSI_GREEN = "\u001B[32m";
     static String ANSI_YELLOW = "\u001B[33m";
     static String ANSI_RESET = "\u001B[0m";
-    // List to hold individual search results
-    private final List<LineResult> result;
+    // Results a thread appends before it publishes them as a batch
+    static int BATCH_SIZE = 256;
+    // Batches of results published by the workers, or null if the container is not batched
+    private final Queue<List<LineResult>> batches;
+    // Buffer of each thread that added results, registered when the thread adds its first one
+    private final transient Queue<Buffer> buffers;
+    // Buffer of the current thread
+    private final transient ThreadLocal<Buffer> buffer;
+    // Writes results out as they are added instead of keeping them, or null
+    private final transient ResultSink sink;
+    // Creation time of this container, in nanoseconds
+    private final long startTime;
+    // Time the first match was added, in nanoseconds, or 0 if there is none yet
+    private final AtomicLong firstMatchTime;
     // Counter for the total number of matches found
-    AtomicInteger count;
+    final LongAdder count;
+    // Matches of each pattern, summed over the counters handed over with -c and the matches added, or null if there are none
+    private long[] patternCounts;
+    // Matches of each file that has any, summed over the counters handed over with -c
+    private final Map<String, Long> fileCounts = new TreeMap<>();
+
+    /**
+     * The results one thread appended since it last published a batch. Only that thread
+     * touches it while the search runs.
+     */
+    private static class Buffer {
+        List<LineResult> lines = new ArrayList<>(BATCH_SIZE);
+    }
 
     /**
      * Constructs a new, empty Result object.
      */
     public Result(){
-        this.result = Collections.synchronizedList( new ArrayList<>());
-        this.count = new AtomicInteger(0);
+        this(null);
+    }
+
+    /**
+     * Constructs a new, empty Result object that streams its line results to the given sink
+     * instead of keeping them. The count is still kept as a running total.
+     *
+     * @param sink The sink to write line results to, or null to keep them.
+     */
+    public Result(ResultSink sink){
+        this(sink, true);
+    }
+
+    /**
+     * Constructs a new, empty Result object, with or without the batches and per thread buffers
+     * of a container that workers share. A container without them is cheap enough to create for
+     * every file, but must be a subclass used by a single task that keeps its line results itself.
+     *
+     * @param sink    The sink to write line results to, or null to keep them.
+     * @param batched Whether line results are kept in batches and per thread buffers.
+     */
+    protected Result(ResultSink sink, boolean batched){
+        this.batches = batched ? new ConcurrentLinkedQueue<>() : null;
+        this.buffers = batched ? new ConcurrentLinkedQueue<>() : null;
+        this.buffer = batched ? ThreadLocal.withInitial(this::registerBuffer) : null;
+        this.count = new LongAdder();
+        this.sink = sink;
+        this.startTime = System.nanoTime();
+        this.firstMatchTime = new AtomicLong();
+    }
+
+    private Buffer registerBuffer() {
+        Buffer threadBuffer = new Buffer();
+        buffers.add(threadBuffer);
+        return threadBuffer;
     }
 
     /**
@@ -33,16 +101,138 @@ public class Result implements Serializable {
      * @param lineResult The result of a single line search to add.
      */
     public void addResult(LineResult lineResult) {
-        result.add(lineResult);
-        count.getAndIncrement();
+        if (sink != null) {
+            sink.write(lineResult);
+        } else {
+            Buffer threadBuffer = buffer.get();
+            threadBuffer.lines.add(lineResult);
+            if (threadBuffer.lines.size() >= BATCH_SIZE) {
+                batches.add(threadBuffer.lines);
+                threadBuffer.lines = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        count.increment();
+        markFirstMatch();
+    }
+
+    /**
+     * Adds line results that were found earlier, such as the cached results of a file. They are
+     * published as a batch of their own, so the list must not be changed afterwards.
+     *
+     * @param lineResults The line results to add.
+     */
+    public void addResults(List<LineResult> lineResults) {
+        if (lineResults.isEmpty()) {
+            return;
+        }
+        if (sink != null) {
+            for (LineResult lineResult : lineResults) {
+                sink.write(lineResult);
+            }
+        } else {
+            batches.add(lineResults);
+        }
+        count.add(lineResults.size());
+        markFirstMatch();
+    }
+
+    private void markFirstMatch() {
+        // Only read once the first match is in, so the line is not written to again
+        if (firstMatchTime.get() == 0) {
+            firstMatchTime.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Returns the line results kept by this container, which is empty when streaming.
+     * Must only be called once the threads adding results are done.
+     *
+     * @return A copy of the line results.
+     */
+    public List<LineResult> getLineResults() {
+        List<LineResult> lineResults = new ArrayList<>(count.intValue());
+        for (List<LineResult> batch : batches) {
+            lineResults.addAll(batch);
+        }
+        for (Buffer threadBuffer : buffers) {
+            lineResults.addAll(threadBuffer.lines);
+        }
+        return lineResults;
+    }
+
+    /**
+     * Counts a match of a pattern without keeping a result for it, in the per pattern counts and
+     * the match count. With -c every task counts into a MatchCounter of its own instead, which is
+     * handed over with addCounts, so that workers do not take this lock for every match and the
+     * matches are also counted per file.
+     *
+     * @param pattern The index of the pattern that matched.
+     */
+    public synchronized void addMatch(int pattern) {
+        growPatternCounts(pattern + 1);
+        patternCounts[pattern]++;
+        count.increment();
+        markFirstMatch();
+    }
+
+    /**
+     * Makes room for the counts of the given number of patterns.
+     */
+    private void growPatternCounts(int patterns) {
+        if (patternCounts == null) {
+            patternCounts = new long[patterns];
+        } else if (patternCounts.length < patterns) {
+            patternCounts = Arrays.copyOf(patternCounts, patterns);
+        }
+    }
+
+    /**
+     * Adds the matches a task counted in a file to the per file and per pattern counts, and to
+     * the match count. Called once per task, so the lock on the per file and per pattern counts
+     * is taken once per task instead of once per match.
+     *
+     * @param file    The file that was searched.
+     * @param counter The counter the matches of the task were counted in.
+     */
+    public synchronized void addCounts(String file, MatchCounter counter) {
+        long total = counter.total();
+        if (total == 0) {
+            return;
+        }
+        growPatternCounts(counter.patternCounts.length);
+        for (int i = 0; i < counter.patternCounts.length; i++) {
+            patternCounts[i] += counter.patternCounts[i];
+        }
+        fileCounts.merge(file, total, Long::sum);
+        count.add(total);
+        markFirstMatch();
+    }
+
+    /**
+     * Prints the match count of every file that has any, and of every pattern, to the standard output.
+     *
+     * @param patterns The patterns of the search, in pattern order.
+     */
+    public synchronized void printCounts(List<Pattern> patterns) {
+        for (Map.Entry<String, Long> entry : fileCounts.entrySet()) {
+            System.out.println(entry.getKey() + ":" + entry.getValue());
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            System.out.println("pattern '" + patterns.get(i) + "': " + ((patternCounts != null && i < patternCounts.length) ? patternCounts[i] : 0));
+        }
     }
 
     /**
      * Prints all accumulated line results to the standard output.
-     * Each line result is printed on a new line.
+     * Each line result is printed on a new line. When streaming, the results have already been
+     * written and only what is still buffered in the sink is flushed.
      */
     public void printResults() {
-        for(LineResult lineResult : result) {
+        if (sink != null) {
+            sink.flush();
+            return;
+        }
+        for(LineResult lineResult : getLineResults()) {
             System.out.println(lineResult);
         }
     }
@@ -51,6 +241,16 @@ public class Result implements Serializable {
      * Prints the total count of matches found to the standard output.
      */
     public void printCount() {
-        System.out.println(ANSI_GREEN+"Total matches found: " + count+ANSI_RESET);
+        System.out.println(ANSI_GREEN+"Total matches found: " + count.sum()+ANSI_RESET);
+    }
+
+    /**
+     * Prints the time from the creation of this container to the first match.
+     */
+    public void printTimeToFirstMatch() {
+        long first = firstMatchTime.get();
+        if (first != 0) {
+            System.out.println(ANSI_YELLOW+" ... first match after " + (first - startTime) / 1_000_000 + "ms"+ANSI_RESET);
+        }
     }
 }
@@ -2,24 +2,33 @@ package org.example;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 /**
  * A proxy for the Grep class that implements caching of results.
- * This class intercepts the execution of the grep operation to check
- * if the result is already cached based on a generated key. If the result
- * is found in the cache, it is returned immediately without re-executing
- * the grep operation.
+ * Results are cached per query and per file, and every cached file is checked against its
+ * fingerprint before its results are reused. A repeated search only searches the files that
+ * changed since the last one and takes the results of all other files from the cache.
  */
 public class ResultCacheProxy extends Grep {
     static String ANSI_GREEN = "\u001B[32m";
     static String ANSI_YELLOW = "\u001B[33m";
     static String ANSI_RESET = "\u001B[0m";
 
+    private final CacheManager cacheManager = CacheManager.getInstance(); // The shared cache
+    private final LongAdder hits = new LongAdder(); // Files whose results came from the cache
+    private final LongAdder misses = new LongAdder(); // Files that had to be searched
+    private String queryKey; // Key of the query, computed when the search starts
+
     /**
      * Constructs a new ResultCacheProxy instance.
      *
@@ -36,50 +45,155 @@ public class ResultCacheProxy extends Grep {
     }
 
     /**
-     * Executes the grep operation with caching. Checks the cache first using a generated
-     * key based on the search parameters. If the result is cached, it is returned immediately.
-     * Otherwise, the grep operation is executed, and the result is cached before returning.
+     * Executes the grep operation with caching. Every file is looked up in the cache as it is
+     * searched, and the cache has written every change once all files are done.
      *
-     * @return The result of the grep operation, either from the cache or freshly computed.
+     * @return The result of the grep operation, made of cached and freshly computed file results.
      * @throws InterruptedException if the operation is interrupted.
      */
     @Override
     public Result execute() throws InterruptedException {
-        String cacheKey = generateCacheKey();
-        CacheManager cacheManager = CacheManager.getInstance();
-        Result cachedResult = cacheManager.getResultFromCache(cacheKey);
+        queryKey = generateQueryKey();
+        Result result = super.execute();
         System.out.println("----");
+        System.out.println(ANSI_GREEN + "Cache: " + hits + " files reused, " + misses + " files searched" + ANSI_RESET);
+        cacheManager.printStats();
+        cacheManager.checkpoint();
+        return result;
+    }
+
+    /**
+     * Searches a file unless its cached results are still valid. The attributes of the file are
+     * read before it is searched, so a file that changes during the search is searched again
+     * next time.
+     *
+     * @param file The file path to search.
+     */
+    @Override
+    protected void searchFile(String file) {
+        SearchProfile profile = getProfile();
+        if (profile == null) {
+            cachedSearchFile(file, null);
+            return;
+        }
+        profile.enter(SearchProfile.Phase.CACHE);
+        try {
+            cachedSearchFile(file, profile);
+        } finally {
+            profile.exit();
+        }
+    }
 
-        if (cachedResult != null) {
-            System.out.println("Returning cached result for key: " + cacheKey);
-            return cachedResult;
-        } else {
-            Result result = super.execute();
-            cacheManager.addResultToCache(cacheKey, result);
-            return result;
+    private void cachedSearchFile(String file, SearchProfile profile) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(Paths.get(getPwd(), file), BasicFileAttributes.class);
+        } catch (IOException e) {
+            super.searchFile(file); // Let the search report the error
+            return;
+        }
+        if (getOptions().onlyCountLines) {
+            cachedCountFile(file, attrs, profile);
+            return;
+        }
+        List<LineResult> cached = cacheManager.getFileResults(queryKey, file, attrs);
+        if (cached != null) {
+            hits.increment();
+            if (profile != null) {
+                profile.cacheHits.increment();
+            }
+            getResult().addResults(cached);
+            return;
         }
+        misses.increment();
+        if (profile != null) {
+            profile.cacheMisses.increment();
+        }
+        FileResults fileResults = new FileResults();
+        super.searchFile(file, fileResults);
+        List<LineResult> lineResults = fileResults.lines;
+        cacheManager.addFileResults(queryKey, file, attrs, lineResults);
+        getResult().addResults(lineResults);
     }
 
     /**
-     * Generates a cache key based on the grep operation's parameters. This key
-     * is used to uniquely identify the set of parameters for caching purposes.
+     * Counts the matches of a file for -c, or takes its counts from the cache. Only the count of
+     * every pattern is cached, so a -c search neither builds nor stores a result per match.
+     */
+    private void cachedCountFile(String file, BasicFileAttributes attrs, SearchProfile profile) {
+        MatchCounter counter = new MatchCounter(getRegexPatterns().size());
+        long[] cached = cacheManager.getFileCounts(queryKey, file, attrs);
+        if (cached != null) {
+            hits.increment();
+            if (profile != null) {
+                profile.cacheHits.increment();
+            }
+            System.arraycopy(cached, 0, counter.patternCounts, 0, counter.patternCounts.length);
+            getResult().addCounts(file, counter);
+            return;
+        }
+        misses.increment();
+        if (profile != null) {
+            profile.cacheMisses.increment();
+        }
+        super.searchFile(file, counter);
+        cacheManager.addFileCounts(queryKey, file, attrs, counter.patternCounts.clone());
+        getResult().addCounts(file, counter);
+    }
+
+    /**
+     * The results of one file on a cache miss, collected in a plain list before they are cached
+     * and handed to the shared container. A file is searched by a single task, so the list needs
+     * neither the batches nor the per thread buffers of the shared container.
+     */
+    private static class FileResults extends Result {
+        final List<LineResult> lines = new ArrayList<>(); // The line results of the file, in order
+
+        FileResults() {
+            super(null, false);
+        }
+
+        @Override
+        public void addResult(LineResult lineResult) {
+            lines.add(lineResult);
+        }
+
+        @Override
+        public void addResults(List<LineResult> lineResults) {
+            lines.addAll(lineResults);
+        }
+
+        @Override
+        public List<LineResult> getLineResults() {
+            return lines;
+        }
+    }
+
+    /**
+     * Generates a key for the query: the patterns with their flags, the working directory the
+     * files are relative to, and every option that changes which lines match or how they are
+     * reported. The files themselves are not part of the key, they are cached one by one.
      *
-     * @return A String representing the cache key.
+     * @return A String representing the query key.
      */
-    private String generateCacheKey() {
+    private String generateQueryKey() {
+        MyRegexOptions options = getOptions();
         StringBuilder keyBuilder = new StringBuilder();
+        // Every pattern and the directory carry their length, so no text can run into the next one
         keyBuilder.append("Patterns:");
         for (Pattern pattern : getRegexPatterns()) {
-            keyBuilder.append(pattern.toString()).append(",");
-        }
-        keyBuilder.append("|Files:");
-        for (String file : getFiles()) {
-            keyBuilder.append(file).append(",");
-        }
-        keyBuilder.append("|Dirs:");
-        for (String dir : getDirectories()) {
-            keyBuilder.append(dir).append(",");
+            String regex = pattern.toString();
+            keyBuilder.append(regex.length()).append(":").append(regex).append("/").append(pattern.flags()).append(",");
         }
+        keyBuilder.append("|Pwd:").append(getPwd().length()).append(":").append(getPwd());
+        keyBuilder.append("|Options:")
+                .append(options.invertedSearch ? "v" : "")
+                .append(options.wholeWord ? "w" : "")
+                .append(options.showLineNumbers ? "n" : "")
+                .append(options.showLines ? "l" : "")
+                .append(options.showFiles ? "f" : "")
+                .append(options.showPattern ? "p" : "")
+                .append(options.onlyCountLines ? "c" : "");
         // Generate a SHA-256 hash of the keyBuilder's content for a more compact and unique key representation
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -0,0 +1,351 @@
+package org.example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Breaks a search down into phases and reports where its time went, like EXPLAIN ANALYZE
+ * does for a query (-analyze).
+ * <p>
+ * Every thread keeps a stack of the phases it is in. Time is charged to the innermost phase
+ * only, so a read that happens while a line is being decoded counts as read, not as decode,
+ * and the phases add up to the time spent in them. The wall time is taken at every phase
+ * change. The CPU time, from ThreadMXBean, is only taken when a thread leaves its outermost
+ * phase, usually once per file, and is shared out among the phases by their wall time in
+ * that stretch; reading it at every line would cost more than the line itself.
+ * <p>
+ * A sampler also records the depth of the thread pool queue at fixed intervals, so the report
+ * shows whether the pool kept up with the files. Searches on virtual threads have no queue.
+ */
+public class SearchProfile {
+    static String ANSI_YELLOW = "\u001B[33m";
+    static String ANSI_RESET = "\u001B[0m";
+    // Interval between two samples of the queue depth, in milliseconds
+    static long SAMPLE_MILLIS = 10;
+    // Number of columns the queue depth timeline is summed up in
+    static int TIMELINE_COLUMNS = 20;
+
+    /**
+     * The phases of a search.
+     */
+    enum Phase {
+        WALK, // Listing directories and narrowing the files down with the index
+        CACHE, // Looking files up in the result cache and storing their results
+        OPEN, // Opening files
+        READ, // Reading bytes from files
+        DECODE, // Turning bytes into lines of text
+        MATCH, // Running the patterns, and anything not charged to another phase
+        BUILD, // Building line results
+        COLLECT, // Adding line results to the shared container, including waiting for its lock
+        OUTPUT // Printing results
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTime; // Whether the JVM can measure the CPU time of threads
+    private final LongAdder[] wallNanos = adders(); // Wall time of every phase, over all threads
+    private final LongAdder[] cpuNanos = adders(); // CPU time of every phase, over all threads
+    private final LongAdder[] calls = adders(); // Times every phase was entered
+    private final LongAdder unmeasured = new LongAdder(); // Stretches whose CPU time could not be read, as on virtual threads
+    private final ThreadLocal<Clock> clocks = ThreadLocal.withInitial(Clock::new); // Phase stack of every thread
+    private final long startNanos = System.nanoTime(); // Start of the search
+    private final List<Integer> queueDepths = new ArrayList<>(); // Queue depth at every sample, written by the sampler only
+    private ScheduledExecutorService sampler; // Samples the queue depth, null when nothing is watched
+
+    final LongAdder bytes = new LongAdder(); // Bytes read from files
+    final LongAdder lines = new LongAdder(); // Lines read from files
+    final LongAdder filesSearched = new LongAdder(); // Files opened for searching
+    final LongAdder filesSkipped = new LongAdder(); // Files left out by the trigram index
+    final LongAdder cacheHits = new LongAdder(); // Files whose results came from the cache
+    final LongAdder cacheMisses = new LongAdder(); // Files that had to be searched
+
+    public SearchProfile() {
+        this.cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        if (cpuTime && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[PHASES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Enters a phase on the current thread. Every call must be matched by a call to exit.
+     *
+     * @param phase The phase.
+     */
+    void enter(Phase phase) {
+        clocks.get().enter(phase);
+    }
+
+    /**
+     * Leaves the phase the current thread entered last.
+     */
+    void exit() {
+        clocks.get().exit();
+    }
+
+    /**
+     * Starts sampling the depth of a queue.
+     *
+     * @param depth Reads the depth of the queue.
+     */
+    void watchQueue(IntSupplier depth) {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "profile-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> queueDepths.add(depth.getAsInt()), 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling the queue depth.
+     */
+    void stopWatching() {
+        if (sampler == null) {
+            return;
+        }
+        sampler.shutdown();
+        try {
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints the report: one row per phase, then the counters and the queue depth over time.
+     */
+    public void printReport() {
+        long elapsed = System.nanoTime() - startNanos;
+        StringBuilder sb = new StringBuilder();
+        sb.append(ANSI_YELLOW).append("Search analysis, ").append(elapsed / 1_000_000).append("ms elapsed (times are summed over all threads)\n");
+        sb.append(String.format("  %-8s %12s %12s %12s%n", "phase", "wall ms", "cpu ms", "calls"));
+        for (Phase phase : PHASES) {
+            int i = phase.ordinal();
+            sb.append(String.format("  %-8s %12.1f %12s %12d%n", phase.name().toLowerCase(), wallNanos[i].sum() / 1e6,
+                    cpuTime ? String.format("%.1f", cpuNanos[i].sum() / 1e6) : "n/a", calls[i].sum()));
+        }
+        sb.append("  bytes read: ").append(bytes.sum()).append(", lines read: ").append(lines.sum()).append('\n');
+        sb.append("  files searched: ").append(filesSearched.sum()).append(", files skipped: ").append(filesSkipped.sum()).append('\n');
+        sb.append("  cache hits: ").append(cacheHits.sum()).append(", cache misses: ").append(cacheMisses.sum()).append('\n');
+        if (unmeasured.sum() > 0) {
+            sb.append("  cpu time is missing for ").append(unmeasured.sum()).append(" stretches on virtual threads\n");
+        }
+        appendQueueDepths(sb);
+        sb.append(ANSI_RESET);
+        System.out.print(sb);
+    }
+
+    private void appendQueueDepths(StringBuilder sb) {
+        stopWatching();
+        if (queueDepths.isEmpty()) {
+            return;
+        }
+        int max = 0;
+        long sum = 0;
+        for (int depth : queueDepths) {
+            max = Math.max(max, depth);
+            sum += depth;
+        }
+        sb.append(String.format("  pool queue depth: max %d, mean %.1f, over %d samples every %dms%n", max, (double) sum / queueDepths.size(),
+                queueDepths.size(), SAMPLE_MILLIS));
+        // The largest depth of every stretch of the search, from its start to its end
+        int columns = Math.min(TIMELINE_COLUMNS, queueDepths.size());
+        sb.append("  queue depth over time:");
+        for (int c = 0; c < columns; c++) {
+            int from = c * queueDepths.size() / columns;
+            int to = (c + 1) * queueDepths.size() / columns;
+            int peak = 0;
+            for (int s = from; s < to; s++) {
+                peak = Math.max(peak, queueDepths.get(s));
+            }
+            sb.append(' ').append(peak);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * @return The CPU time of the current thread, 0 if it is not measured, or -1 on a virtual thread.
+     */
+    private long threadCpuTime() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * The phase stack of one thread, with the time charged to every phase since the thread last
+     * left its outermost phase.
+     */
+    private class Clock {
+        private final long[] wall = new long[PHASES.length]; // Wall time of every phase, not yet added up
+        private final long[] entered = new long[PHASES.length]; // Times every phase was entered, not yet added up
+        private int[] stack = new int[8]; // Phases the thread is in, innermost last
+        private int depth; // Number of phases on the stack
+        private long last; // Time of the last phase change
+        private long cpuStart; // CPU time of the thread when it entered its outermost phase
+
+        void enter(Phase phase) {
+            long now = System.nanoTime();
+            if (depth == 0) {
+                cpuStart = threadCpuTime();
+            } else {
+                wall[stack[depth - 1]] += now - last;
+            }
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = phase.ordinal();
+            entered[phase.ordinal()]++;
+            last = now;
+        }
+
+        void exit() {
+            long now = System.nanoTime();
+            wall[stack[--depth]] += now - last;
+            last = now;
+            if (depth == 0) {
+                flush();
+            }
+        }
+
+        /**
+         * Adds the times of the stretch that just ended to the totals, sharing out its CPU time.
+         */
+        private void flush() {
+            long cpuEnd = threadCpuTime();
+            long cpu = cpuEnd - cpuStart;
+            if (cpuStart < 0 || cpuEnd < 0) {
+                cpu = 0;
+                unmeasured.increment();
+            }
+            long total = 0;
+            for (long nanos : wall) {
+                total += nanos;
+            }
+            for (int i = 0; i < wall.length; i++) {
+                if (wall[i] != 0 || entered[i] != 0) {
+                    wallNanos[i].add(wall[i]);
+                    cpuNanos[i].add((total > 0) ? (long) ((double) cpu * wall[i] / total) : 0);
+                    calls[i].add(entered[i]);
+                    wall[i] = 0;
+                    entered[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * A result container that charges adding results to the collect phase.
+     */
+    static class ProfiledResult extends Result {
+        private final SearchProfile profile;
+
+        ProfiledResult(ResultSink sink, SearchProfile profile) {
+            super(sink);
+            this.profile = profile;
+        }
+
+        @Override
+        public void addResult(LineResult lineResult) {
+            profile.enter(Phase.COLLECT);
+            try {
+                super.addResult(lineResult);
+            } finally {
+                profile.exit();
+            }
+        }
+
+        @Override
+        public void addResults(List<LineResult> lineResults) {
+            profile.enter(Phase.COLLECT);
+            try {
+                super.addResults(lineResults);
+            } finally {
+                profile.exit();
+            }
+        }
+
+        @Override
+        public void addCounts(String file, MatchCounter counter) {
+            profile.enter(Phase.COLLECT);
+            try {
+                super.addCounts(file, counter);
+            } finally {
+                profile.exit();
+            }
+        }
+    }
+
+    /**
+     * A builder that charges building results to the build phase.
+     */
+    static class ProfiledBuilder extends LineResult.Builder {
+        private final SearchProfile profile;
+
+        ProfiledBuilder(MyRegexOptions options, SearchProfile profile) {
+            super(options);
+            this.profile = profile;
+        }
+
+        @Override
+        public LineResult build(Integer lineNumber, String line, String file, Pattern pattern) {
+            profile.enter(Phase.BUILD);
+            try {
+                return super.build(lineNumber, line, file, pattern);
+            } finally {
+                profile.exit();
+            }
+        }
+    }
+
+    /**
+     * A stream that charges reading to the read phase and counts the bytes read.
+     */
+    static class ProfiledInputStream extends FilterInputStream {
+        private final SearchProfile profile;
+
+        ProfiledInputStream(InputStream in, SearchProfile profile) {
+            super(in);
+            this.profile = profile;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            profile.enter(Phase.READ);
+            try {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    profile.bytes.add(read);
+                }
+                return read;
+            } finally {
+                profile.exit();
+            }
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An on-disk trigram index of the files searched from one working directory, used to open only
+ * the files that can hold a match.
+ * <p>
+ * The index maps every trigram (three consecutive bytes of a line, with ASCII letters folded to
+ * lower case) to the sorted ids of the files that contain it. Posting lists are kept delta and
+ * varint encoded, in memory as well as on disk, and are only decoded for the trigrams of a query.
+ * Every file is recorded with its size, modification time and file key, as the result cache
+ * fingerprints files; before a query the index is brought up to date by re-reading only the files
+ * whose fingerprint changed, and dropping the files that are gone. Files modified within the
+ * racy window of the cache are not indexed but always searched, since an edit that keeps the
+ * size within the timestamp granularity would otherwise leave stale trigrams behind. The candidates are still searched as usual, so the index
+ * only decides which files are opened and never changes the results.
+ */
+public class TrigramIndex {
+    static String ANSI_YELLOW = "\u001B[33m";
+    static String ANSI_RESET = "\u001B[0m";
+    private static final int MAGIC = 0x54524732; // "TRG2", the format of the index file
+    private static final int TRIGRAM_SPACE = 1 << 24; // Number of possible trigrams
+
+    private final Path indexFile; // Where the index is stored
+    private List<String> paths = new ArrayList<>(); // Path of every file, by id
+    private List<Stamp> stamps = new ArrayList<>(); // Fingerprint of every file, by id
+    private Map<Integer, byte[]> postings = new HashMap<>(); // Encoded ids of the files holding every trigram
+    private final Set<String> unindexed = new HashSet<>(); // Files that could not be read or were just modified, always candidates
+
+    // Trigrams seen in the file being read by each thread, as a bitmap and as a list to clear it
+    private static final ThreadLocal<long[]> SEEN = ThreadLocal.withInitial(() -> new long[TRIGRAM_SPACE / 64]);
+
+    /**
+     * The fingerprint of an indexed file, compared like the fingerprint of a cache entry.
+     */
+    private static class Stamp {
+        final long size; // Size of the file when it was indexed
+        final long lastModified; // Modification time of the file when it was indexed, in milliseconds
+        final String fileKey; // File key of the file when it was indexed, or null if the file system has none
+
+        Stamp(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        boolean matches(Stamp other) {
+            return size == other.size && lastModified == other.lastModified
+                    && (fileKey == null ? other.fileKey == null : fileKey.equals(other.fileKey));
+        }
+    }
+
+    private TrigramIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Opens the index of a working directory, which is empty if it was never built.
+     *
+     * @param pwd The working directory the indexed files are relative to.
+     * @return The index.
+     */
+    public static TrigramIndex open(String pwd) {
+        Path dir = Paths.get(CacheManager.CACHE_DIRECTORY, "trigrams");
+        String name = UUID.nameUUIDFromBytes(pwd.getBytes(StandardCharsets.UTF_8)) + ".idx";
+        TrigramIndex index = new TrigramIndex(dir.resolve(name));
+        if (Files.exists(index.indexFile)) {
+            try {
+                index.load();
+            } catch (IOException e) {
+                System.out.println("[ERROR] reading trigram index " + index.indexFile + " : " + e + ", rebuilding it");
+                index.paths = new ArrayList<>();
+                index.stamps = new ArrayList<>();
+                index.postings = new HashMap<>();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Brings the index up to date with the given files: files whose fingerprint changed, and new
+     * files, are read again; files that are not in the list any more are dropped. Files modified
+     * within the racy window are dropped as well and left unindexed. The index is saved if
+     * anything changed.
+     *
+     * @param pwd   The working directory the files are relative to.
+     * @param files The files to index.
+     * @return The number of files that were read.
+     * @throws InterruptedException If interrupted while reading files.
+     */
+    public int update(String pwd, List<String> files) throws InterruptedException {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int id = 0; id < paths.size(); id++) {
+            ids.put(paths.get(id), id);
+        }
+        boolean[] keep = new boolean[paths.size()];
+        List<String> changed = new ArrayList<>();
+        List<Stamp> changedStamps = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String file : files) {
+            Stamp stamp = stamp(Paths.get(pwd, file));
+            Integer id = ids.get(file);
+            if (stamp != null && now - stamp.lastModified < CacheManager.RACY_WINDOW_MS) {
+                // A second edit within the timestamp granularity would go unnoticed
+                unindexed.add(file);
+            } else if (id != null && stamp != null && stamps.get(id).matches(stamp)) {
+                keep[id] = true;
+            } else if (stamp != null) {
+                changed.add(file);
+                changedStamps.add(stamp);
+            } else {
+                unindexed.add(file);
+            }
+        }
+        int kept = 0;
+        int[] renumbered = new int[paths.size()]; // New id of every kept file, in the same order, or -1
+        List<String> newPaths = new ArrayList<>();
+        List<Stamp> newStamps = new ArrayList<>();
+        for (int id = 0; id < paths.size(); id++) {
+            renumbered[id] = keep[id] ? kept++ : -1;
+            if (keep[id]) {
+                newPaths.add(paths.get(id));
+                newStamps.add(stamps.get(id));
+            }
+        }
+        if (changed.isEmpty() && kept == paths.size()) {
+            return 0;
+        }
+
+        // Read the changed files in parallel, each one gets an id after all kept files
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<int[]>> read = new ArrayList<>();
+        for (String file : changed) {
+            read.add(executor.submit(() -> readTrigrams(Paths.get(pwd, file))));
+        }
+        Map<Integer, IdList> added = new HashMap<>();
+        for (int i = 0; i < changed.size(); i++) {
+            int[] trigrams;
+            try {
+                trigrams = read.get(i).get();
+            } catch (Exception e) {
+                System.out.println("[ERROR] indexing " + changed.get(i) + " : " + e);
+                unindexed.add(changed.get(i));
+                continue;
+            }
+            int id = newPaths.size();
+            newPaths.add(changed.get(i));
+            newStamps.add(changedStamps.get(i));
+            for (int trigram : trigrams) {
+                added.computeIfAbsent(trigram, t -> new IdList()).add(id);
+            }
+        }
+        executor.shutdown();
+
+        // Merge: renumber or drop the old ids of every posting list and append the new ones
+        Map<Integer, byte[]> merged = new HashMap<>();
+        Set<Integer> trigrams = new HashSet<>(postings.keySet());
+        trigrams.addAll(added.keySet());
+        for (int trigram : trigrams) {
+            IdList list = new IdList();
+            byte[] old = postings.get(trigram);
+            if (old != null) {
+                for (int id : decode(old)) {
+                    if (renumbered[id] >= 0) {
+                        list.add(renumbered[id]);
+                    }
+                }
+            }
+            IdList fresh = added.get(trigram);
+            if (fresh != null) {
+                for (int i = 0; i < fresh.size; i++) {
+                    list.add(fresh.ids[i]);
+                }
+            }
+            if (list.size > 0) {
+                merged.put(trigram, encode(list));
+            }
+        }
+        paths = newPaths;
+        stamps = newStamps;
+        postings = merged;
+        try {
+            save();
+        } catch (IOException e) {
+            System.out.println("[ERROR] writing trigram index " + indexFile + " : " + e);
+        }
+        return changed.size();
+    }
+
+    /**
+     * Finds the files that can hold a match of the query.
+     *
+     * @param query The trigram query of the search patterns.
+     * @return The candidate files, or null if every file can match.
+     */
+    public Set<String> candidates(TrigramQuery query) {
+        if (query.matchesAnyFile()) {
+            return null;
+        }
+        Set<String> candidates = new HashSet<>(unindexed);
+        for (int[] alternative : query.getAlternatives()) {
+            int[] ids = null;
+            for (int trigram : alternative) {
+                byte[] encoded = postings.get(trigram);
+                ids = (encoded == null) ? new int[0] : (ids == null) ? decode(encoded) : intersect(ids, decode(encoded));
+                if (ids.length == 0) {
+                    break;
+                }
+            }
+            for (int id : ids) {
+                candidates.add(paths.get(id));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return The number of files in the index.
+     */
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * Reads the size, modification time and file key of a file.
+     *
+     * @return The stamp, or null if the file cannot be read.
+     */
+    private static Stamp stamp(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Stamp(attrs.size(), attrs.lastModifiedTime().toMillis(), (attrs.fileKey() != null) ? attrs.fileKey().toString() : null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the distinct trigrams of a file. Trigrams never span a line break, since the search
+     * matches lines one by one.
+     *
+     * @param path The file.
+     * @return The trigrams of the file, in no particular order.
+     * @throws IOException If the file cannot be read.
+     */
+    static int[] readTrigrams(Path path) throws IOException {
+        long[] seen = SEEN.get();
+        IdList found = new IdList();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            int previous = 0; // The last two bytes of the line read so far, folded
+            int length = 0; // Number of bytes of the line read so far, up to 2
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (bytes[i] == '\n') {
+                        length = 0;
+                        continue;
+                    }
+                    int b = TrigramQuery.fold(bytes[i]);
+                    if (length >= 2) {
+                        int trigram = ((previous & 0xFFFF) << 8) | b;
+                        long bit = 1L << trigram;
+                        if ((seen[trigram >>> 6] & bit) == 0) {
+                            seen[trigram >>> 6] |= bit;
+                            found.add(trigram);
+                        }
+                    } else {
+                        length++;
+                    }
+                    previous = (previous << 8) | b;
+                }
+                buffer.clear();
+            }
+        } finally {
+            for (int i = 0; i < found.size; i++) {
+                seen[found.ids[i] >>> 6] = 0;
+            }
+        }
+        return Arrays.copyOf(found.ids, found.size);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Encodes sorted ids as varint deltas, preceded by their count.
+     */
+    private static byte[] encode(IdList list) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(list.size + 4);
+        writeVarint(out, list.size);
+        int last = 0;
+        for (int i = 0; i < list.size; i++) {
+            writeVarint(out, list.ids[i] - last);
+            last = list.ids[i];
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] decode(byte[] encoded) {
+        int[] position = {0};
+        int[] ids = new int[readVarint(encoded, position)];
+        int last = 0;
+        for (int i = 0; i < ids.length; i++) {
+            last += readVarint(encoded, position);
+            ids[i] = last;
+        }
+        return ids;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it in place, so a reader never sees a
+     * partly written index. When several processes update the same index the last one wins.
+     */
+    private void save() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path temporary = Files.createTempFile(indexFile.getParent(), "trigrams", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(paths.size());
+            for (int id = 0; id < paths.size(); id++) {
+                out.writeUTF(paths.get(id));
+                Stamp stamp = stamps.get(id);
+                out.writeLong(stamp.size);
+                out.writeLong(stamp.lastModified);
+                out.writeUTF((stamp.fileKey != null) ? stamp.fileKey : "");
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<Integer, byte[]> posting : postings.entrySet()) {
+                out.writeInt(posting.getKey());
+                out.writeInt(posting.getValue().length);
+                out.write(posting.getValue());
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a trigram index");
+            }
+            int files = in.readInt();
+            for (int id = 0; id < files; id++) {
+                paths.add(in.readUTF());
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String fileKey = in.readUTF();
+                stamps.add(new Stamp(size, lastModified, fileKey.isEmpty() ? null : fileKey));
+            }
+            int trigrams = in.readInt();
+            for (int i = 0; i < trigrams; i++) {
+                int trigram = in.readInt();
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                postings.put(trigram, encoded);
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints.
+     */
+    private static class IdList {
+        int[] ids = new int[8]; // The values
+        int size; // Number of values
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * Prints a summary of the index after an update and a query.
+     *
+     * @param reindexed  The number of files read by the update.
+     * @param candidates The number of candidate files.
+     * @param millis     The time the update and the query took.
+     */
+    public void printSummary(int reindexed, int candidates, long millis) {
+        System.out.println(ANSI_YELLOW + "Trigram index: " + paths.size() + " files, " + reindexed + " read again, "
+                + candidates + " candidates, " + millis + "ms" + ANSI_RESET);
+    }
+}
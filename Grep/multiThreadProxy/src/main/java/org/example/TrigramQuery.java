@@ -0,0 +1,357 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * The trigrams a file must contain to possibly hold a match, worked out from the search patterns.
+ * <p>
+ * Every pattern is split at its top level alternations, and every alternative is reduced to the
+ * literal fragments that any match of it must contain: runs of plain characters that are not
+ * made optional by a quantifier. Groups, character classes, escapes such as \d and the dot end a
+ * fragment and are otherwise ignored, which can only make the query match more files, never
+ * fewer. A file can match if it holds every trigram of at least one alternative of at least one
+ * pattern. Trigrams are taken from the UTF-8 bytes of the fragments with ASCII letters folded
+ * to lower case, the same way the index folds file contents.
+ */
+public class TrigramQuery {
+    private final List<int[]> alternatives; // Sorted trigrams of every alternative, or null if any file can match
+
+    private TrigramQuery(List<int[]> alternatives) {
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * Plans the query for a set of patterns.
+     *
+     * @param patterns The search patterns, any of which may match a line.
+     * @param inverted Whether lines that do not match are searched for, in which case any file can match.
+     * @return The query.
+     */
+    public static TrigramQuery of(List<Pattern> patterns, boolean inverted) {
+        if (inverted || patterns.isEmpty()) {
+            return new TrigramQuery(null);
+        }
+        List<int[]> alternatives = new ArrayList<>();
+        for (Pattern pattern : patterns) {
+            List<List<String>> planned = plan(pattern);
+            if (planned == null) {
+                return new TrigramQuery(null);
+            }
+            for (List<String> fragments : planned) {
+                int[] trigrams = trigrams(fragments);
+                if (trigrams.length == 0) {
+                    return new TrigramQuery(null); // An alternative without trigrams can match anywhere
+                }
+                alternatives.add(trigrams);
+            }
+        }
+        return new TrigramQuery(alternatives);
+    }
+
+    /**
+     * @return true if the patterns give no trigrams, so every file has to be searched.
+     */
+    public boolean matchesAnyFile() {
+        return alternatives == null;
+    }
+
+    /**
+     * @return The sorted trigrams of every alternative; a file can match if it holds all of one of them.
+     */
+    public List<int[]> getAlternatives() {
+        return alternatives;
+    }
+
+    /**
+     * Reduces a pattern to the literal fragments of each of its top level alternatives.
+     *
+     * @param pattern The pattern.
+     * @return The fragments of every alternative, or null if the pattern cannot be planned.
+     */
+    static List<List<String>> plan(Pattern pattern) {
+        String regex = pattern.pattern();
+        int flags = pattern.flags();
+        // Non-ASCII letters are not case folded by the index, so a case-insensitive match may differ in their bytes
+        boolean foldsCase = (flags & (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)) != 0 || regex.contains("(?");
+        List<List<String>> alternatives = new ArrayList<>();
+        if ((flags & Pattern.LITERAL) != 0) {
+            Fragments fragments = new Fragments(foldsCase);
+            for (int i = 0; i < regex.length(); i++) {
+                fragments.append(regex.charAt(i));
+            }
+            alternatives.add(fragments.finish());
+            return alternatives;
+        }
+        if ((flags & Pattern.COMMENTS) != 0) {
+            return null;
+        }
+        Fragments fragments = new Fragments(foldsCase);
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '\\':
+                    i = escape(regex, i, fragments);
+                    break;
+                case '[':
+                    i = skipClass(regex, i);
+                    fragments.breakFragment();
+                    break;
+                case '(':
+                    i = skipGroup(regex, i);
+                    fragments.breakFragment();
+                    break;
+                case '|':
+                    alternatives.add(fragments.finish());
+                    fragments = new Fragments(foldsCase);
+                    i++;
+                    break;
+                case '*':
+                case '?':
+                    fragments.optional();
+                    i++;
+                    break;
+                case '+':
+                    fragments.repeated();
+                    i++;
+                    break;
+                case '{':
+                    int close = regex.indexOf('}', i);
+                    if (close < 0) {
+                        fragments.append(c);
+                        i++;
+                        break;
+                    }
+                    String bounds = regex.substring(i + 1, close);
+                    int comma = bounds.indexOf(',');
+                    String min = (comma < 0) ? bounds : bounds.substring(0, comma);
+                    if (min.strip().equals("0")) {
+                        fragments.optional();
+                    } else {
+                        fragments.repeated();
+                    }
+                    i = close + 1;
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    fragments.breakFragment();
+                    i++;
+                    break;
+                default:
+                    fragments.append(c);
+                    i++;
+                    break;
+            }
+        }
+        alternatives.add(fragments.finish());
+        return alternatives;
+    }
+
+    /**
+     * Reads an escape. An escaped punctuation character is a literal, any other escape (classes,
+     * anchors, back references, code points) ends the fragment.
+     *
+     * @return The index after the escape.
+     */
+    private static int escape(String regex, int i, Fragments fragments) {
+        if (i + 1 >= regex.length()) {
+            return i + 1;
+        }
+        char d = regex.charAt(i + 1);
+        if (!Character.isLetterOrDigit(d)) {
+            fragments.append(d);
+            return i + 2;
+        }
+        fragments.breakFragment();
+        int j = i + 2;
+        switch (d) {
+            case 'Q':
+                int end = regex.indexOf("\\E", j);
+                String quoted = regex.substring(j, (end < 0) ? regex.length() : end);
+                for (int k = 0; k < quoted.length(); k++) {
+                    fragments.append(quoted.charAt(k));
+                }
+                return (end < 0) ? regex.length() : end + 2;
+            case 'x':
+            case 'p':
+            case 'P':
+            case 'N':
+            case 'k':
+                if (j < regex.length() && (regex.charAt(j) == '{' || regex.charAt(j) == '<')) {
+                    int close = regex.indexOf(regex.charAt(j) == '{' ? '}' : '>', j);
+                    return (close < 0) ? regex.length() : close + 1;
+                }
+                return Math.min(regex.length(), j + (d == 'x' ? 2 : 1));
+            case 'u':
+                return Math.min(regex.length(), j + 4);
+            case 'c':
+                return Math.min(regex.length(), j + 1);
+            default:
+                while (Character.isDigit(d) && j < regex.length() && Character.isDigit(regex.charAt(j))) {
+                    j++; // Octal escapes and back references
+                }
+                return j;
+        }
+    }
+
+    /**
+     * @return The index after the character class starting at i.
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int j = i;
+        while (j < regex.length()) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                if (j + 1 < regex.length() && regex.charAt(j + 1) == '^') {
+                    j++;
+                }
+                if (j + 1 < regex.length() && regex.charAt(j + 1) == ']') {
+                    j++; // A ] right after the opening bracket is a member of the class
+                }
+            } else if (c == ']' && --depth == 0) {
+                return j + 1;
+            }
+            j++;
+        }
+        return regex.length();
+    }
+
+    /**
+     * @return The index after the group starting at i.
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int j = i;
+        while (j < regex.length()) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                j = skipClass(regex, j);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return j + 1;
+            }
+            j++;
+        }
+        return regex.length();
+    }
+
+    /**
+     * Collects the literal fragments of one alternative.
+     */
+    private static class Fragments {
+        private final boolean foldsCase; // Whether non-ASCII letters may match in another case
+        private final List<String> done = new ArrayList<>(); // Finished fragments
+        private final StringBuilder current = new StringBuilder(); // The fragment being read
+        private boolean lastIsLiteral; // Whether the last atom read is the last character of the current fragment
+
+        Fragments(boolean foldsCase) {
+            this.foldsCase = foldsCase;
+        }
+
+        void append(char c) {
+            if (c == '\n' || c == '\r' || (foldsCase && c > 127)) {
+                breakFragment();
+                return;
+            }
+            current.append(c);
+            lastIsLiteral = true;
+        }
+
+        /**
+         * The last atom may be absent: it is dropped from the fragment, which ends there.
+         */
+        void optional() {
+            if (lastIsLiteral) {
+                current.setLength(current.length() - 1);
+            }
+            breakFragment();
+        }
+
+        /**
+         * The last atom may repeat: the fragment ends after it, and the next one starts with it.
+         */
+        void repeated() {
+            if (!lastIsLiteral) {
+                breakFragment();
+                return;
+            }
+            char last = current.charAt(current.length() - 1);
+            breakFragment();
+            current.append(last);
+            lastIsLiteral = false;
+        }
+
+        void breakFragment() {
+            if (current.length() > 0) {
+                done.add(current.toString());
+                current.setLength(0);
+            }
+            lastIsLiteral = false;
+        }
+
+        List<String> finish() {
+            breakFragment();
+            return done;
+        }
+    }
+
+    /**
+     * Computes the distinct trigrams of the given fragments.
+     *
+     * @param fragments The literal fragments.
+     * @return The sorted trigrams.
+     */
+    static int[] trigrams(List<String> fragments) {
+        TreeSet<Integer> trigrams = new TreeSet<>();
+        for (String fragment : fragments) {
+            byte[] bytes = fragment.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                trigrams.add(trigram(bytes[i], bytes[i + 1], bytes[i + 2]));
+            }
+        }
+        return trigrams.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Packs three bytes into a trigram, folding ASCII letters to lower case.
+     */
+    static int trigram(byte a, byte b, byte c) {
+        return (fold(a) << 16) | (fold(b) << 8) | fold(c);
+    }
+
+    static int fold(byte b) {
+        int value = b & 0xFF;
+        return (value >= 'A' && value <= 'Z') ? value + ('a' - 'A') : value;
+    }
+
+    @Override
+    public String toString() {
+        if (alternatives == null) {
+            return "TrigramQuery{any file}";
+        }
+        StringBuilder sb = new StringBuilder("TrigramQuery{");
+        for (int[] trigrams : alternatives) {
+            sb.append(Arrays.toString(trigrams)).append(" ");
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoundedCacheTest {
+
+    private BoundedCache<String, Integer> cache;
+
+    // Every value weighs as much as the number it holds
+    private BoundedCache<String, Integer> cache(long maxWeight, long idleTime, TimeUnit unit) {
+        cache = new BoundedCache<>(maxWeight, idleTime, unit, Integer::longValue);
+        return cache;
+    }
+
+    @AfterEach
+    public void shutdown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testOneOffScanDoesNotFlushFrequentlyUsedEntries() {
+        BoundedCache<String, Integer> realCache = cache(1000, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 50; i++) {
+            realCache.put("hot" + i, 10);
+        }
+        for (int use = 0; use < 5; use++) {
+            for (int i = 0; i < 50; i++) {
+                assertNotNull(realCache.get("hot" + i));
+            }
+        }
+
+        // Ten times as many entries as fit, each used once
+        for (int i = 0; i < 1000; i++) {
+            realCache.put("scan" + i, 10);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            assertNotNull(realCache.get("hot" + i), "hot" + i);
+        }
+        assertTrue(realCache.weight() <= 1000);
+    }
+
+    @Test
+    public void testWeightStaysWithinTheBudget() {
+        BoundedCache<String, Integer> realCache = cache(1000, 1, TimeUnit.HOURS);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            realCache.put("key" + random.nextInt(500), 1 + random.nextInt(100));
+            assertTrue(realCache.weight() <= 1000, "weight " + realCache.weight() + " after " + i + " puts");
+            if (i % 3 == 0) {
+                realCache.get("key" + random.nextInt(500));
+            }
+        }
+        assertTrue(realCache.evictionCount() > 0);
+
+        // Removing everything leaves nothing behind in the accounting
+        for (int i = 0; i < 500; i++) {
+            realCache.remove("key" + i);
+        }
+        assertEquals(0, realCache.size());
+        assertEquals(0, realCache.weight());
+        // Replacing a value counts only the new weight
+        realCache.put("replaced", 30);
+        realCache.put("replaced", 50);
+        assertEquals(50, realCache.weight());
+    }
+
+    @Test
+    public void testEntryHeavierThanTheBudgetIsRefused() {
+        BoundedCache<String, Integer> realCache = cache(1000, 1, TimeUnit.HOURS);
+        realCache.put("small", 10);
+
+        realCache.put("big", 1001);
+        // A value that grows too heavy replaces the old one and is refused as well
+        realCache.put("small", 2000);
+
+        assertNull(realCache.get("big"));
+        assertNull(realCache.get("small"));
+        assertEquals(0, realCache.size());
+        assertEquals(0, realCache.weight());
+        assertEquals(2, realCache.evictionCount());
+    }
+
+    @Test
+    public void testIdleEntriesAreExpiredByTheSweeper() throws InterruptedException {
+        BoundedCache<String, Integer> realCache = cache(1000, 200, TimeUnit.MILLISECONDS);
+        realCache.put("idle1", 10);
+        realCache.put("idle2", 20);
+        realCache.put("used", 30);
+
+        // Only the used entry is looked up, the sweeper has to find the others on its own
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (realCache.size() > 1 && System.nanoTime() < end) {
+            assertNotNull(realCache.get("used"));
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, realCache.size());
+        assertEquals(30, realCache.weight());
+        assertEquals(2, realCache.expirationCount());
+        assertEquals(Integer.valueOf(30), realCache.get("used"));
+    }
+}
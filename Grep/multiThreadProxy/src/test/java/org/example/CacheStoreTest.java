@@ -0,0 +1,147 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CacheStoreTest {
+
+    @TempDir
+    Path base;
+
+    private final long diskBudget = CacheStore.DISK_BUDGET;
+
+    @AfterEach
+    public void restoreBudget() {
+        CacheStore.DISK_BUDGET = diskBudget;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(base)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    @Test
+    public void testValuesPutAndCheckpointedAreReadBackAfterReopening() throws Exception {
+        CacheStore store = new CacheStore(base);
+        ArrayList<String> lines = new ArrayList<>(List.of("first line", "second line"));
+        store.put("a", "value of a");
+        store.put("b", lines);
+        store.put("a", "new value of a");
+        // Values not yet written are served from memory
+        assertEquals("new value of a", store.get("a"));
+        store.checkpoint();
+
+        CacheStore realStore = new CacheStore(base);
+
+        assertEquals("new value of a", realStore.get("a"));
+        assertEquals(lines, realStore.get("b"));
+        assertNull(realStore.get("c"));
+    }
+
+    @Test
+    public void testAppendAfterATornTailCutsTheTornRecordOff() throws Exception {
+        CacheStore store = new CacheStore(base);
+        store.put("a", "value of a");
+        store.checkpoint();
+        Path segment = segments().get(0);
+        long validSize = Files.size(segment);
+        // A writer killed mid-append: the header promises more bytes than were written
+        ByteBuffer torn = ByteBuffer.allocate(16).putInt(4).putInt(100).putInt(0).putInt(0x6b657921);
+        torn.flip();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(torn);
+        }
+
+        CacheStore afterCrash = new CacheStore(base);
+        assertEquals("value of a", afterCrash.get("a"));
+        afterCrash.put("b", "value of b");
+        afterCrash.checkpoint();
+        // Otherwise the torn header would swallow the new record when the segment is scanned
+        CacheStore realStore = new CacheStore(base);
+
+        assertEquals("value of a", realStore.get("a"));
+        assertEquals("value of b", realStore.get("b"));
+        // Both records have keys and values of the same lengths
+        assertEquals(2 * validSize, Files.size(segment));
+    }
+
+    @Test
+    public void testTornTailIsCutOffByTheProcessThatLastAppended() throws Exception {
+        CacheStore store = new CacheStore(base);
+        store.put("a", "value of a");
+        store.checkpoint();
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 4, 0, 0}));
+        }
+
+        // The store knows where its own records end, and checks what was added after them
+        store.put("b", "value of b");
+        store.checkpoint();
+        CacheStore realStore = new CacheStore(base);
+
+        assertEquals("value of a", realStore.get("a"));
+        assertEquals("value of b", realStore.get("b"));
+    }
+
+    @Test
+    public void testRemovalSurvivesReopening() throws Exception {
+        CacheStore store = new CacheStore(base);
+        store.put("a", "value of a");
+        store.put("b", "value of b");
+        store.checkpoint();
+
+        CacheStore reopened = new CacheStore(base);
+        reopened.remove("a");
+        assertNull(reopened.get("a"));
+        reopened.checkpoint();
+        assertNull(reopened.get("a"));
+        CacheStore realStore = new CacheStore(base);
+
+        assertNull(realStore.get("a"));
+        assertEquals("value of b", realStore.get("b"));
+    }
+
+    @Test
+    public void testCompactionOverTheDiskBudgetDropsTheOldestRecords() throws Exception {
+        CacheStore store = new CacheStore(base);
+        String value = "x".repeat(1000);
+        for (int i = 0; i < 10; i++) {
+            store.put("k" + i, value);
+        }
+        store.checkpoint();
+        long recordSize = Files.size(segments().get(0)) / 10;
+        // Writing k0 again makes it the newest record
+        store.put("k0", value);
+        CacheStore.DISK_BUDGET = recordSize * 4 + recordSize / 2;
+
+        store.checkpoint();
+        CacheStore realStore = new CacheStore(base);
+
+        assertEquals(1, segments().size());
+        assertEquals(recordSize * 4, Files.size(segments().get(0)));
+        for (CacheStore checked : List.of(store, realStore)) {
+            for (int i = 1; i <= 6; i++) {
+                assertNull(checked.get("k" + i));
+            }
+            for (int i : new int[]{7, 8, 9, 0}) {
+                assertEquals(value, checked.get("k" + i));
+            }
+        }
+    }
+}
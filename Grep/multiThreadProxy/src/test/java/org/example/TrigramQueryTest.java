@@ -0,0 +1,190 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrigramQueryTest {
+
+    @TempDir
+    Path base;
+
+    private final String cacheDirectory = CacheManager.CACHE_DIRECTORY;
+
+    @AfterEach
+    public void restoreCacheDirectory() {
+        CacheManager.CACHE_DIRECTORY = cacheDirectory;
+    }
+
+    // Pattern, flags, and the fragments of every alternative, or null if any file can match
+    private static final Object[][] PLANS = {
+            {"hello", 0, "[[hello]]"},
+            {"foo|bar", 0, "[[foo], [bar]]"},
+            {"foo|", 0, "[[foo], []]"},
+            // Quantifiers: an optional atom is dropped, a repeated one starts the next fragment
+            {"colou?r", 0, "[[colo, r]]"},
+            {"ab*cd", 0, "[[a, cd]]"},
+            {"abc{0,3}def", 0, "[[ab, def]]"},
+            {"abc{2}def", 0, "[[abc, cdef]]"},
+            {"ab+cd", 0, "[[ab, bcd]]"},
+            {"ab+?cd", 0, "[[ab, b, cd]]"},
+            {"ab*+cd", 0, "[[a, cd]]"},
+            // Classes, groups, anchors and the dot end a fragment
+            {"x[abc]yz", 0, "[[x, yz]]"},
+            {"[]|a]bcd|e[^]]fgh", 0, "[[bcd], [e, fgh]]"},
+            {"foo(bar|baz)+qux", 0, "[[foo, qux]]"},
+            {"pre(a(b)c)?post", 0, "[[pre, post]]"},
+            {"^start.*end$", 0, "[[start, end]]"},
+            // Escaped punctuation is a literal, other escapes end a fragment
+            {"a\\.b\\|c", 0, "[[a.b|c]]"},
+            {"\\d+foo\\bbar\\x41baz\\u0041qux\\p{L}end", 0, "[[foo, bar, baz, qux, end]]"},
+            {"abc\\.?def", 0, "[[abc, def]]"},
+            {"x\\Q.*a|b(\\Ey", 0, "[[x, .*a|b(y]]"},
+            {"x\\Qabc", 0, "[[x, abc]]"},
+            // Inline flags
+            {"(?i)Hello|World", 0, "[[Hello], [World]]"},
+            {"(?i)Straße", 0, "[[Stra, e]]"},
+            {"(?x) a b c ", 0, null},
+            {"(?ix)abc", 0, null},
+            {"(?x:a b)cde", 0, "[[cde]]"},
+            {"a b c", Pattern.COMMENTS, null},
+            // Case insensitive non-ASCII letters may match other bytes, case sensitive ones may not
+            {"Grüße", 0, "[[Grüße]]"},
+            {"Grüße", Pattern.CASE_INSENSITIVE, "[[Gr, e]]"},
+            {"Grüße", Pattern.UNICODE_CASE, "[[Gr, e]]"},
+            // A literal pattern is one fragment, whatever it holds
+            {"a.b*c|d(e", Pattern.LITERAL, "[[a.b*c|d(e]]"},
+            {"aébc", Pattern.LITERAL | Pattern.CASE_INSENSITIVE, "[[a, bc]]"},
+    };
+
+    @Test
+    public void testPlanReducesPatternsToTheirLiteralFragments() {
+        for (Object[] plan : PLANS) {
+            Pattern pattern = Pattern.compile((String) plan[0], (Integer) plan[1]);
+            List<List<String>> planned = TrigramQuery.plan(pattern);
+            assertEquals(plan[2], (planned == null) ? null : planned.toString(), plan[0] + " with flags " + plan[1]);
+        }
+    }
+
+    @Test
+    public void testAlternativeWithoutTrigramsMatchesAnyFile() {
+        assertFalse(query(false, "hello").matchesAnyFile());
+        assertEquals(2, query(false, "hello|world").getAlternatives().size());
+        assertEquals(3, query(false, "hello|world", "again").getAlternatives().size());
+        assertTrue(query(false, "hello|ab").matchesAnyFile());
+        assertTrue(query(false, "hello", "a.c").matchesAnyFile());
+        assertTrue(query(false, "(?x)hello").matchesAnyFile());
+        assertTrue(query(false).matchesAnyFile());
+        // Lines that do not match can be anywhere
+        assertTrue(query(true, "hello").matchesAnyFile());
+    }
+
+    @Test
+    public void testTrigramsFoldAsciiLettersOnly() {
+        int[] upper = TrigramQuery.trigrams(List.of("HELLO"));
+        int[] lower = TrigramQuery.trigrams(List.of("hello"));
+
+        assertTrue(Arrays.equals(upper, lower));
+        assertEquals(3, lower.length);
+        assertFalse(Arrays.equals(TrigramQuery.trigrams(List.of("ÉTÉ")), TrigramQuery.trigrams(List.of("été"))));
+        assertEquals(0, TrigramQuery.trigrams(List.of("ab", "cd")).length);
+    }
+
+    @Test
+    public void testSearchWithTheIndexFindsTheSameLinesAsWithout() throws Exception {
+        Path tree = base.resolve("tree");
+        file(tree, "a.txt", "hello world\ncolor\n");
+        file(tree, "b.txt", "GRÜSSE aus Berlin\nGrüße\n");
+        file(tree, "src/c.java", "int abc = 1;\nabbbcd\nfoo(bar)qux\n");
+        file(tree, "src/d.java", "start middle end\nabccdef\nabcdef\n");
+        file(tree, "e.log", "nothing to see here\nxa.b\n");
+        file(tree, "f.txt", "STRASSE\nstraße\nabc colour\n");
+        CacheManager.CACHE_DIRECTORY = base.resolve("cache").toString();
+
+        String[][] searches = {
+                {"hello"},
+                {"colou?r", "nothing"},
+                {"ab+cd|world"},
+                {"abc{0,3}def"},
+                {"foo\\(bar\\)"},
+                {"^start.*end$"},
+                {"(?x) ab c"},
+                {"(?i)straße"},
+                {"-i", "grüße"},
+                {"-i", "HELLO"},
+                {"-F", "foo(bar)"},
+                {"-v", "hello"},
+                {"x\\Qa.b\\E"},
+                {"-c", "abc"},
+        };
+        for (String[] search : searches) {
+            List<String> withoutIndex = search(tree, search, false);
+            assertFalse(withoutIndex.contains("count=0"), String.join(" ", search));
+            assertEquals(withoutIndex, search(tree, search, true), String.join(" ", search));
+        }
+    }
+
+    private static TrigramQuery query(boolean inverted, String... regexes) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return TrigramQuery.of(patterns, inverted);
+    }
+
+    // Written an hour ago, so the index does not leave them out as just modified
+    private static void file(Path dir, String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 3600_000L));
+    }
+
+    /**
+     * Runs a recursive search the way Main sets it up, with options before the patterns.
+     *
+     * @return The lines found in a stable order, followed by the match count.
+     */
+    private static List<String> search(Path tree, String[] search, boolean useIndex) throws Exception {
+        List<String> options = new ArrayList<>(List.of("-R", "-n", "-l", "-sf"));
+        List<String> args = Arrays.asList(search);
+        int flags = (args.contains("-F") ? Pattern.LITERAL : 0) | (args.contains("-i") ? Pattern.CASE_INSENSITIVE : 0);
+        List<Pattern> patterns = new ArrayList<>();
+        for (String arg : search) {
+            if (arg.startsWith("-")) {
+                options.add(arg);
+            } else {
+                patterns.add(Pattern.compile(arg, flags));
+            }
+        }
+        if (options.contains("-c")) {
+            options.removeAll(List.of("-n", "-l", "-sf"));
+        }
+        if (useIndex) {
+            options.add("-idx");
+        }
+        Grep grep = new Grep(tree.toString(), patterns, new ArrayList<>(), new ArrayList<>(), new MyRegexOptions(options));
+        Result result = grep.execute();
+        List<String> found = new ArrayList<>();
+        for (LineResult lineResult : result.getLineResults()) {
+            found.add(lineResult.toString());
+        }
+        found.sort(null);
+        found.add("count=" + result.count);
+        return found;
+    }
+}
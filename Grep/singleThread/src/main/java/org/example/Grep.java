@@ -22,6 +22,7 @@ public class Grep {
     MyRegexOptions options;
     Result result;
     LineResult.Builder builder;
+    LiteralSearch literalSearch; // Byte level search used when any pattern is a plain string, null otherwise
 
     /**
      * Constructor to initialize the Grep object with necessary parameters.
@@ -40,8 +41,9 @@ public class Grep {
         this.regexPatterns = regexPatterns;
         this.files = files;
         this.directories = directories;
-        this.result = new Result();
+        this.result = options.streamResults ? new Result(createSink(options)) : new Result();
         builder = new LineResult.Builder(this.options);
+        literalSearch = LiteralSearch.compile(regexPatterns, options, builder);
         if (options.dirSearch) {
             addFilesRecursive();
         }
@@ -55,14 +57,28 @@ public class Grep {
      * Executes the file content search based on the provided parameters and options.
      */
     public void execute() {
-        if (options.invertedSearch) {
-            for (String file : files) {
-                invertedProcessFile(file);
-            }
-        } else {
-            for (String file : files) {
-                processFile(file);
-            }
+        for (String file : files) {
+            searchFile(file);
+        }
+    }
+
+    /**
+     * Searches a single file, with inverted search if requested. With -c the matches of the file
+     * are counted into a counter of its own, which is added to the result once the file is done.
+     *
+     * @param file The file path to process.
+     */
+    private void searchFile(String file) {
+        FileSearchEvent event = FlightEvents.fileSearch();
+        MatchCounter counter = options.onlyCountLines ? new MatchCounter(regexPatterns.size()) : null;
+        Result fileResult = (counter != null) ? counter : result;
+        Result target = (event != null && event.isEnabled()) ? new FileSearchEvent.CountingResult(fileResult) : fileResult;
+        int lines = options.invertedSearch ? invertedProcessFile(file, target) : processFile(file, target);
+        if (counter != null) {
+            result.addCounts(file, counter);
+        }
+        if (event != null) {
+            event.finish(file, Paths.get(pwd, file), lines, target);
         }
     }
 
@@ -96,18 +112,28 @@ public class Grep {
     /**
      * Processes the content of a file line by line using the specified regular expression patterns.
      *
-     * @param file The file path to process.
+     * @param file   The file path to process.
+     * @param target The result container to add matches to.
+     * @return The number of lines read.
      */
-    private void processFile(String file) {
+    int processFile(String file, Result target) {
+        if (literalSearch != null) {
+            return literalProcessFile(file, false, target);
+        }
+        int lineNumber = 1;
         try (BufferedReader reader = new BufferedReader(new FileReader(pwd + "/" + file))) {
             String line;
-            int lineNumber = 1;
             while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
+                for (int p = 0; p < regexPatterns.size(); p++) {
+                    Pattern pattern = regexPatterns.get(p);
                     Matcher matcher = pattern.matcher(line);
-                    while (matcher.find()) {
+                    while (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                        if (options.onlyCountLines) {
+                            target.addMatch(p);
+                            continue;
+                        }
                         LineResult lineResult = builder.build(lineNumber, matcher.group(), file, pattern);
-                        result.addResult(lineResult);
+                        target.addResult(lineResult);
                     }
                 }
                 lineNumber++;
@@ -115,23 +141,35 @@ public class Grep {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return lineNumber - 1;
     }
 
     /**
      * Processes the content of a file line by line using inverted search based on specified regular expression patterns.
      *
-     * @param file The file path to process with inverted search.
+     * @param file   The file path to process with inverted search.
+     * @param target The result container to add matches to.
+     * @return The number of lines read.
      */
-    private void invertedProcessFile(String file) {
+    private int invertedProcessFile(String file, Result target) {
+        if (literalSearch != null) {
+            return literalProcessFile(file, true, target);
+        }
+        int lineNumber = 1;
         try (BufferedReader reader = new BufferedReader(new FileReader(pwd + "/" + file))) {
             String line;
-            int lineNumber = 1;
             while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
+                for (int p = 0; p < regexPatterns.size(); p++) {
+                    Pattern pattern = regexPatterns.get(p);
                     Matcher matcher = pattern.matcher(line);
-                    if (!matcher.find()) {
+                    if (LiteralSearch.find(matcher, line, options.wholeWord)) {
+                        continue;
+                    }
+                    if (options.onlyCountLines) {
+                        target.addMatch(p);
+                    } else {
                         LineResult lineResult = builder.build(lineNumber, line, file, pattern);
-                        result.addResult(lineResult);
+                        target.addResult(lineResult);
                     }
                 }
                 lineNumber++;
@@ -139,5 +177,38 @@ public class Grep {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return lineNumber - 1;
+    }
+
+    /**
+     * Processes the content of a file with the literal fast path, searching its raw bytes
+     * without decoding lines or going through the regex engine.
+     *
+     * @param file     The file path to process.
+     * @param inverted Whether to report the lines that do not match instead.
+     * @param target   The result container to add matches to.
+     * @return The number of lines read, or 0 if line numbers are not shown.
+     */
+    private int literalProcessFile(String file, boolean inverted, Result target) {
+        try {
+            return literalSearch.searchFile(Paths.get(pwd, file), file, target, inverted);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Creates the sink that streamed results are written to: the standard output, or nothing
+     * at all when only the count is wanted.
+     *
+     * @param options Options for regex search.
+     * @return The sink for streamed results.
+     */
+    private static ResultSink createSink(MyRegexOptions options) {
+        if (options.onlyCountLines) {
+            return ResultSink.discarding();
+        }
+        return new ResultSink(System.out);
     }
 }
@@ -55,6 +55,21 @@ public class LineResult {
         this.pattern = (pattern != null) ? String.valueOf(pattern) : null;
     }
 
+    /**
+     * Recreates a line result from the fields a ResultStore kept of it.
+     *
+     * @param lineNumber The line number, or null if the result has none.
+     * @param line The content of the line, or null.
+     * @param file The file name, or null.
+     * @param pattern The pattern, already turned into a string, or null.
+     * @return A LineResult with exactly these fields.
+     */
+    static LineResult restore(Integer lineNumber, String line, String file, String pattern) {
+        LineResult lineResult = new LineResult(lineNumber, line, file, null);
+        lineResult.pattern = pattern;
+        return lineResult;
+    }
+
     /**
      * Builder class for constructing LineResult instances with specific options.
      */
@@ -0,0 +1,39 @@
+package org.example;
+
+/**
+ * A result container for -c that counts the matches of one file per pattern instead of keeping
+ * them. The search engines call addMatch for every match instead of building a LineResult, so
+ * counting allocates nothing per match. Once the file is done the counter is handed over to the
+ * result of the search with {@link Result#addCounts(String, MatchCounter)}.
+ */
+public class MatchCounter extends Result {
+    final long[] patternCounts; // Matches of each pattern, in pattern order
+
+    /**
+     * Constructs a counter with every count at zero.
+     *
+     * @param patterns The number of patterns of the search.
+     */
+    public MatchCounter(int patterns) {
+        super(null, false);
+        this.patternCounts = new long[patterns];
+    }
+
+    @Override
+    public void addMatch(int pattern) {
+        patternCounts[pattern]++;
+    }
+
+    /**
+     * Returns the number of matches of all patterns.
+     *
+     * @return The total count.
+     */
+    long total() {
+        long total = 0;
+        for (long patternCount : patternCounts) {
+            total += patternCount;
+        }
+        return total;
+    }
+}
@@ -16,6 +16,9 @@ public class MyRegexOptions {
     final boolean showFiles; // Option to show files where matches are found
     final boolean dirSearch; // Option to enable recursive directory search
     final boolean showPattern; // Option to show the pattern used for matching in the output
+    final boolean fixedStrings; // Option to treat every pattern as a plain string instead of a regex
+    final boolean wholeWord; // Option to only match whole words
+    final boolean streamResults; // Option to write results out as they are found instead of at the end
 
     /**
      * Constructs an instance of MyRegexOptions based on the specified list of option flags.
@@ -33,6 +36,9 @@ public class MyRegexOptions {
         this.caseInsensitive = options.contains("-i");
         this.dirSearch = options.contains("-R");
         this.showPattern = options.contains("-sp");
+        this.fixedStrings = options.contains("-F");
+        this.wholeWord = options.contains("-w");
+        this.streamResults = options.contains("-stream");
 
         // Validate options to ensure -c is not used with options that affect output formatting.
         if (onlyCountLines && (showLines || showLineNumbers || showFiles || showPattern)) {
@@ -1,7 +1,10 @@
 package org.example;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 /**
  * A container for accumulating and reporting the results of a search operation.
@@ -11,17 +14,52 @@ public class Result {
     static String ANSI_GREEN = "\u001B[32m";
     static String ANSI_YELLOW = "\u001B[33m";
     static String ANSI_RESET = "\u001B[0m";
-    // List to hold individual search results
-    private final List<LineResult> result;
+    // Individual search results, kept in columns
+    private final ResultStore result;
+    // Writes results out as they are added instead of keeping them, or null
+    private final ResultSink sink;
+    // Creation time of this container, in nanoseconds
+    private final long startTime;
+    // Time the first match was added, in nanoseconds, or 0 if there is none yet
+    private long firstMatchTime;
     // Counter for the total number of matches found
-    private int count;
+    private long count;
+    // Matches of each pattern, summed over the counters handed over with -c and the matches added, or null if there are none
+    private long[] patternCounts;
+    // Matches of each file that has any, summed over the counters handed over with -c
+    private final Map<String, Long> fileCounts;
 
     /**
      * Constructs a new, empty Result object.
      */
     public Result(){
-        this.result = new ArrayList<>();
+        this(null);
+    }
+
+    /**
+     * Constructs a new, empty Result object that streams its line results to the given sink
+     * instead of keeping them. The count is still kept as a running total.
+     *
+     * @param sink The sink to write line results to, or null to keep them.
+     */
+    public Result(ResultSink sink){
+        this(sink, true);
+    }
+
+    /**
+     * Constructs a new, empty Result object, with or without the line result store and the per
+     * file counts of the container of a search. A container without them is cheap enough to
+     * create for every file, but must be a subclass that counts or passes on what is added to it.
+     *
+     * @param sink   The sink to write line results to, or null to keep them.
+     * @param stored Whether line results and per file counts are kept in this container.
+     */
+    protected Result(ResultSink sink, boolean stored){
+        this.result = stored ? new ResultStore() : null;
+        this.fileCounts = stored ? new TreeMap<>() : null;
         this.count = 0;
+        this.sink = sink;
+        this.startTime = System.nanoTime();
     }
 
     /**
@@ -30,15 +68,89 @@ public class Result {
      * @param lineResult The result of a single line search to add.
      */
     public void addResult(LineResult lineResult) {
-        result.add(lineResult);
-        count++;
+        if (sink != null) {
+            sink.write(lineResult);
+        } else {
+            result.add(lineResult);
+        }
+        if (count++ == 0) {
+            firstMatchTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Counts a match of a pattern without keeping a result for it, in the per pattern counts and
+     * the match count. With -c every file is counted into a MatchCounter of its own, which is
+     * handed over with addCounts so that the matches are also counted per file.
+     *
+     * @param pattern The index of the pattern that matched.
+     */
+    public void addMatch(int pattern) {
+        growPatternCounts(pattern + 1);
+        patternCounts[pattern]++;
+        if (count++ == 0) {
+            firstMatchTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Makes room for the counts of the given number of patterns.
+     */
+    private void growPatternCounts(int patterns) {
+        if (patternCounts == null) {
+            patternCounts = new long[patterns];
+        } else if (patternCounts.length < patterns) {
+            patternCounts = Arrays.copyOf(patternCounts, patterns);
+        }
+    }
+
+    /**
+     * Adds the matches counted for a file to the per file and per pattern counts, and to the
+     * match count.
+     *
+     * @param file    The file that was searched.
+     * @param counter The counter the matches of the file were counted in.
+     */
+    public void addCounts(String file, MatchCounter counter) {
+        long total = counter.total();
+        if (total == 0) {
+            return;
+        }
+        growPatternCounts(counter.patternCounts.length);
+        for (int i = 0; i < counter.patternCounts.length; i++) {
+            patternCounts[i] += counter.patternCounts[i];
+        }
+        fileCounts.merge(file, total, Long::sum);
+        if (count == 0) {
+            firstMatchTime = System.nanoTime();
+        }
+        count += total;
+    }
+
+    /**
+     * Prints the match count of every file that has any, and of every pattern, to the standard output.
+     *
+     * @param patterns The patterns of the search, in pattern order.
+     */
+    public void printCounts(List<Pattern> patterns) {
+        for (Map.Entry<String, Long> entry : fileCounts.entrySet()) {
+            System.out.println(entry.getKey() + ":" + entry.getValue());
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            System.out.println("pattern '" + patterns.get(i) + "': " + ((patternCounts != null && i < patternCounts.length) ? patternCounts[i] : 0));
+        }
     }
 
     /**
      * Prints all accumulated line results to the standard output.
-     * Each line result is printed on a new line.
+     * Each line result is printed on a new line. When streaming, the results have already been
+     * written and only what is still buffered in the sink is flushed.
      */
     public void printResults() {
+        if (sink != null) {
+            sink.flush();
+            return;
+        }
         for(LineResult lineResult : result) {
             System.out.println(lineResult);
         }
@@ -50,4 +162,14 @@ public class Result {
     public void printCount() {
         System.out.println(ANSI_GREEN+"Total matches found: " + count+ANSI_RESET);
     }
+
+    /**
+     * Prints the time from the creation of this container to the first match.
+     */
+    public void printTimeToFirstMatch() {
+        long first = firstMatchTime;
+        if (first != 0) {
+            System.out.println(ANSI_YELLOW+" ... first match after " + (first - startTime) / 1_000_000 + "ms"+ANSI_RESET);
+        }
+    }
 }